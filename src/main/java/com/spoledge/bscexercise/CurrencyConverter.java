@@ -1,5 +1,7 @@
 package com.spoledge.bscexercise;
 
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
 
@@ -16,6 +18,14 @@ public interface CurrencyConverter {
     public Curr getTargetCurrency();
 
 
+    /**
+     * Returns the version of the rates currently used.
+     * The version is changed whenever the rates are changed, so the consumers
+     * can cache the converted values until then.
+     */
+    public long getRatesVersion();
+
+
     /**
      * Converts money to the target currency.
      * @param money the money to be converted
@@ -24,4 +34,41 @@ public interface CurrencyConverter {
      */
     public Money convertMoney( Money money );
 
+
+    /**
+     * Converts money to any currency.
+     * @param money the money to be converted
+     * @param targetCurrency the target currency
+     * @return the converted money or null if no conversion rate is set
+     *  for the input or target currency
+     */
+    public Money convertMoney( Money money, Curr targetCurrency );
+
+
+    /**
+     * Converts all money of the balance to the target currency at once.
+     * All items are converted by the same rates.
+     * @param balance the balance to be converted
+     * @return the converted items and their total
+     */
+    public ConvertedBalance convertBalance( Balance balance );
+
+
+    /**
+     * Converts all money of the balance to any currency at once.
+     * All items are converted by the same rates.
+     * @param balance the balance to be converted
+     * @param targetCurrency the target currency
+     * @return the converted items and their total
+     */
+    public ConvertedBalance convertBalance( Balance balance, Curr targetCurrency );
+
+
+    /**
+     * Rounds money the same way as the converted amounts are rounded.
+     * @param money the money to be rounded
+     * @return the rounded money
+     */
+    public Money round( Money money );
+
 }
@@ -37,4 +37,20 @@ public interface MoneyParser {
      */
     public Money parseMoney( String currency, String amount ) throws MoneyParseException;
 
+    /**
+     * Parses money from a part of a character sequence.
+     * This is the same as parseMoney( line.subSequence( start, end ).toString(), lineNumber ),
+     * but it does not need to create any intermediate objects.
+     * Character arrays can be passed wrapped by java.nio.CharBuffer.wrap()
+     * and byte buffers by com.spoledge.bscexercise.util.ByteCharSequence.
+     * @param line the characters containing both currency and amount
+     * @param start the index of the first character (inclusive)
+     * @param end the index of the last character (exclusive)
+     * @param lineNumber the line number or -1 if not applicable
+     * @return the parsed money - always non-null
+     * @throws MoneyParseException when the money cannot be parsed
+     * @throws NullPointerException when the line is null
+     */
+    public Money parseMoney( CharSequence line, int start, int end, int lineNumber ) throws MoneyParseException;
+
 }
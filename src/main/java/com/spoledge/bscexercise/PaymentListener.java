@@ -0,0 +1,29 @@
+package com.spoledge.bscexercise;
+
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+
+/**
+ * The listener of the registered payments.
+ * The listener is called by the thread which registered the payment
+ * after the payment has been registered, so it must return quickly.
+ */
+public interface PaymentListener {
+
+    /**
+     * Called when a single payment has been registered.
+     * @param payment the registered payment
+     * @param transactionId the transaction id of the payment
+     */
+    public void paymentRegistered( Money payment, int transactionId );
+
+
+    /**
+     * Called when a batch of payments has been registered.
+     * @param batch the registered batch - valid only during the call
+     * @param firstTransactionId the transaction id of the first payment of the batch
+     */
+    public void paymentsRegistered( PaymentBatch batch, int firstTransactionId );
+
+}
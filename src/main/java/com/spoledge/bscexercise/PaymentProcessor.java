@@ -2,6 +2,7 @@ package com.spoledge.bscexercise;
 
 import com.spoledge.bscexercise.model.Balance;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
 
 
 /**
@@ -19,9 +20,31 @@ public interface PaymentProcessor {
     public int registerPayment( Money payment );
 
 
+    /**
+     * Registers a batch of payments at once.
+     * Each payment of the batch gets its own transaction id, the ids are consecutive.
+     * @param batch the pre-aggregated payments to be registered
+     * @return the transaction id of the first payment of the batch - the payments
+     *  have ids from the returned value to (returned value + batch.getCount() - 1);
+     *  if the batch is empty, then no id is assigned and the next free id is returned
+     * @throws NullPointerException when the parameter is null
+     */
+    public int registerPayments( PaymentBatch batch );
+
+
     /**
      * Returns the balance.
+     * The list of money is sorted by the currency code (the same order
+     * as the currency index), so the consumers do not need to sort it.
      */
     public Balance getBalance();
 
+
+    /**
+     * Returns the id of the last registered transaction.
+     * It is much cheaper than getBalance(), so it can be used to find out
+     * whether the balance could have changed since it was obtained.
+     */
+    public int getLastTransationId();
+
 }
@@ -0,0 +1,41 @@
+package com.spoledge.bscexercise;
+
+import java.util.List;
+
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.PaymentFlow;
+
+
+/**
+ * The statistics of the recent payments.
+ * <pre>
+ *  PaymentFlow flow = statistics.getFlow( usd, 60 );
+ *  System.out.println( "USD payments in the last minute: " + flow.getCount());
+ * </pre>
+ */
+public interface PaymentStatistics {
+
+    /**
+     * Returns the maximal time window which can be queried.
+     */
+    public int getMaxSeconds();
+
+
+    /**
+     * Returns the flow of one currency.
+     * @param currency the currency
+     * @param seconds the time window - the last seconds including the current one
+     * @throws IllegalArgumentException when the window is not from 1 to getMaxSeconds()
+     */
+    public PaymentFlow getFlow( Curr currency, int seconds );
+
+
+    /**
+     * Returns the flows of all currencies which had any payment during the time window.
+     * The list is sorted by the currency code.
+     * @param seconds the time window - the last seconds including the current one
+     * @throws IllegalArgumentException when the window is not from 1 to getMaxSeconds()
+     */
+    public List<PaymentFlow> getFlows( int seconds );
+
+}
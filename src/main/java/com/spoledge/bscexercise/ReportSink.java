@@ -0,0 +1,39 @@
+package com.spoledge.bscexercise;
+
+import java.io.IOException;
+
+
+/**
+ * The output of the payment reports.
+ * The reporters generate each report as a whole and pass it to the sink at once,
+ * so the sink never mixes the reports together.
+ * The text reports are encoded as UTF-8 when written as bytes.
+ */
+public interface ReportSink {
+
+    /**
+     * Writes one finished report.
+     * @param report the whole text of the report
+     * @throws IOException when the report cannot be written
+     */
+    public void write( String report ) throws IOException;
+
+
+    /**
+     * Writes one finished report in its binary form.
+     * The data are not kept after the method returns, so the caller can reuse the array.
+     * @param data the array holding the report
+     * @param offset the index of the first byte of the report
+     * @param length the number of bytes of the report
+     * @throws IOException when the report cannot be written
+     */
+    public void write( byte[] data, int offset, int length ) throws IOException;
+
+
+    /**
+     * Writes all pending reports and releases the resources.
+     * No report can be written after the sink is closed.
+     */
+    public void close() throws IOException;
+
+}
@@ -0,0 +1,130 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.IOException;
+
+import java.util.List;
+
+import com.spoledge.bscexercise.CurrencyConverter;
+import com.spoledge.bscexercise.PaymentProcessor;
+import com.spoledge.bscexercise.ReportSink;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
+import com.spoledge.bscexercise.model.Curr;
+
+import com.spoledge.bscexercise.util.ReportBuffer;
+
+
+/**
+ * A parent of the reporters generating machine-readable reports.
+ * It collects the balance and its conversions and lets the subclass format them
+ * into a reusable buffer, which is then written to the report sink at once.
+ * So generating a report does not build any intermediate strings.
+ * <p>
+ * The reports contain the same data as the text report: the non-zero balances
+ * sorted by the currency code, their conversions to the target currency
+ * (when the currency converter is set) and the totals in the total currencies.
+ * </p>
+ */
+public abstract class AbstractDataPaymentReporterImpl extends AbstractPaymentReporterImpl {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private ReportSink reportSink;
+
+    /**
+     * The reused output buffer - guarded by itself.
+     */
+    private final ReportBuffer buffer = new ReportBuffer();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new reporter.
+     * @param reportSink the output of the reports
+     */
+    protected AbstractDataPaymentReporterImpl( ReportSink reportSink ) {
+        setReportSink( reportSink );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // AbstractPaymentReporterImpl
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes a new payment report.
+     */
+    protected void writePaymentReport() {
+        PaymentProcessor pp = this.paymentProcessor;
+        CurrencyConverter cc = this.currencyConverter;
+
+        if (pp == null) {
+            log.error( "PaymentProcessor not set, cannot obtain data." );
+            return;
+        }
+
+        Balance balance = pp.getBalance();
+        ConvertedBalance converted = cc != null ? cc.convertBalance( balance ) : null;
+        ConvertedBalance[] totals;
+
+        if (cc != null) {
+            List<Curr> currs = totalCurrencies;
+            totals = new ConvertedBalance[ currs.size() ];
+
+            for (int i=0; i < totals.length; i++) {
+                Curr curr = currs.get( i );
+                totals[ i ] = curr == converted.getTargetCurrency() ? converted : cc.convertBalance( balance, curr );
+            }
+        }
+        else totals = new ConvertedBalance[ 0 ];
+
+        synchronized (buffer) {
+            buffer.clear();
+            format( buffer, balance, converted, totals );
+
+            try {
+                reportSink.write( buffer.array(), 0, buffer.length());
+            }
+            catch (IOException e) {
+                log.error( "Cannot write the report: " + e );
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public ReportSink getReportSink() {
+        return reportSink;
+    }
+
+    public void setReportSink( ReportSink reportSink ) {
+        if (reportSink == null) throw new NullPointerException( "Missing reportSink" );
+
+        this.reportSink = reportSink;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Formats one report.
+     * @param out the cleared output buffer
+     * @param balance the balance - sorted by the currency code
+     * @param converted the balance converted to the target currency or null if there is no converter
+     * @param totals the balance converted to each of the total currencies
+     */
+    protected abstract void format( ReportBuffer out, Balance balance, ConvertedBalance converted,
+                                        ConvertedBalance[] totals );
+
+}
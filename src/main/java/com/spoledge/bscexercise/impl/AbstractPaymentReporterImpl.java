@@ -1,38 +1,234 @@
 package com.spoledge.bscexercise.impl;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 import java.util.Date;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.spoledge.bscexercise.CurrencyConverter;
+import com.spoledge.bscexercise.PaymentListener;
+import com.spoledge.bscexercise.PaymentProcessor;
 import com.spoledge.bscexercise.PaymentReporter;
+import com.spoledge.bscexercise.PaymentStatistics;
 
+import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+import com.spoledge.bscexercise.util.SharedScheduler;
 
 
 /**
  * A parent of all PaymentReporter implementations.
  * Contains common reusable code.
+ * <p>
+ * The automatic reports are scheduled on a shared scheduled executor.
+ * The next report is scheduled only when the previous one is finished,
+ * so at most one automatic report runs at a time. When a report takes longer
+ * than the period, then the missed reports are not fired in a burst -
+ * they are handled by the catch-up policy.
+ * </p>
+ * <p>
+ * Besides the timer, the reports can be triggered by the payments - every N transactions
+ * or when a balance of any currency moves by more than a threshold since the last report.
+ * The reporter must be registered as a listener of the payments (see NotifyingPaymentProcessorImpl)
+ * and the triggers are active only while the automatic reporting is started.
+ * The triggered reports run on the executor and they are coalesced: all triggers
+ * fired while a report is running produce only one more report after it.
+ * </p>
+ * <p>
+ * All reports - the timer, the triggered and the explicitly generated ones - run
+ * under one lock of the reporter, so at most one report runs at a time.
+ * Only the explicit reports wait for the lock. The timer and the triggered reports do not
+ * block the executor: when another report is running, they are coalesced into
+ * one triggered report run when the lock is released.
+ * The subclasses write the reports in writePaymentReport().
+ * </p>
  */
-public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
+public abstract class AbstractPaymentReporterImpl implements PaymentReporter, PaymentListener {
 
     /**
      * The default period.
      */
     public static final long DEFAULT_PERIOD = 60000L;
 
+    /**
+     * The default time window of the reported statistics.
+     */
+    public static final int DEFAULT_STATISTICS_SECONDS = 60;
 
     /**
-     * The last timer is used.
-     * It is used for timer's thread names.
+     * The scale of the compact moves of the balances.
      */
-    private static int lastTimerId = 0;
+    private static final int MOVE_SCALE = 6;
+
+
+    /**
+     * The policy for the reports missed because the previous report took too long.
+     */
+    public enum CatchUpPolicy {
+        /**
+         * The missed reports are skipped - the next report is run at the next regular time.
+         */
+        SKIP,
+
+        /**
+         * All missed reports are coalesced to one report which is run immediately,
+         * then the reports continue at the regular times.
+         */
+        COALESCE
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The move of a balance since the last automatic report.
+     * The unscaled value at MOVE_SCALE is updated by CAS - it is Long.MIN_VALUE when
+     * the move does not fit and the amount (guarded by the move) is used instead.
+     */
+    private static class Move {
+        final AtomicLong unscaled = new AtomicLong();
+        BigDecimal amount;
+    }
+
+
+    /**
+     * The self-rescheduling task of the automatic reporting.
+     */
+    private class ReportTask implements Runnable {
+        private long nextTime;
+        private volatile boolean cancelled;
+        private ScheduledFuture<?> future;
+
+        ReportTask( long firstTime ) {
+            this.nextTime = firstTime;
+        }
+
+        /**
+         * Schedules the next run - called under lockTimer.
+         */
+        void schedule() {
+            long delay = Math.max( 0, nextTime - System.currentTimeMillis());
+
+            future = executor.schedule( this, delay, TimeUnit.MILLISECONDS );
+        }
+
+        /**
+         * Cancels the task - called under lockTimer.
+         */
+        void cancel() {
+            cancelled = true;
+            if (future != null) future.cancel( false );
+        }
+
+        public void run() {
+            if (cancelled) return;
+
+            if (log.isDebugEnabled()) {
+                log.debug( "Task started." );
+            }
+
+            if (lockReport.tryLock()) {
+                try {
+                    resetTriggers();
+                    writePaymentReport();
+                }
+                catch (RuntimeException e) {
+                    log.error( "Cannot generate report: " + e, e );
+                }
+                finally {
+                    unlockReport();
+                }
+            }
+            else {
+                // another report is running - the triggered report after it serves this one:
+                trigger();
+            }
+
+            // stopped during the report - no catch-up nor rescheduling:
+            if (cancelled) return;
+
+            long now = System.currentTimeMillis();
+            long p = period;
+
+            nextTime += p;
+
+            if (nextTime <= now) {
+                // the number of regular times which already passed:
+                long missed = (now - nextTime) / p + 1;
+
+                if (catchUpPolicy == CatchUpPolicy.COALESCE) {
+                    nextTime += (missed - 1) * p;
+                    missed--;
+                }
+                else {
+                    nextTime += missed * p;
+                }
+
+                if (missed > 0) {
+                    skippedReports += missed;
+                    log.warn( "The report took too long, skipping " + missed + " report(s)" );
+                }
+            }
+
+            synchronized( lockTimer ) {
+                if (!cancelled) schedule();
+            }
+        }
+    }
+
+
+    /**
+     * The task of the triggered reports.
+     * It runs while there are pending triggers - all triggers fired
+     * during one report are served by the next single report.
+     * When another report is running, then the task ends and it is submitted
+     * again by the report when the report lock is released.
+     */
+    private class TriggerTask implements Runnable {
+        public void run() {
+            while (pendingTriggers.get() > 0) {
+                if (!lockReport.tryLock()) return;
+
+                int n = pendingTriggers.get();
+
+                try {
+                    if (n > 1) coalescedTriggers += n - 1;
+
+                    if (n > 0 && triggersEnabled) {
+                        resetTriggers();
+                        writePaymentReport();
+                        triggeredReports++;
+                    }
+                }
+                catch (RuntimeException e) {
+                    log.error( "Cannot generate report: " + e, e );
+                }
+                finally {
+                    pendingTriggers.addAndGet( -n );
+                    lockReport.unlock();
+                }
+            }
+        }
+    }
 
 
     ////////////////////////////////////////////////////////////////////////////
@@ -40,9 +236,14 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
     ////////////////////////////////////////////////////////////////////////////
 
     /**
-     * The timer for automatic reporting.
+     * The executor for automatic reporting.
+     */
+    protected ScheduledExecutorService executor = SharedScheduler.getInstance();
+
+    /**
+     * The policy for the missed reports.
      */
-    protected Timer timer;
+    protected CatchUpPolicy catchUpPolicy = CatchUpPolicy.SKIP;
 
     /**
      * The automatic reporting period in ms.
@@ -64,6 +265,31 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
      */
     protected boolean syncHour;
 
+    /**
+     * The source of the reported balances.
+     */
+    protected PaymentProcessor paymentProcessor;
+
+    /**
+     * The converter of the balances - optional.
+     */
+    protected CurrencyConverter currencyConverter;
+
+    /**
+     * The currencies in which the total of all balances is reported.
+     */
+    protected List<Curr> totalCurrencies = Collections.emptyList();
+
+    /**
+     * The statistics of the recent payments - optional.
+     */
+    protected PaymentStatistics paymentStatistics;
+
+    /**
+     * The time window of the reported statistics in seconds.
+     */
+    protected int statisticsSeconds = DEFAULT_STATISTICS_SECONDS;
+
     /**
      * The logging object.
      */
@@ -74,6 +300,69 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
      */
     private Object lockTimer = new Object();
 
+    /**
+     * The lock held while a report is written - shared by all kinds of the reports.
+     */
+    private final ReentrantLock lockReport = new ReentrantLock();
+
+    /**
+     * The number of transactions which trigger a report; 0 means never.
+     */
+    protected int reportEvery;
+
+    /**
+     * The move of a balance which triggers a report; null means never.
+     */
+    protected BigDecimal reportThreshold;
+
+    /**
+     * The report threshold scaled to MOVE_SCALE (rounded down) or Long.MAX_VALUE when it does not fit.
+     */
+    private long unscaledThreshold = Long.MAX_VALUE;
+
+    /**
+     * The current automatic reporting task.
+     */
+    private ReportTask task;
+
+    private boolean started;
+
+    /**
+     * True while the automatic reporting is started.
+     */
+    private volatile boolean triggersEnabled;
+
+    private final TriggerTask triggerTask = new TriggerTask();
+
+    /**
+     * The number of triggers not served yet - the trigger task is submitted
+     * only by the trigger which finds it zero.
+     */
+    private final AtomicInteger pendingTriggers = new AtomicInteger();
+
+    /**
+     * The number of transactions since the last automatic report.
+     */
+    private final AtomicLong transactions = new AtomicLong();
+
+    /**
+     * The moves of the balances since the last automatic report indexed by the currency index.
+     */
+    private final AtomicReferenceArray<Move> moves = new AtomicReferenceArray<Move>( Curr.INDEX_COUNT );
+
+    /**
+     * All the moves created so far - copy-on-write, guarded by moves.
+     */
+    private volatile Move[] allMoves = new Move[ 0 ];
+
+    private volatile long triggeredReports;
+    private volatile long coalescedTriggers;
+
+    /**
+     * The number of automatic reports skipped by the catch-up policy.
+     */
+    private volatile long skippedReports;
+
 
     ////////////////////////////////////////////////////////////////////////////
     // PaymentReporter
@@ -86,9 +375,16 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
      */
     public void startPaymentReporting() {
         synchronized( lockTimer ) {
-            if (timer != null) throw new IllegalStateException( "Already started" );
+            if (started) throw new IllegalStateException( "Already started" );
 
-            timer = createTimer();
+            started = true;
+            resetTriggers();
+            triggersEnabled = true;
+
+            if (period > 0) {
+                task = createTask();
+                task.schedule();
+            }
 
             log.info( "Automatic reporting has been started." );
         }
@@ -102,9 +398,14 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
      */
     public void stopPaymentReporting() {
         synchronized( lockTimer ) {
-            if (timer != null) {
-                timer.cancel();
-                timer = null;
+            if (started) {
+                started = false;
+                triggersEnabled = false;
+
+                if (task != null) {
+                    task.cancel();
+                    task = null;
+                }
 
                 log.info( "Automatic reporting has been stopped." );
             }
@@ -114,9 +415,70 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
 
     /**
      * Generates a new payment report.
-     * This method can be called explicitly even when the automatic reporting is enabled.
+     * This method can be called explicitly even when the automatic reporting is enabled,
+     * it waits while another report is running.
+     */
+    public final void generatePaymentReport() {
+        lockReport.lock();
+
+        try {
+            writePaymentReport();
+        }
+        finally {
+            unlockReport();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PaymentListener
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Counts the payment and triggers a report when a trigger condition is met.
+     */
+    public void paymentRegistered( Money payment, int transactionId ) {
+        if (!triggersEnabled) return;
+
+        boolean trigger = reportEvery > 0 && transactions.incrementAndGet() >= reportEvery;
+
+        if (reportThreshold != null) {
+            Move move = getMove( payment.getCurrency());
+            long value = payment.isCompact() ? toMoveScale( payment.getUnscaledAmount(), payment.getScale())
+                                             : Long.MIN_VALUE;
+
+            if (value != Long.MIN_VALUE ? addMove( move, value ) : addMove( move, payment.getAmount())) {
+                trigger = true;
+            }
+        }
+
+        if (trigger) trigger();
+    }
+
+
+    /**
+     * Counts the payments and triggers a report when a trigger condition is met.
      */
-    public abstract void generatePaymentReport();
+    public void paymentsRegistered( PaymentBatch batch, int firstTransactionId ) {
+        if (!triggersEnabled) return;
+
+        boolean trigger = reportEvery > 0 && transactions.addAndGet( batch.getCount()) >= reportEvery;
+
+        if (reportThreshold != null) {
+            for (int i=0; i < batch.getCurrencyCount(); i++) {
+                MoneySum sum = batch.getSum( i );
+                Move move = getMove( sum.getCurrency());
+                long value = sum.isCompact() ? toMoveScale( sum.getUnscaledAmount(), sum.getScale())
+                                             : Long.MIN_VALUE;
+
+                if (value != Long.MIN_VALUE ? addMove( move, value ) : addMove( move, sum.getAmount())) {
+                    trigger = true;
+                }
+            }
+        }
+
+        if (trigger) trigger();
+    }
 
 
     ////////////////////////////////////////////////////////////////////////////
@@ -129,109 +491,206 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
 
     /**
      * Sets the perios of automatic reporting in ms.
+     * The period 0 disables the timer, so only the triggered reports are generated.
      */
     public void setPeriod( long period ) {
         this.period = period;
     }
 
 
-    public boolean getSyncSec() {
-        return syncSec;
+    public ScheduledExecutorService getExecutor() {
+        return executor;
     }
 
     /**
-     * Sets the synchronization flag for start of the automatic reporting: seconds.
-     * @param syncSec if true then milliseconds are cleared
+     * Sets the executor used for automatic reporting.
+     * By default the shared executor is used.
+     * The change takes effect when the reporting is started next time.
      */
-    public void setSyncSec( boolean syncSec ) {
-        this.syncSec = syncSec;
+    public void setExecutor( ScheduledExecutorService executor ) {
+        this.executor = executor;
     }
 
 
-    public boolean getSyncMin() {
-        return syncMin;
+    public CatchUpPolicy getCatchUpPolicy() {
+        return catchUpPolicy;
     }
 
     /**
-     * Sets the synchronization flag for start of the automatic reporting: minutes.
-     * @param syncMin if true then seconds are cleared
+     * Sets the policy for the reports missed because the previous report took too long.
+     * The default is SKIP.
      */
-    public void setSyncMin( boolean syncMin ) {
-        this.syncMin = syncMin;
+    public void setCatchUpPolicy( CatchUpPolicy catchUpPolicy ) {
+        this.catchUpPolicy = catchUpPolicy;
     }
 
 
-    public boolean getSyncHour() {
-        return syncHour;
+    /**
+     * Returns the number of automatic reports skipped by the catch-up policy.
+     */
+    public long getSkippedReports() {
+        return skippedReports;
+    }
+
+
+    public int getReportEvery() {
+        return reportEvery;
     }
 
     /**
-     * Sets the synchronization flag for start of the automatic reporting: hours.
-     * @param syncHour if true then minutes are cleared
+     * Sets the number of transactions which trigger a report.
+     * By default it is 0 - the reports are not triggered by the number of transactions.
      */
-    public void setSyncHour( boolean syncHour ) {
-        this.syncHour = syncHour;
+    public void setReportEvery( int reportEvery ) {
+        if (reportEvery < 0) throw new IllegalArgumentException( "Negative reportEvery" );
+
+        this.reportEvery = reportEvery;
     }
 
 
-    ////////////////////////////////////////////////////////////////////////////
-    // Protected
-    ////////////////////////////////////////////////////////////////////////////
+    public BigDecimal getReportThreshold() {
+        return reportThreshold;
+    }
 
     /**
-     * Creates a new timer.
+     * Sets the move of a balance (in its own currency) which triggers a report.
+     * By default it is null - the reports are not triggered by the moves of the balances.
      */
-    protected Timer createTimer() {
-        Timer timer = new Timer( createTimerName());
+    public void setReportThreshold( BigDecimal reportThreshold ) {
+        if (reportThreshold != null && reportThreshold.signum() < 0) {
+            throw new IllegalArgumentException( "Negative reportThreshold" );
+        }
+
+        if (reportThreshold != null) {
+            BigDecimal scaled = reportThreshold.setScale( MOVE_SCALE, RoundingMode.FLOOR );
 
-        scheduleTimerTask( timer );
+            unscaledThreshold = scaled.unscaledValue().bitLength() < 64 ? scaled.unscaledValue().longValue()
+                                                                        : Long.MAX_VALUE;
+        }
 
-        return timer;
+        this.reportThreshold = reportThreshold;
     }
 
 
     /**
-     * Schedules timer task to the timer.
-     * By default it schedules
+     * Returns the number of reports triggered by the payments.
      */
-    protected void scheduleTimerTask( Timer timer ) {
-        scheduleTimerTask( timer, period, syncSec, syncMin, syncHour );
+    public long getTriggeredReports() {
+        return triggeredReports;
     }
 
 
     /**
-     * Schedules timer task to the timer.
-     * By default it schedules
+     * Returns the number of triggers which were coalesced with other ones.
      */
-    protected void scheduleTimerTask( Timer timer, long period,
-                                        boolean syncSec, boolean syncMin, boolean syncHour ) {
+    public long getCoalescedTriggers() {
+        return coalescedTriggers;
+    }
 
-        Date date = syncStartDate( new Date(), period, syncSec, syncMin, syncHour );
 
-        timer.scheduleAtFixedRate(
-            new TimerTask() {
-                public void run() {
-                    if (log.isDebugEnabled()) {
-                        log.debug( "Task started." );
-                    }
+    public PaymentProcessor getPaymentProcessor() {
+        return paymentProcessor;
+    }
 
-                    generatePaymentReport();
-                }
-            }, date, period );
+    public void setPaymentProcessor( PaymentProcessor paymentProcessor ) {
+        this.paymentProcessor = paymentProcessor;
+    }
+
+
+    public CurrencyConverter getCurrencyConverter() {
+        return currencyConverter;
+    }
+
+    public void setCurrencyConverter( CurrencyConverter currencyConverter ) {
+        this.currencyConverter = currencyConverter;
+    }
+
+
+    public List<Curr> getTotalCurrencies() {
+        return totalCurrencies;
+    }
+
+    /**
+     * Sets the currencies in which the total of all balances is reported.
+     * The totals are reported only when the currency converter is set.
+     * By default no total is reported.
+     */
+    public void setTotalCurrencies( List<Curr> totalCurrencies ) {
+        this.totalCurrencies = totalCurrencies != null ? totalCurrencies : Collections.<Curr>emptyList();
     }
 
 
+    public PaymentStatistics getPaymentStatistics() {
+        return paymentStatistics;
+    }
+
     /**
-     * Creates a timer name.
-     * By default the simple class name + order number is used.
+     * Sets the statistics of the recent payments.
+     * When set, then the reports contain the flows of the payments during the last statisticsSeconds.
+     * By default no statistics are reported.
      */
-    protected String createTimerName() {
-        synchronized( AbstractPaymentReporterImpl.class ) {
-            return getClass().getSimpleName() + '-' + (++lastTimerId);
-        }
+    public void setPaymentStatistics( PaymentStatistics paymentStatistics ) {
+        this.paymentStatistics = paymentStatistics;
+    }
+
+
+    public int getStatisticsSeconds() {
+        return statisticsSeconds;
+    }
+
+    /**
+     * Sets the time window of the reported statistics in seconds.
+     */
+    public void setStatisticsSeconds( int statisticsSeconds ) {
+        if (statisticsSeconds < 1) throw new IllegalArgumentException( "Invalid statisticsSeconds " + statisticsSeconds );
+
+        this.statisticsSeconds = statisticsSeconds;
+    }
+
+
+    public boolean getSyncSec() {
+        return syncSec;
+    }
+
+    /**
+     * Sets the synchronization flag for start of the automatic reporting: seconds.
+     * @param syncSec if true then milliseconds are cleared
+     */
+    public void setSyncSec( boolean syncSec ) {
+        this.syncSec = syncSec;
+    }
+
+
+    public boolean getSyncMin() {
+        return syncMin;
+    }
+
+    /**
+     * Sets the synchronization flag for start of the automatic reporting: minutes.
+     * @param syncMin if true then seconds are cleared
+     */
+    public void setSyncMin( boolean syncMin ) {
+        this.syncMin = syncMin;
+    }
+
+
+    public boolean getSyncHour() {
+        return syncHour;
+    }
+
+    /**
+     * Sets the synchronization flag for start of the automatic reporting: hours.
+     * @param syncHour if true then minutes are cleared
+     */
+    public void setSyncHour( boolean syncHour ) {
+        this.syncHour = syncHour;
     }
 
 
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
     /**
      * Calculates delay in ms if ms/min/hour should be synced.
      * E.g. if the start is "14:41:23,456", then values "14:41:24,000", "14:42:00,000" and "15:00:00,000"
@@ -267,24 +726,163 @@ public abstract class AbstractPaymentReporterImpl implements PaymentReporter {
 
 
     /**
-     * Sorts the list by the currency code.
-     * NOTE: this method is destructive - it uses the Collections.sort() method !
-     *
-     * @param list the input list
-     * @return the sorted list
+     * Writes a new payment report.
+     * It is never called concurrently - all kinds of the reports are serialized by the reporter.
+     */
+    protected abstract void writePaymentReport();
+
+
+    /**
+     * Requests a triggered report.
+     * If a triggered report is already pending or running, then the request is coalesced with it.
+     */
+    protected void trigger() {
+        if (pendingTriggers.getAndIncrement() != 0) return;
+
+        try {
+            executor.execute( triggerTask );
+        }
+        catch (RejectedExecutionException e) {
+            pendingTriggers.set( 0 );
+            log.error( "Cannot trigger report: " + e );
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Releases the report lock and submits the trigger task again
+     * if it gave up because this report was running.
+     */
+    private void unlockReport() {
+        lockReport.unlock();
+
+        if (pendingTriggers.get() > 0) {
+            try {
+                executor.execute( triggerTask );
+            }
+            catch (RejectedExecutionException e) {
+                log.error( "Cannot trigger report: " + e );
+            }
+        }
+    }
+
+
+    /**
+     * Resets the trigger conditions - called before an automatic report.
+     */
+    private void resetTriggers() {
+        transactions.set( 0 );
+
+        for (Move move : allMoves) {
+            synchronized (move) {
+                move.amount = null;
+                move.unscaled.set( 0 );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the move of the currency - creates a new one if not exists yet.
+     */
+    private Move getMove( Curr currency ) {
+        int index = currency.getIndex();
+        Move ret = moves.get( index );
+
+        if (ret == null) {
+            Move created = new Move();
+
+            if (moves.compareAndSet( index, null, created )) {
+                synchronized (moves) {
+                    Move[] all = allMoves;
+                    Move[] updated = new Move[ all.length + 1 ];
+                    System.arraycopy( all, 0, updated, 0, all.length );
+                    updated[ all.length ] = created;
+
+                    allMoves = updated;
+                }
+
+                ret = created;
+            }
+            else {
+                ret = moves.get( index );
+            }
+        }
+
+        return ret;
+    }
+
+
+    /**
+     * Adds the value (scaled to MOVE_SCALE) to the move.
+     * Falls back to the BigDecimal amount on overflow.
+     * @return true if the move is over the threshold
      */
-    protected static List<Money> sortByCurrencyCode( List<Money> list ) {
-        if (list == null || list.size() < 2) return list;
+    private boolean addMove( Move move, long value ) {
+        while (true) {
+            long current = move.unscaled.get();
+
+            if (current == Long.MIN_VALUE) break;
+
+            long result = current + value;
+
+            if (((current ^ result) & (value ^ result)) < 0 || result == Long.MIN_VALUE) break;
+
+            if (move.unscaled.compareAndSet( current, result )) {
+                return Math.abs( result ) > unscaledThreshold;
+            }
+        }
+
+        return addMove( move, BigDecimal.valueOf( value, MOVE_SCALE ));
+    }
 
-        Collections.sort( list,
-            new Comparator<Money>() {
-                public int compare( Money m1, Money m2 ) {
-                    return m1.getCurrency().getCurrencyCode().compareTo( m2.getCurrency().getCurrencyCode());
+
+    /**
+     * Adds the amount to the move - switches the move to the BigDecimal amount.
+     * @return true if the move is over the threshold
+     */
+    private boolean addMove( Move move, BigDecimal amount ) {
+        BigDecimal threshold = reportThreshold;
+
+        synchronized (move) {
+            long current;
+
+            while ((current = move.unscaled.get()) != Long.MIN_VALUE) {
+                if (move.unscaled.compareAndSet( current, Long.MIN_VALUE )) {
+                    move.amount = BigDecimal.valueOf( current, MOVE_SCALE );
+                    break;
                 }
             }
-        );
 
-        return list;
+            move.amount = move.amount.add( amount );
+
+            return threshold != null && move.amount.abs().compareTo( threshold ) > 0;
+        }
+    }
+
+
+    /**
+     * Returns the unscaled value at MOVE_SCALE or Long.MIN_VALUE if it does not fit.
+     */
+    private static long toMoveScale( long unscaled, int scale ) {
+        if (scale > MOVE_SCALE || unscaled == Long.MIN_VALUE) return Long.MIN_VALUE;
+
+        return MoneySum.rescale( unscaled, MOVE_SCALE - scale );
+    }
+
+
+    /**
+     * Creates a new automatic reporting task.
+     * The first report is synced according to the sync flags.
+     */
+    private ReportTask createTask() {
+        Date date = syncStartDate( new Date(), period, syncSec, syncMin, syncHour );
+
+        return new ReportTask( date.getTime());
     }
 
 }
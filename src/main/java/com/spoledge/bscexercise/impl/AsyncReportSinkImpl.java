@@ -0,0 +1,295 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.spoledge.bscexercise.ReportSink;
+
+import com.spoledge.bscexercise.util.ReportBuffer;
+
+
+/**
+ * A report sink which passes the reports to another sink in a dedicated thread.
+ * The reports are handed over by a bounded queue, so a slow output does not
+ * delay the generation of the reports. When the writer is behind, then
+ * all queued reports are written by one call of the target sink.
+ * <p>
+ * When the queue is full, then the new report is either dropped (and counted)
+ * or the caller is blocked until there is a free space - see OverflowPolicy.
+ * </p>
+ * <p>
+ * The writes hold the read lock while they check the closed flag and queue the report,
+ * close() sets the flag and queues the stop marker under the write lock. So no report
+ * is queued after the marker - it is either written or rejected by an exception.
+ * </p>
+ * The implementation is thread-safe.
+ */
+public class AsyncReportSinkImpl implements ReportSink {
+
+    /**
+     * The default capacity of the queue.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * What to do when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The new report is dropped.
+         */
+        DROP,
+
+        /**
+         * The caller waits until there is a free space in the queue.
+         */
+        BLOCK
+    }
+
+
+    /**
+     * The marker which stops the writer thread (compared by identity).
+     */
+    private static final byte[] STOP = new byte[ 0 ];
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final Log log = LogFactory.getLog( AsyncReportSinkImpl.class );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private final ReportSink target;
+    private final OverflowPolicy policy;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread thread;
+
+    /**
+     * The closed flag - guarded by lock.
+     */
+    private boolean closed;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong droppedReports = new AtomicLong();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new sink with the default capacity which drops the reports on overflow.
+     * @param target the sink to which the reports are written
+     */
+    public AsyncReportSinkImpl( ReportSink target ) {
+        this( target, DEFAULT_CAPACITY, OverflowPolicy.DROP );
+    }
+
+
+    /**
+     * Creates a new sink and starts its writer thread.
+     * @param target the sink to which the reports are written
+     * @param capacity the maximal number of reports waiting in the queue
+     * @param policy what to do when the queue is full
+     */
+    public AsyncReportSinkImpl( ReportSink target, int capacity, OverflowPolicy policy ) {
+        if (target == null) throw new NullPointerException( "Missing target" );
+        if (policy == null) throw new NullPointerException( "Missing policy" );
+
+        this.target = target;
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<byte[]>( capacity );
+
+        thread = new Thread( "AsyncReportSink" ) {
+            public void run() {
+                writeLoop();
+            }
+        };
+
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // ReportSink
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Queues the report.
+     * @throws IOException when the sink is closed or the caller was interrupted
+     */
+    public void write( String report ) throws IOException {
+        enqueue( report.getBytes( ENCODING ));
+    }
+
+
+    /**
+     * Queues a copy of the report.
+     * @throws IOException when the sink is closed or the caller was interrupted
+     */
+    public void write( byte[] data, int offset, int length ) throws IOException {
+        enqueue( Arrays.copyOfRange( data, offset, offset + length ));
+    }
+
+
+    /**
+     * Writes all queued reports, stops the writer thread and closes the target sink.
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+
+        try {
+            if (closed) return;
+
+            // no write is in progress and the writer is running, so there will be a space for the marker:
+            queue.put( STOP );
+            closed = true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while closing" );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while closing" );
+        }
+
+        target.close();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+
+    /**
+     * Returns the number of reports waiting in the queue.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+
+    /**
+     * Returns the number of reports dropped because the queue was full.
+     */
+    public long getDroppedReports() {
+        return droppedReports.get();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Queues the report according to the overflow policy.
+     */
+    private void enqueue( byte[] report ) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            if (closed) throw new IOException( "The sink is closed" );
+
+            offer( report );
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Queues the report according to the overflow policy - called under the read lock.
+     */
+    private void offer( byte[] report ) throws IOException {
+        if (policy == OverflowPolicy.BLOCK) {
+            try {
+                queue.put( report );
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while waiting for the queue" );
+            }
+        }
+        else if (!queue.offer( report )) {
+            long dropped = droppedReports.incrementAndGet();
+
+            // do not flood the log when the output is stuck:
+            if (dropped == 1 || dropped % 100 == 0) {
+                log.warn( "The report queue is full, report dropped (total dropped " + dropped + ")" );
+            }
+        }
+    }
+
+
+    /**
+     * The body of the writer thread.
+     */
+    private void writeLoop() {
+        ArrayList<byte[]> batch = new ArrayList<byte[]>();
+        ReportBuffer buffer = new ReportBuffer();
+        boolean stop = false;
+
+        while (!stop) {
+            try {
+                batch.add( queue.take());
+            }
+            catch (InterruptedException e) {
+                // only close() can stop us, so the queued reports are not lost:
+                continue;
+            }
+
+            queue.drainTo( batch );
+
+            for (byte[] report : batch) {
+                if (report == STOP) {
+                    stop = true;
+                    break;
+                }
+
+                buffer.put( report, 0, report.length );
+            }
+
+            batch.clear();
+
+            if (buffer.length() != 0) {
+                try {
+                    target.write( buffer.array(), 0, buffer.length());
+                }
+                catch (Exception e) {
+                    log.error( "Cannot write the report: " + e );
+                }
+
+                buffer.clear();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.List;
+
+import com.spoledge.bscexercise.ReportSink;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
+import com.spoledge.bscexercise.model.Money;
+
+import com.spoledge.bscexercise.util.ReportBuffer;
+
+
+/**
+ * An implementation of the PaymentReporter which generates the reports as compact binary frames.
+ * All numbers are big-endian, the money is encoded the same way as in the payment journal
+ * (short currency index, byte type, int scale, long unscaled amount or int length + bytes).
+ * <pre>
+ *  int     MAGIC
+ *  int     length of the rest of the frame
+ *  int     last transaction id
+ *  short   number of balances N
+ *  N times:
+ *      money   the balance
+ *      byte    1 if the converted money follows, 0 otherwise
+ *      [money  the converted balance]
+ *  short   number of totals M
+ *  M times:
+ *      money   the total
+ *      int     number of balances not included in the total
+ * </pre>
+ */
+public class BinaryPaymentReporterImpl extends AbstractDataPaymentReporterImpl {
+
+    /**
+     * The magic number of each frame ("BSCR").
+     */
+    public static final int MAGIC = 0x42534352;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new reporter.
+     * @param reportSink the output of the reports
+     */
+    public BinaryPaymentReporterImpl( ReportSink reportSink ) {
+        super( reportSink );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
+    protected void format( ReportBuffer out, Balance balance, ConvertedBalance converted,
+                                ConvertedBalance[] totals ) {
+
+        List<Money> list = balance.getAllMoney();
+        int count = 0;
+
+        for (Money money : list) {
+            if (!money.isZero()) count++;
+        }
+
+        out.putInt( MAGIC );
+        out.putInt( 0 );
+        out.putInt( balance.getLastTransationId());
+        out.putShort( count );
+
+        for (int i=0; i < list.size(); i++) {
+            Money money = list.get( i );
+
+            if (money.isZero()) continue;
+
+            Money target = converted != null ? converted.getConverted( i ) : null;
+
+            out.putMoney( money );
+            out.putByte( target != null ? 1 : 0 );
+
+            if (target != null) out.putMoney( target );
+        }
+
+        out.putShort( totals.length );
+
+        for (ConvertedBalance total : totals) {
+            out.putMoney( total.getTotal());
+            out.putInt( total.getMissingCount());
+        }
+
+        out.setInt( 4, out.length() - 8 );
+    }
+
+}
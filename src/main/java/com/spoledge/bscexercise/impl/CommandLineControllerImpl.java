@@ -7,7 +7,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
 
-import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,20 +20,50 @@ import com.spoledge.bscexercise.MoneyParser;
 import com.spoledge.bscexercise.PaymentProcessor;
 import com.spoledge.bscexercise.PaymentReporter;
 
+import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
 import com.spoledge.bscexercise.util.MoneyFile;
 
 
 /**
  * A command line implementation of the controller.
+ * <p>
+ * The input is read by a separate daemon thread which blocks in reading
+ * and passes the lines to the controller's thread through a bounded queue.
+ * So the piped input is consumed at full speed and the controller's thread
+ * wakes up immediately when a line arrives or when the controller is stopped.
+ * </p>
+ * <p>
+ * In the batch mode (batchSize &gt; 0) the payment lines are recognized by a simple tokenizer,
+ * parsed without creating any intermediate strings and registered in batches
+ * of all lines available at the moment (up to batchSize). Each batch is acknowledged
+ * by one aggregated message and the output is flushed once per batch.
+ * The other lines are processed as usual, the preceding payments are registered before them.
+ * The empty lines are ignored in the batch mode.
+ * </p>
  */
 public class CommandLineControllerImpl implements Runnable, Controller {
 
     /**
-     * The number of milliseconds between calls to (reader.ready()).
-     * @see readLine()
+     * The capacity of the queue of the read lines.
      */
-    private static final int WAIT_BETWEEN_INPUT_READY = 200;
+    private static final int INPUT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The marker put to the queue when the end of the input is reached.
+     */
+    private static final String EOF = new String( "EOF" );
+
+    /**
+     * The marker put to the queue when the controller is stopped.
+     */
+    private static final String STOP = new String( "STOP" );
+
+    /**
+     * The commands - the other lines of two words are payments.
+     */
+    private static final String[] COMMANDS = { "quit", "report", "forex", "file", "help" };
 
 
     ////////////////////////////////////////////////////////////////////////////
@@ -44,6 +75,8 @@ public class CommandLineControllerImpl implements Runnable, Controller {
     private CurrencyConverter currencyConverter;
     private MoneyParser moneyParser;
     private File directory;
+    private int loadParallelism = Runtime.getRuntime().availableProcessors();
+    private int batchSize;
 
     private BufferedReader reader;
     private PrintWriter writer;
@@ -51,6 +84,16 @@ public class CommandLineControllerImpl implements Runnable, Controller {
     private Thread thread;
     private Object lockThread = new Object();
 
+    /**
+     * The lines read by the reader thread followed by the markers - identity compared.
+     */
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<String>( INPUT_QUEUE_CAPACITY );
+
+    /**
+     * The thread reading the input - started once and kept until EOF - guarded by lockThread.
+     */
+    private Thread readerThread;
+
     protected Log log = LogFactory.getLog( getClass());
 
 
@@ -97,22 +140,14 @@ public class CommandLineControllerImpl implements Runnable, Controller {
 
         println( "Hello! Type 'help' for help." );
 
-        while (true) {
-            String line = readLine();
+        if (batchSize > 0) runBatch();
+        else runInteractive();
 
-            if (line == null) break;
-
-            // humans often add spaces:
-            line = line.trim();
-
-            if (log.isDebugEnabled()) {
-                log.debug( "line='" + line + "'" );
-            }
+        println( "Bye!" );
 
-            processCommandLine( line );
-        }
+        int queued = countQueuedLines();
 
-        println( "Bye!" );
+        if (queued > 0) log.info( queued + " input line(s) left unprocessed - kept for the next start" );
 
         log.info( "Main loop stopped." );
     }
@@ -139,6 +174,18 @@ public class CommandLineControllerImpl implements Runnable, Controller {
 
             thread = new Thread( this, "Controller");
             thread.start();
+
+            if (readerThread == null) {
+                readerThread = new Thread( "ControllerInput" ) {
+                    public void run() {
+                        readInput();
+                    }
+                };
+
+                // a blocking read of the standard input cannot be interrupted, so do not wait for it:
+                readerThread.setDaemon( true );
+                readerThread.start();
+            }
         }
     }
 
@@ -152,7 +199,10 @@ public class CommandLineControllerImpl implements Runnable, Controller {
         synchronized (lockThread) {
             if (thread != null) {
                 thread = null;
-                lockThread.notify();
+
+                // wake up the controller's thread - if the queue is full, then the thread is not waiting
+                // and it checks the running state before the next line, so no input is discarded:
+                lines.offer( STOP );
             }
         }
     }
@@ -160,18 +210,21 @@ public class CommandLineControllerImpl implements Runnable, Controller {
 
     /**
      * Loads a file.
+     * The file is parsed (in parallel) only once into a staged batch of per-currency sums
+     * and the batch is registered at once only when all lines are valid.
+     * So either all or none of the payments are registered.
      */
     public void loadFile( File file ) {
         MoneyFile mf = new MoneyFile( moneyParser, file );
         println( "Loading file " + file + "..." );
-        int count = 0;
 
         try {
-            mf.validate();
+            PaymentBatch batch = mf.fetchBatch( loadParallelism );
+            int count = batch.getCount();
+            int txId = paymentProcessor.registerPayments( batch );
 
-            for (Iterator<Money> iter = mf.fetch(); iter.hasNext();) {
-                paymentProcessor.registerPayment( iter.next());
-                count++;
+            if (log.isDebugEnabled()) {
+                log.debug( "File '" + file + "' registered as tx[" + txId + ".." + (txId + count - 1) + "]" );
             }
 
             println( "File " + file + " successfully loaded (" + count + " lines)." );
@@ -238,6 +291,36 @@ public class CommandLineControllerImpl implements Runnable, Controller {
     }
 
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of payment lines registered as one batch.
+     * The default is 0 - the interactive mode, each payment is registered and acknowledged separately.
+     */
+    public void setBatchSize( int batchSize ) {
+        if (batchSize < 0) throw new IllegalArgumentException( "Negative batchSize" );
+
+        this.batchSize = batchSize;
+    }
+
+
+    public int getLoadParallelism() {
+        return loadParallelism;
+    }
+
+    /**
+     * Sets the maximum number of threads used for loading of one file.
+     * The default is the number of available processors.
+     */
+    public void setLoadParallelism( int loadParallelism ) {
+        if (loadParallelism < 1) throw new IllegalArgumentException( "Invalid parallelism " + loadParallelism );
+
+        this.loadParallelism = loadParallelism;
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Protected
     ////////////////////////////////////////////////////////////////////////////
@@ -317,13 +400,14 @@ public class CommandLineControllerImpl implements Runnable, Controller {
             return;
         }
 
-        if (args.length > 3) {
+        if (args.length > 4) {
             println( "Too many parameters, type 'help'" );
             return;
         }
 
         // check format first:
         Money money = null;
+        Curr target = null;
 
         try {
             money = moneyParser.parseMoney( args[ 1 ], args[ 2 ] );
@@ -333,6 +417,16 @@ public class CommandLineControllerImpl implements Runnable, Controller {
             return;
         }
 
+        if (args.length == 4) {
+            try {
+                target = Curr.getInstance( args[ 3 ] );
+            }
+            catch (IllegalArgumentException e) {
+                println( "ERROR - invalid forex format: " + e.getMessage());
+                return;
+            }
+        }
+
         CurrencyConverter cc = currencyConverter;
 
         if (cc == null) {
@@ -340,11 +434,14 @@ public class CommandLineControllerImpl implements Runnable, Controller {
             return;
         }
 
-        Money converted = cc.convertMoney( money );
+        Money converted = target != null ? cc.convertMoney( money, target ) : cc.convertMoney( money );
 
         if (converted != null) {
             println( "Forex " + money + " ==> " + converted );
         }
+        else if (target != null) {
+            println( "No conversion rate for " + money.getCurrency() + " to " + target + " set" );
+        }
         else {
             println( "No conversion rate for " + money.getCurrency() + " set" );
         }
@@ -373,11 +470,11 @@ public class CommandLineControllerImpl implements Runnable, Controller {
      */
     protected void processCmdHelp( String[] args ) {
         println( "Please enter a payment (CurrencyCode Value) or a command:" );
-        println( "    quit [delay_in_sec]  - exits the app" );
-        println( "    report               - prints the report immediatelly" );
-        println( "    forex CURR AMOUNT    - converts currency" );
-        println( "    file F1 [F2 [F3...]] - loads payments from file(s)" );
-        println( "    help                 - prints this info" );
+        println( "    quit [delay_in_sec]        - exits the app" );
+        println( "    report                     - prints the report immediatelly" );
+        println( "    forex CURR AMOUNT [TARGET] - converts currency" );
+        println( "    file F1 [F2 [F3...]]       - loads payments from file(s)" );
+        println( "    help                       - prints this info" );
     }
 
 
@@ -385,39 +482,231 @@ public class CommandLineControllerImpl implements Runnable, Controller {
     // Private
     ////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * The main loop of the interactive mode.
+     */
+    private void runInteractive() {
+        while (true) {
+            String line = readLine();
+
+            if (line == null) break;
+
+            // humans often add spaces:
+            line = line.trim();
+
+            if (log.isDebugEnabled()) {
+                log.debug( "line='" + line + "'" );
+            }
+
+            processCommandLine( line );
+        }
+    }
+
+
+    /**
+     * The main loop of the batch mode.
+     * It waits for a line and then processes all lines available at the moment (up to batchSize).
+     */
+    private void runBatch() {
+        PaymentBatch batch = new PaymentBatch();
+        String line;
+
+        while ((line = readLine()) != null) {
+            int n = 0;
+
+            do {
+                processBatchLine( line, batch );
+            }
+            while (++n < batchSize && (line = pollLine()) != null);
+
+            registerBatch( batch );
+            writer.flush();
+        }
+    }
+
+
+    /**
+     * Processes one line in the batch mode.
+     * The payment is added to the batch, the other lines are processed after the batch is registered.
+     */
+    private void processBatchLine( String line, PaymentBatch batch ) {
+        int len = line.length();
+        int start = skipSpaces( line, 0 );
+
+        if (start == len) return;
+
+        // a payment has exactly two tokens separated by spaces - "CUR AMOUNT":
+        int end1 = skipToken( line, start );
+        int start2 = end1 != -1 ? skipSpaces( line, end1 ) : len;
+        int end = start2 != len ? skipToken( line, start2 ) : -1;
+
+        if (end != -1 && skipSpaces( line, end ) == len && !isCommand( line, start, end1 )) {
+            try {
+                batch.add( moneyParser.parseMoney( line, start, end, -1 ));
+            }
+            catch (MoneyParseException e) {
+                registerBatch( batch );
+                print( "ERROR - invalid payment format: " + e.getMessage());
+            }
+
+            return;
+        }
+
+        registerBatch( batch );
+        processCommandLine( line.trim());
+    }
+
+
+    /**
+     * Registers the batch and prints one acknowledgement for it.
+     */
+    private void registerBatch( PaymentBatch batch ) {
+        if (batch.isEmpty()) return;
+
+        int count = batch.getCount();
+        int txId = paymentProcessor.registerPayments( batch );
+
+        batch.clear();
+
+        if (count == 1) print( "Registered 1 payment as tx[" + txId + ']' );
+        else print( "Registered " + count + " payments as tx[" + txId + ".." + (txId + count - 1) + ']' );
+    }
+
+
+    /**
+     * Returns the index of the first non-space character from the start.
+     */
+    private static int skipSpaces( String line, int start ) {
+        int i = start;
+
+        while (i < line.length() && line.charAt( i ) == ' ') i++;
+
+        return i;
+    }
+
+
+    /**
+     * Returns the index after the token beginning at the start
+     * or -1 if the token contains a control character (e.g. a tab).
+     */
+    private static int skipToken( String line, int start ) {
+        int i = start;
+
+        for (; i < line.length(); i++) {
+            char c = line.charAt( i );
+
+            if (c == ' ') break;
+            if (c < ' ') return -1;
+        }
+
+        return i;
+    }
+
+
+    private static boolean isCommand( String line, int start, int end ) {
+        for (String cmd : COMMANDS) {
+            if (cmd.length() == end - start && line.regionMatches( start, cmd, 0, cmd.length())) return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the next line of the input if it is already available.
+     * @return the line or null if there is no line available, EOF is reached or stop() method was called
+     */
+    private String pollLine() {
+        synchronized (lockThread) {
+            if (thread != Thread.currentThread()) return null;
+        }
+
+        String line = lines.poll();
+
+        if (line == EOF) {
+            // keep the marker for readLine():
+            lines.offer( EOF );
+            return null;
+        }
+
+        return line != STOP ? line : null;
+    }
+
+
+    /**
+     * Returns the number of the read lines waiting in the queue (without the markers).
+     */
+    private int countQueuedLines() {
+        int ret = 0;
+
+        for (String line : lines) {
+            if (line != EOF && line != STOP) ret++;
+        }
+
+        return ret;
+    }
+
+
     /**
      * Reads one line of the input.
-     * This method is aware of calling the stop() method.
-     * So we use a non-blocking solution for reading from the (standard) input.
-     * For more information see http://www.javaspecialists.eu/archive/Issue153.html
+     * It waits for the line read by the reader thread, so it is woken up
+     * immediately when the line arrives or when the stop() method is called.
      *
      * @return the line or null if EOF is reached or stop() method was called
      */
     String readLine() {
-        String line = null;
+        while (true) {
+            synchronized (lockThread) {
+                if (thread != Thread.currentThread()) return null;
+            }
 
-        try {
-            boolean running;
+            String line;
 
-            synchronized (lockThread) {
-                while ((running = thread == Thread.currentThread()) && !reader.ready()) {
-                    try {
-                        lockThread.wait( WAIT_BETWEEN_INPUT_READY );
-                    }
-                    catch (InterruptedException e) {
-                        log.warn( "Interrupted by somebody else, aborting." );
-                        running = false;
-                    }
-                }
+            try {
+                line = lines.take();
+            }
+            catch (InterruptedException e) {
+                log.warn( "Interrupted by somebody else, aborting." );
+                return null;
+            }
+
+            if (line == EOF) {
+                // keep the marker for the next calls:
+                lines.offer( EOF );
+                return null;
             }
 
-            line = running ? reader.readLine() : null;
+            // the marker of a previous stop() is skipped - the running state is checked again:
+            if (line != STOP) return line;
+        }
+    }
+
+
+    /**
+     * Reads the input until EOF - the body of the reader thread.
+     * The lines are passed to the queue, when it is full, then the reading waits.
+     */
+    void readInput() {
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lines.put( line );
+            }
         }
         catch (IOException e) {
             log.error( "Cannot read input, aborting: ", e );
         }
+        catch (InterruptedException e) {
+            log.warn( "Interrupted by somebody else, aborting." );
+        }
 
-        return line;
+        try {
+            lines.put( EOF );
+        }
+        catch (InterruptedException e) {
+            lines.offer( EOF );
+        }
     }
 
 
@@ -462,10 +751,19 @@ public class CommandLineControllerImpl implements Runnable, Controller {
      * Prints a single line.
      */
     void println( String s ) {
-        writer.println( ">> " + s );
+        print( s );
 
         // if somebody will pass a PrintWriter to us, then we do not know if auto-flushing is enabled:
         writer.flush();
     }
 
+
+    /**
+     * Prints a single line without flushing - used in the batch mode.
+     */
+    void print( String s ) {
+        writer.print( ">> " );
+        writer.println( s );
+    }
+
 }
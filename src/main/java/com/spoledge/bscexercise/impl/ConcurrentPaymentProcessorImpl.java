@@ -0,0 +1,335 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.spoledge.bscexercise.PaymentProcessor;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+
+/**
+ * The concurrent in-memory implementation of the PaymentProcessor.
+ * Unlike MemoryPaymentProcessorImpl it does not use any global lock:
+ * each currency has its own lock-free accumulator and the transaction id
+ * is maintained by an atomic counter. So payments in different currencies
+ * registered from different threads do not block each other and the reporting
+ * does not block the registration of payments.
+ * <p>
+ * The accumulators keep fixed-point values of the configured scale
+ * (typically the number of decimal points of the money parser).
+ * Compact payments of the same or lower scale are added by a CAS loop
+ * without any allocation, the others (or an overflow) fall back to a BigDecimal
+ * part of the accumulator guarded by its own lock.
+ * </p>
+ * <p>
+ * The transaction id is assigned after the payment is accumulated,
+ * so the balance returned by getBalance() contains at least all payments
+ * up to its last transaction id (it can contain some later payments too).
+ * </p>
+ * The implementation is thread-safe.
+ */
+public class ConcurrentPaymentProcessorImpl implements PaymentProcessor {
+
+    /**
+     * The default scale of the accumulators.
+     */
+    public static final int DEFAULT_SCALE = 2;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The balance of one currency.
+     */
+    static final class Accumulator {
+        final Curr currency;
+        final int scale;
+        final AtomicLong unscaledAmount = new AtomicLong();
+
+        /**
+         * The number of changes - incremented after each change is applied.
+         */
+        final AtomicLong version = new AtomicLong();
+
+        /**
+         * The flag set after the first payment.
+         */
+        volatile boolean used;
+
+        /**
+         * The part which cannot be held by the unscaled amount - guarded by this.
+         */
+        private MoneySum overflow;
+
+        Accumulator( Curr currency, int scale ) {
+            this.currency = currency;
+            this.scale = scale;
+        }
+
+        void add( Money payment ) {
+            boolean added = payment.isCompact() && payment.getScale() <= scale
+                                && add( payment.getUnscaledAmount(), payment.getScale());
+
+            if (!added) {
+                synchronized (this) {
+                    if (overflow == null) overflow = new MoneySum( currency );
+                    overflow.add( payment );
+                }
+            }
+
+            version.incrementAndGet();
+            if (!used) used = true;
+        }
+
+        void add( MoneySum sum ) {
+            boolean added = sum.isCompact() && sum.getScale() <= scale
+                                && add( sum.getUnscaledAmount(), sum.getScale());
+
+            if (!added) {
+                synchronized (this) {
+                    if (overflow == null) overflow = new MoneySum( currency );
+                    overflow.add( sum );
+                }
+            }
+
+            version.incrementAndGet();
+            if (!used) used = true;
+        }
+
+        /**
+         * Adds the value lock-free.
+         * @return false if the value would overflow
+         */
+        boolean add( long value, int valueScale ) {
+            if (valueScale != scale) {
+                value = MoneySum.rescale( value, scale - valueScale );
+                if (value == Long.MIN_VALUE) return false;
+            }
+
+            while (true) {
+                long current = unscaledAmount.get();
+                long updated = current + value;
+
+                // overflow:
+                if (((current ^ updated) & (value ^ updated)) < 0) return false;
+
+                if (unscaledAmount.compareAndSet( current, updated )) return true;
+            }
+        }
+
+        Money toMoney() {
+            long value = unscaledAmount.get();
+
+            synchronized (this) {
+                if (overflow == null) return new Money( currency, value, scale );
+
+                MoneySum sum = new MoneySum( currency );
+                sum.add( value, scale );
+                sum.add( overflow.getAmount());
+
+                return sum.toMoney();
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The accumulators indexed by the currency index.
+     */
+    private AtomicReferenceArray<Accumulator> accumulators
+        = new AtomicReferenceArray<Accumulator>( Curr.INDEX_COUNT );
+
+    /**
+     * All created accumulators sorted by the currency index (so by the currency code)
+     * - so we do not need to scan the whole array. The array is replaced
+     * when a new accumulator is created (copy on write) - guarded by accumulators.
+     */
+    private volatile Accumulator[] allAccumulators = new Accumulator[ 0 ];
+
+    private AtomicInteger lastTransationId;
+    private int scale;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new concurrent payment processor.
+     * The last transaction id is set to 0.
+     */
+    public ConcurrentPaymentProcessorImpl() {
+        this( 0 );
+    }
+
+
+    /**
+     * Creates a new concurrent payment processor.
+     * @param lastTransationId the initial value of the last transaction id
+     */
+    public ConcurrentPaymentProcessorImpl( int lastTransationId ) {
+        this( lastTransationId, DEFAULT_SCALE );
+    }
+
+
+    /**
+     * Creates a new concurrent payment processor.
+     * @param lastTransationId the initial value of the last transaction id
+     * @param scale the scale of the accumulators
+     */
+    public ConcurrentPaymentProcessorImpl( int lastTransationId, int scale ) {
+        if (scale < 0) throw new IllegalArgumentException( "Negative scale" );
+
+        this.lastTransationId = new AtomicInteger( lastTransationId );
+        this.scale = scale;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PaymentProcessor
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Registers a single payment.
+     * @param payment the amount and type of money to be registered
+     * @return the transaction id of the payment being registered
+     * @throws NullPointerException when the parameter is null
+     */
+    public int registerPayment( Money payment ) {
+        if (payment == null) throw new NullPointerException( "Missing payment" );
+
+        // NOTE: we keep the balance even if it is zero - see MemoryPaymentProcessorImpl
+
+        getAccumulator( payment.getCurrency()).add( payment );
+
+        return lastTransationId.incrementAndGet();
+    }
+
+
+    /**
+     * Registers a batch of payments at once.
+     * The payments are added to the accumulators per currency and then
+     * the whole range of transaction ids is assigned by one atomic operation.
+     * @param batch the pre-aggregated payments to be registered
+     * @return the transaction id of the first payment of the batch
+     * @throws NullPointerException when the parameter is null
+     */
+    public int registerPayments( PaymentBatch batch ) {
+        if (batch == null) throw new NullPointerException( "Missing batch" );
+
+        for (int i=0; i < batch.getCurrencyCount(); i++) {
+            MoneySum sum = batch.getSum( i );
+
+            getAccumulator( sum.getCurrency()).add( sum );
+        }
+
+        return lastTransationId.addAndGet( batch.getCount()) - batch.getCount() + 1;
+    }
+
+
+    /**
+     * Returns the balance.
+     * The list of money is sorted by the currency code.
+     */
+    public Balance getBalance() {
+        // read the transaction id first - all payments up to it are already accumulated:
+        int txId = lastTransationId.get();
+
+        Accumulator[] all = allAccumulators;
+        ArrayList<Money> list = new ArrayList<Money>( all.length );
+        long[] versions = new long[ all.length ];
+
+        for (Accumulator balance : all) {
+            // the accumulator could be created, but not yet updated:
+            if (!balance.used) continue;
+
+            // read the version before the value - a concurrent change makes it stale, never missed:
+            versions[ list.size() ] = balance.version.get();
+            list.add( balance.toMoney());
+        }
+
+        return new Balance( txId, list, Arrays.copyOf( versions, list.size()));
+    }
+
+
+    public int getLastTransationId() {
+        return lastTransationId.get();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the scale of the accumulators.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the accumulator of the currency - creates a new one if not exists yet.
+     * A new accumulator is published in the array of accumulators only after it is
+     * in the sorted array, so getBalance() sees every accumulator used by any payment
+     * whose transaction id is already assigned.
+     */
+    private Accumulator getAccumulator( Curr currency ) {
+        int index = currency.getIndex();
+        Accumulator ret = accumulators.get( index );
+
+        if (ret == null) {
+            synchronized (accumulators) {
+                ret = accumulators.get( index );
+
+                if (ret == null) {
+                    ret = new Accumulator( currency, scale );
+                    addSorted( ret );
+                    accumulators.set( index, ret );
+                }
+            }
+        }
+
+        return ret;
+    }
+
+
+    /**
+     * Inserts the accumulator to the sorted array of all accumulators - called under the lock.
+     * New currencies are rare, so the copying does not matter.
+     */
+    private void addSorted( Accumulator accumulator ) {
+        Accumulator[] all = allAccumulators;
+        int pos = 0;
+
+        while (pos < all.length && all[ pos ].currency.getIndex() < accumulator.currency.getIndex()) pos++;
+
+        Accumulator[] updated = new Accumulator[ all.length + 1 ];
+
+        System.arraycopy( all, 0, updated, 0, pos );
+        updated[ pos ] = accumulator;
+        System.arraycopy( all, pos, updated, pos + 1, all.length - pos );
+
+        allAccumulators = updated;
+    }
+
+}
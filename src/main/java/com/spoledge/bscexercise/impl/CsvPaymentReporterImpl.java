@@ -0,0 +1,78 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.List;
+
+import com.spoledge.bscexercise.ReportSink;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
+import com.spoledge.bscexercise.model.Money;
+
+import com.spoledge.bscexercise.util.ReportBuffer;
+
+
+/**
+ * An implementation of the PaymentReporter which generates the reports as CSV.
+ * Each report consists of the following records (lines):
+ * <pre>
+ *  balance,TX,CURRENCY,AMOUNT,TARGET_CURRENCY,TARGET_AMOUNT
+ *  total,TX,CURRENCY,AMOUNT,MISSING
+ * </pre>
+ * where TX is the last transaction id of the report. The target columns are empty
+ * when there is no currency converter, TARGET_AMOUNT is empty when there is
+ * no conversion rate. MISSING is the number of balances not included in the total.
+ * The amounts are in the plain decimal format, there is no header line.
+ */
+public class CsvPaymentReporterImpl extends AbstractDataPaymentReporterImpl {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new reporter.
+     * @param reportSink the output of the reports
+     */
+    public CsvPaymentReporterImpl( ReportSink reportSink ) {
+        super( reportSink );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
+    protected void format( ReportBuffer out, Balance balance, ConvertedBalance converted,
+                                ConvertedBalance[] totals ) {
+
+        int txId = balance.getLastTransationId();
+        List<Money> list = balance.getAllMoney();
+
+        for (int i=0; i < list.size(); i++) {
+            Money money = list.get( i );
+
+            if (money.isZero()) continue;
+
+            out.append( "balance," ).append( txId ).append( ',' );
+            out.append( money.getCurrency().getCurrencyCode()).append( ',' ).appendAmount( money ).append( ',' );
+
+            if (converted != null) {
+                Money target = converted.getConverted( i );
+
+                out.append( converted.getTargetCurrency().getCurrencyCode()).append( ',' );
+
+                if (target != null) out.appendAmount( target );
+            }
+            else out.append( ',' );
+
+            out.append( '\n' );
+        }
+
+        for (ConvertedBalance total : totals) {
+            out.append( "total," ).append( txId ).append( ',' );
+            out.append( total.getTargetCurrency().getCurrencyCode()).append( ',' ).appendAmount( total.getTotal());
+            out.append( ',' ).append( total.getMissingCount()).append( '\n' );
+        }
+    }
+
+}
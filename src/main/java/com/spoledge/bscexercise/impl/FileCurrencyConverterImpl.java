@@ -4,10 +4,14 @@ import java.io.File;
 import java.io.IOException;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -15,23 +19,135 @@ import org.apache.commons.logging.LogFactory;
 import com.spoledge.bscexercise.CurrencyConverter;
 import com.spoledge.bscexercise.MoneyParseException;
 
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.RateHistory;
+import com.spoledge.bscexercise.model.RateTable;
 
 import com.spoledge.bscexercise.util.MoneyFile;
+import com.spoledge.bscexercise.util.SharedScheduler;
 
 
 /**
  * The implementation of CurrencyConverter which loads the conversion
  * rates frm a file.
+ * <p>
+ * The rates are kept in an immutable table which is replaced as a whole
+ * when new rates are set. So the conversions do not need any locking -
+ * each conversion uses either the old or the new table, never a mix of both.
+ * The file contains the rates to the target currency, but the table
+ * contains also all the cross rates, so money can be converted between
+ * any two currencies of the file.
+ * </p>
+ * <p>
+ * Each set of rates is valid since its effective time (the time of loading
+ * by default). A bounded history of the rate tables is kept, so money
+ * can be converted also by the rates valid at any instant in the past
+ * (see asOf()). The current conversions do not search the history - they use
+ * the newest table loaded, so they do not depend on the wall clock.
+ * </p>
+ * <p>
+ * The rates file can be watched - it is polled for changes of its modification
+ * time and size and reloaded in the background. The new rates are validated
+ * before they replace the current ones, an invalid file is only logged
+ * and the current rates are kept.
+ * </p>
  */
 public class FileCurrencyConverterImpl implements CurrencyConverter {
 
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A converter using one fixed rate table.
+     */
+    private static class TableConverter implements CurrencyConverter {
+        private final RateTable table;
+        private final int decimalDigits;
+
+        TableConverter( RateTable table, int decimalDigits ) {
+            this.table = table;
+            this.decimalDigits = decimalDigits;
+        }
+
+        public Curr getTargetCurrency() {
+            return table.getBaseCurrency();
+        }
+
+        public long getRatesVersion() {
+            return table.getVersion();
+        }
+
+        public Money convertMoney( Money money ) {
+            return convertMoney( money, table.getBaseCurrency());
+        }
+
+        public Money convertMoney( Money money, Curr targetCurrency ) {
+            if (money == null) throw new NullPointerException( "Missing money param" );
+            if (targetCurrency == null) throw new NullPointerException( "Missing targetCurrency param" );
+
+            return table.convert( money, targetCurrency, decimalDigits );
+        }
+
+        public ConvertedBalance convertBalance( Balance balance ) {
+            return convertBalance( balance, table.getBaseCurrency());
+        }
+
+        public ConvertedBalance convertBalance( Balance balance, Curr targetCurrency ) {
+            if (balance == null) throw new NullPointerException( "Missing balance param" );
+            if (targetCurrency == null) throw new NullPointerException( "Missing targetCurrency param" );
+
+            return table.convert( balance, targetCurrency, decimalDigits );
+        }
+
+        public Money round( Money money ) {
+            if (money == null) throw new NullPointerException( "Missing money param" );
+
+            return RateTable.round( money, decimalDigits );
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
     private final Curr targetCurrency;
     private final int decimalDigits;
 
-    private HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
-    private Object lock = new Object();
+    /**
+     * The rate tables by their effective time - the tables are immutable, they are only replaced.
+     */
+    private final RateHistory history;
+
+    /**
+     * The table used when there are no rates effective.
+     */
+    private final RateTable emptyRates;
+
+    /**
+     * The current table and its effective time - read by every conversion without any lookup,
+     * replaced by loading newer rates (guarded by this).
+     */
+    private volatile RateTable currentRates;
+    private long currentEffectiveTime = Long.MIN_VALUE;
+
+    /**
+     * The loaded file and its modification time and size - guarded by this.
+     */
+    private File file;
+    private long fileModified;
+    private long fileLength;
+
+    private ScheduledExecutorService executor = SharedScheduler.getInstance();
+    private ScheduledFuture<?> watchFuture;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failedReloadCount = new AtomicLong();
+    private volatile long lastReloadLatency;
 
     protected Log log = LogFactory.getLog( getClass());
 
@@ -44,8 +160,20 @@ public class FileCurrencyConverterImpl implements CurrencyConverter {
      * Creates a new converter.
      */
     public FileCurrencyConverterImpl( Curr targetCurrency, int decimalDigits ) {
+        this( targetCurrency, decimalDigits, RateHistory.DEFAULT_MAX_VERSIONS );
+    }
+
+
+    /**
+     * Creates a new converter.
+     * @param maxVersions the maximal number of rate tables kept in the history
+     */
+    public FileCurrencyConverterImpl( Curr targetCurrency, int decimalDigits, int maxVersions ) {
         this.targetCurrency = targetCurrency;
         this.decimalDigits = decimalDigits;
+        this.history = new RateHistory( maxVersions );
+        this.emptyRates = new RateTable( targetCurrency, new HashMap<Curr, BigDecimal>());
+        this.currentRates = emptyRates;
     }
 
 
@@ -61,6 +189,14 @@ public class FileCurrencyConverterImpl implements CurrencyConverter {
     }
 
 
+    /**
+     * Returns the version of the current rate table.
+     */
+    public long getRatesVersion() {
+        return currentRates.getVersion();
+    }
+
+
     /**
      * Converts money to the target currency.
      * @param money the money to be converted
@@ -68,25 +204,60 @@ public class FileCurrencyConverterImpl implements CurrencyConverter {
      *  for the input currency
      */
     public Money convertMoney( Money money ) {
+        return convertMoney( money, targetCurrency );
+    }
+
+
+    /**
+     * Converts money to any currency.
+     * @param money the money to be converted
+     * @param targetCurrency the target currency
+     * @return the converted money or null if no conversion rate is set
+     *  for the input or target currency
+     */
+    public Money convertMoney( Money money, Curr targetCurrency ) {
         if (money == null) throw new NullPointerException( "Missing money param" );
+        if (targetCurrency == null) throw new NullPointerException( "Missing targetCurrency param" );
 
-        Curr currency = money.getCurrency();
+        return getRateTable().convert( money, targetCurrency, decimalDigits );
+    }
 
-        // trivial conversion:
-        if (currency == targetCurrency) return money;
 
-        synchronized( lock ) {
-            BigDecimal rate = rates.get( currency );
+    /**
+     * Converts all money of the balance to the target currency at once.
+     * @param balance the balance to be converted
+     * @return the converted items and their total
+     */
+    public ConvertedBalance convertBalance( Balance balance ) {
+        return convertBalance( balance, targetCurrency );
+    }
 
-            if (rate == null) return null;
 
-            BigDecimal converted =
-                money.getAmount()
-                    .multiply( rate )
-                    .setScale( decimalDigits, RoundingMode.HALF_EVEN );
+    /**
+     * Converts all money of the balance to any currency at once.
+     * The current rate table is obtained only once, so all items are converted
+     * by the same rates even when the rates are being reloaded.
+     * @param balance the balance to be converted
+     * @param targetCurrency the target currency
+     * @return the converted items and their total
+     */
+    public ConvertedBalance convertBalance( Balance balance, Curr targetCurrency ) {
+        if (balance == null) throw new NullPointerException( "Missing balance param" );
+        if (targetCurrency == null) throw new NullPointerException( "Missing targetCurrency param" );
 
-            return new Money( targetCurrency, converted );
-        }
+        return getRateTable().convert( balance, targetCurrency, decimalDigits );
+    }
+
+
+    /**
+     * Rounds money the same way as the converted amounts are rounded.
+     * @param money the money to be rounded
+     * @return the rounded money
+     */
+    public Money round( Money money ) {
+        if (money == null) throw new NullPointerException( "Missing money param" );
+
+        return RateTable.round( money, decimalDigits );
     }
 
 
@@ -94,46 +265,291 @@ public class FileCurrencyConverterImpl implements CurrencyConverter {
     // Public
     ////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Converts money by the rates valid at the given instant.
+     * @param money the money to be converted
+     * @param targetCurrency the target currency
+     * @param instant the instant
+     * @return the converted money or null if no conversion rate was set
+     *  for the input or target currency at the instant
+     */
+    public Money convertMoney( Money money, Curr targetCurrency, Date instant ) {
+        return asOf( instant ).convertMoney( money, targetCurrency );
+    }
+
+
+    /**
+     * Returns a converter which uses the rates valid at the given instant.
+     * The rates are looked up once, so the returned converter
+     * is suitable e.g. for converting all items of a historical report.
+     * @param instant the instant
+     */
+    public CurrencyConverter asOf( Date instant ) {
+        return new TableConverter( getRateTable( instant.getTime()), decimalDigits );
+    }
+
+
+    /**
+     * Returns the current rate table - the newest one which was effective when it was loaded.
+     * The rates loaded with an effective time in the future are only in the history.
+     */
+    public RateTable getRateTable() {
+        return currentRates;
+    }
+
+
+    /**
+     * Returns the rate table valid at the given time.
+     * @param time the time in ms
+     */
+    public RateTable getRateTable( long time ) {
+        RateTable ret = history.get( time );
+
+        return ret != null ? ret : emptyRates;
+    }
+
+
+    /**
+     * Returns the history of the rate tables.
+     * It can be used e.g. for evicting old versions.
+     */
+    public RateHistory getRateHistory() {
+        return history;
+    }
+
+
     /**
      * Loads a file containing the conversion rates.
      * Each line contains one currency: (CurrencyCode Amount)
+     * The file is remembered, so it can be watched for changes later.
+     * @throws MoneyParseException when the file contains an invalid line
+     * @throws IllegalArgumentException when the file contains a rate which is not positive
      */
-    public void loadFile( File file ) throws IOException, MoneyParseException {
-        MoneyFile mf = new MoneyFile( new MoneyParserImpl( MoneyParserImpl.MAX_DECIMAL_POINTS ), file );
+    public synchronized void loadFile( File file ) throws IOException, MoneyParseException {
+        long modified = file.lastModified();
+        long length = file.length();
 
-        try {
-            HashMap<Curr, BigDecimal> map = new HashMap<Curr, BigDecimal>();
+        setRates( readRates( file ));
 
-            for (Iterator<Money> iter = mf.fetch(); iter.hasNext();) {
-                Money rate = iter.next();
-                Curr currency = rate.getCurrency();
+        this.file = file;
+        this.fileModified = modified;
+        this.fileLength = length;
+    }
 
-                if (currency == targetCurrency) {
-                    log.warn( "Skipping target currency rate " + rate );
-                    continue;
+
+    /**
+     * Loads a file containing the conversion rates valid since the given time.
+     * The file is not remembered for watching - this method is intended
+     * for loading of the historical rates.
+     * @param file the file
+     * @param effective the time since which the rates are valid
+     */
+    public void loadFile( File file, Date effective ) throws IOException, MoneyParseException {
+        setRates( readRates( file ), effective.getTime());
+    }
+
+
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for watching the file.
+     * By default the shared executor is used.
+     */
+    public void setExecutor( ScheduledExecutorService executor ) {
+        this.executor = executor;
+    }
+
+
+    /**
+     * Starts watching the loaded file.
+     * The file is checked periodically and when its modification time or size
+     * is changed, then it is reloaded.
+     * @param period the period of checking in ms
+     * @throws IllegalStateException when no file was loaded or the watching is already started
+     */
+    public synchronized void startWatching( long period ) {
+        if (file == null) throw new IllegalStateException( "No file loaded" );
+        if (watchFuture != null) throw new IllegalStateException( "Already watching" );
+
+        watchFuture = executor.scheduleWithFixedDelay(
+            new Runnable() {
+                public void run() {
+                    checkFile();
                 }
+            }, period, period, TimeUnit.MILLISECONDS );
 
-                map.put( currency, rate.getAmount());
+        log.info( "Watching file " + file );
+    }
+
+
+    /**
+     * Stops watching the file.
+     * If the watching was not started, then nothing happens.
+     */
+    public synchronized void stopWatching() {
+        if (watchFuture != null) {
+            watchFuture.cancel( false );
+            watchFuture = null;
+        }
+    }
+
+
+    /**
+     * Checks the loaded file and reloads it if it was changed.
+     * Called periodically when watching, but it can be called explicitly as well.
+     * Errors are not thrown - they are logged and counted as failed reloads.
+     * @return true if the file was changed and reloaded successfully
+     */
+    public synchronized boolean checkFile() {
+        if (file == null) return false;
+
+        long modified = file.lastModified();
+        long length = file.length();
+
+        if (modified == fileModified && length == fileLength) return false;
+
+        long start = System.currentTimeMillis();
+
+        try {
+            HashMap<Curr, BigDecimal> map = readRates( file );
+
+            if (file.lastModified() != modified || file.length() != length) {
+                // still being written - try again next time:
+                log.debug( "File " + file + " changed during reload" );
+                return false;
             }
 
             setRates( map );
+            reloadCount.incrementAndGet();
+            lastReloadLatency = System.currentTimeMillis() - start;
+
+            log.info( "Reloaded " + map.size() + " rates from " + file + " in " + lastReloadLatency + " ms" );
+
+            return true;
+        }
+        catch (Exception e) {
+            failedReloadCount.incrementAndGet();
+            log.error( "Cannot reload file " + file + ", keeping the current rates: " + e );
+
+            return false;
         }
         finally {
-            mf.close();
+            // do not try to reload the same (invalid) file again:
+            fileModified = modified;
+            fileLength = length;
         }
     }
 
 
+    /**
+     * Returns the number of successful reloads.
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+
+    /**
+     * Returns the number of failed reloads.
+     */
+    public long getFailedReloadCount() {
+        return failedReloadCount.get();
+    }
+
+
+    /**
+     * Returns the time of the last successful reload (reading, validating and swapping) in ms.
+     */
+    public long getLastReloadLatency() {
+        return lastReloadLatency;
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
-    // Constructors
+    // Protected
     ////////////////////////////////////////////////////////////////////////////
 
     /**
-     * Sets a conversion rate table.
+     * Sets a conversion rate table valid since now.
+     * It always becomes the current table - even when the clock stepped back
+     * since the current table was loaded.
      */
     void setRates( HashMap<Curr, BigDecimal> map ) {
-        synchronized( lock ) {
-            rates = map;
+        setRates( map, currentTimeMillis(), true );
+    }
+
+
+    /**
+     * Sets a conversion rate table.
+     * It becomes the current table unless it is older than the current one or effective in the future.
+     * @param effectiveTime the time since which the rates are valid
+     */
+    void setRates( HashMap<Curr, BigDecimal> map, long effectiveTime ) {
+        setRates( map, effectiveTime, false );
+    }
+
+
+    /**
+     * Returns the current time - the clock of the effective times.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets a conversion rate table.
+     * A new table including all cross rates is built and then published at once.
+     * @param effectiveTime the time since which the rates are valid
+     * @param latest true if the rates are loaded now - they become current regardless of the effective times
+     */
+    private synchronized void setRates( HashMap<Curr, BigDecimal> map, long effectiveTime, boolean latest ) {
+        RateTable table = new RateTable( targetCurrency, map );
+
+        history.add( effectiveTime, table );
+
+        if (latest || (effectiveTime >= currentEffectiveTime && effectiveTime <= currentTimeMillis())) {
+            currentRates = table;
+            currentEffectiveTime = effectiveTime;
+        }
+    }
+
+
+    /**
+     * Reads and validates the rates.
+     */
+    private HashMap<Curr, BigDecimal> readRates( File file ) throws IOException, MoneyParseException {
+        MoneyFile mf = new MoneyFile( new MoneyParserImpl( MoneyParserImpl.MAX_DECIMAL_POINTS ), file );
+
+        try {
+            HashMap<Curr, BigDecimal> map = new HashMap<Curr, BigDecimal>();
+
+            for (Iterator<Money> iter = mf.fetch(); iter.hasNext();) {
+                Money rate = iter.next();
+                Curr currency = rate.getCurrency();
+
+                if (currency == targetCurrency) {
+                    log.warn( "Skipping target currency rate " + rate );
+                    continue;
+                }
+
+                if (rate.getAmount().signum() <= 0) {
+                    throw new IllegalArgumentException( "Invalid rate " + rate + " - must be positive" );
+                }
+
+                map.put( currency, rate.getAmount());
+            }
+
+            return map;
+        }
+        finally {
+            mf.close();
         }
     }
 
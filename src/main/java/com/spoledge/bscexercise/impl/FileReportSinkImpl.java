@@ -0,0 +1,186 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.spoledge.bscexercise.ReportSink;
+
+
+/**
+ * A report sink which appends the reports to a file.
+ * <p>
+ * When the maximal size is set, then the file is rolled before it would exceed it:
+ * the file is renamed to "FILE.1", the older "FILE.1" to "FILE.2" etc. and only
+ * the configured number of rolled files is kept. A report is never split between files.
+ * </p>
+ * The implementation is thread-safe.
+ */
+public class FileReportSinkImpl implements ReportSink {
+
+    /**
+     * The default number of rolled files kept.
+     */
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final Log log = LogFactory.getLog( FileReportSinkImpl.class );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private final File file;
+    private final long maxSize;
+    private final int maxFiles;
+
+    /**
+     * The opened file and its size - guarded by this.
+     */
+    private OutputStream out;
+    private long size;
+
+    private boolean closed;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new sink which is never rolled.
+     * @param file the output file
+     */
+    public FileReportSinkImpl( File file ) {
+        this( file, 0, DEFAULT_MAX_FILES );
+    }
+
+
+    /**
+     * Creates a new rolling sink.
+     * @param file the output file
+     * @param maxSize the maximal size of the file in bytes; 0 means never roll
+     * @param maxFiles the number of rolled files kept
+     */
+    public FileReportSinkImpl( File file, long maxSize, int maxFiles ) {
+        if (file == null) throw new NullPointerException( "Missing file" );
+        if (maxSize < 0) throw new IllegalArgumentException( "Negative maxSize" );
+        if (maxFiles < 1) throw new IllegalArgumentException( "Invalid maxFiles " + maxFiles );
+
+        this.file = file;
+        this.maxSize = maxSize;
+        this.maxFiles = maxFiles;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // ReportSink
+    ////////////////////////////////////////////////////////////////////////////
+
+    public void write( String report ) throws IOException {
+        byte[] bytes = report.getBytes( ENCODING );
+
+        write( bytes, 0, bytes.length );
+    }
+
+
+    public synchronized void write( byte[] data, int offset, int length ) throws IOException {
+        if (closed) throw new IOException( "The sink is closed" );
+
+        if (out == null) open();
+
+        if (maxSize > 0 && size > 0 && size + length > maxSize) {
+            roll();
+        }
+
+        out.write( data, offset, length );
+        out.flush();
+        size += length;
+    }
+
+
+    public synchronized void close() throws IOException {
+        closed = true;
+
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public File getFile() {
+        return file;
+    }
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+
+    /**
+     * Returns the rolled file.
+     * @param i the number of the rolled file - 1 is the newest
+     */
+    public File getRolledFile( int i ) {
+        return new File( file.getPath() + '.' + i );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void open() throws IOException {
+        out = new FileOutputStream( file, true );
+        size = file.length();
+    }
+
+
+    /**
+     * Closes the current file, shifts the rolled files and opens a new file.
+     */
+    private void roll() throws IOException {
+        out.close();
+        out = null;
+
+        File oldest = getRolledFile( maxFiles );
+
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException( "Cannot delete file " + oldest );
+        }
+
+        for (int i=maxFiles - 1; i > 0; i--) {
+            File rolled = getRolledFile( i );
+
+            if (rolled.exists() && !rolled.renameTo( getRolledFile( i + 1 ))) {
+                throw new IOException( "Cannot rename file " + rolled );
+            }
+        }
+
+        if (!file.renameTo( getRolledFile( 1 ))) {
+            throw new IOException( "Cannot rename file " + file );
+        }
+
+        log.info( "Report file " + file + " rolled" );
+
+        open();
+    }
+
+}
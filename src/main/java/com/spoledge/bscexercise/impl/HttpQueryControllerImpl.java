@@ -0,0 +1,590 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.spoledge.bscexercise.Controller;
+import com.spoledge.bscexercise.CurrencyConverter;
+import com.spoledge.bscexercise.MoneyParseException;
+import com.spoledge.bscexercise.MoneyParser;
+import com.spoledge.bscexercise.PaymentProcessor;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+
+import com.spoledge.bscexercise.util.JsonWriter;
+import com.spoledge.bscexercise.util.ReportBuffer;
+
+
+/**
+ * An embedded HTTP server answering the queries of the balances and conversions as JSON.
+ * It listens on a local port and uses the HTTP server of the JDK.
+ * <ul>
+ *  <li>GET /balance - all non-zero balances:
+ *      {"tx":3,"balances":[{"currency":"USD","amount":100.02,"converted":{...}|null}]}
+ *      (the "converted" member is present only when the currency converter is set)</li>
+ *  <li>GET /balance/USD - one balance: {"tx":3,"currency":"USD","amount":100.02}
+ *      (zero if the currency has not been registered; "tx" is the transaction as of which
+ *      the balance was read - it can be older than the last one when the balance has not changed since)</li>
+ *  <li>GET /forex?currency=EUR&amp;amount=10[&amp;target=USD] - a conversion:
+ *      {"currency":"EUR","amount":10,"converted":{"currency":"USD","amount":12.5}|null}</li>
+ * </ul>
+ * <p>
+ * The bodies of the balances are cached and reused while the last transaction id
+ * of the processor and the version of the rates are the same, so polling of unchanged data
+ * costs only reading the two counters. The body of a single balance is also reused while
+ * the version of that balance (see Balance.getVersion()) is the same, so the payments
+ * of other currencies do not regenerate it, and only that balance is converted.
+ * However the processor has no per-currency read, so the version of the balance is checked
+ * by reading the whole balance: polling of one currency costs O(currencies) once per new transaction.
+ * The cached bodies are sent with an ETag, so the clients
+ * can poll with "If-None-Match" and get just "304 Not Modified".
+ * </p>
+ * <pre>
+ *  HttpQueryControllerImpl http = new HttpQueryControllerImpl( 8080 );
+ *  http.setPaymentProcessor( processor );
+ *  http.setMoneyParser( parser );
+ *  http.start();
+ * </pre>
+ */
+public class HttpQueryControllerImpl implements Controller {
+
+    private static final String CONTENT_TYPE = "application/json";
+
+    /**
+     * The version of a balance not registered yet.
+     */
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private static final Log log = LogFactory.getLog( HttpQueryControllerImpl.class );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A cached response body.
+     */
+    private static final class Body {
+        final int lastTransationId;
+
+        /**
+         * The version of the single balance or -1 if unknown (or all balances).
+         */
+        final long version;
+
+        final long ratesVersion;
+        final CurrencyConverter converter;
+        final byte[] data;
+        final String etag;
+
+        Body( int lastTransationId, long version, long ratesVersion, CurrencyConverter converter, byte[] data ) {
+            this.lastTransationId = lastTransationId;
+            this.version = version;
+            this.ratesVersion = ratesVersion;
+            this.converter = converter;
+            this.data = data;
+            this.etag = version != -1 ? "\"v" + version + '-' + ratesVersion + "\""
+                                      : "\"" + lastTransationId + '-' + ratesVersion + "\"";
+        }
+
+        /**
+         * Creates the same body valid for a later transaction id.
+         */
+        Body( int lastTransationId, Body body ) {
+            this.lastTransationId = lastTransationId;
+            this.version = body.version;
+            this.ratesVersion = body.ratesVersion;
+            this.converter = body.converter;
+            this.data = body.data;
+            this.etag = body.etag;
+        }
+
+        boolean isValid( int lastTransationId, long ratesVersion, CurrencyConverter converter ) {
+            return this.lastTransationId == lastTransationId && this.ratesVersion == ratesVersion
+                    && this.converter == converter;
+        }
+
+        boolean isValidVersion( long version, long ratesVersion, CurrencyConverter converter ) {
+            return version != -1 && this.version == version && this.ratesVersion == ratesVersion
+                    && this.converter == converter;
+        }
+    }
+
+
+    /**
+     * The handler of /balance and /balance/CUR.
+     */
+    private class BalanceHandler implements HttpHandler {
+        public void handle( HttpExchange exchange ) throws IOException {
+            try {
+                if (!"GET".equals( exchange.getRequestMethod())) {
+                    sendError( exchange, 405, "Method not allowed" );
+                    return;
+                }
+
+                String path = exchange.getRequestURI().getPath();
+                Curr currency = null;
+
+                if (path.startsWith( "/balance/" ) && path.length() > 9) {
+                    try {
+                        currency = Curr.getInstance( path.substring( 9 ));
+                    }
+                    catch (IllegalArgumentException e) {
+                        sendError( exchange, 404, "Unknown currency " + path.substring( 9 ));
+                        return;
+                    }
+                }
+                else if (!"/balance".equals( path ) && !"/balance/".equals( path )) {
+                    sendError( exchange, 404, "Not found" );
+                    return;
+                }
+
+                Body body = currency == null ? getBalanceBody() : getBalanceBody( currency );
+                String etag = exchange.getRequestHeaders().getFirst( "If-None-Match" );
+
+                exchange.getResponseHeaders().set( "ETag", body.etag );
+
+                if (body.etag.equals( etag )) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders( 304, -1 );
+                }
+                else send( exchange, 200, body.data, body.data.length );
+            }
+            catch (RuntimeException e) {
+                log.error( "Cannot handle " + exchange.getRequestURI() + ": " + e, e );
+                sendError( exchange, 500, "Internal error" );
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+
+
+    /**
+     * The handler of /forex.
+     */
+    private class ForexHandler implements HttpHandler {
+        public void handle( HttpExchange exchange ) throws IOException {
+            try {
+                if (!"GET".equals( exchange.getRequestMethod())) {
+                    sendError( exchange, 405, "Method not allowed" );
+                    return;
+                }
+
+                Map<String, String> params = parseQuery( exchange.getRequestURI().getRawQuery());
+                String currency = params.get( "currency" );
+                String amount = params.get( "amount" );
+                String target = params.get( "target" );
+                CurrencyConverter cc = currencyConverter;
+
+                if (currency == null || amount == null) {
+                    sendError( exchange, 400, "Missing currency or amount" );
+                    return;
+                }
+
+                if (cc == null) {
+                    sendError( exchange, 503, "No exchange rates loaded" );
+                    return;
+                }
+
+                Money money;
+                Curr targetCurrency;
+
+                try {
+                    money = moneyParser.parseMoney( currency, amount );
+                    targetCurrency = target != null ? Curr.getInstance( target ) : cc.getTargetCurrency();
+                }
+                catch (MoneyParseException e) {
+                    sendError( exchange, 400, e.getMessage());
+                    return;
+                }
+                catch (IllegalArgumentException e) {
+                    sendError( exchange, 400, e.getMessage());
+                    return;
+                }
+
+                Money converted = cc.convertMoney( money, targetCurrency );
+                ReportBuffer out = new ReportBuffer( 128 );
+                JsonWriter json = new JsonWriter( out );
+
+                json.beginObject();
+                json.name( "currency" ).value( money.getCurrency().getCurrencyCode());
+                json.name( "amount" ).amount( money );
+                json.name( "converted" );
+                writeMoney( json, converted );
+                json.endObject();
+
+                send( exchange, 200, out.array(), out.length());
+            }
+            catch (RuntimeException e) {
+                log.error( "Cannot handle " + exchange.getRequestURI() + ": " + e, e );
+                sendError( exchange, 500, "Internal error" );
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private PaymentProcessor paymentProcessor;
+    private CurrencyConverter currencyConverter;
+    private MoneyParser moneyParser;
+
+    private final int port;
+
+    private HttpServer server;
+    private final Object lock = new Object();
+
+    /**
+     * The cached body of all balances.
+     */
+    private volatile Body balanceBody;
+
+    /**
+     * The cached bodies of single balances indexed by the currency index.
+     */
+    private final AtomicReferenceArray<Body> currencyBodies = new AtomicReferenceArray<Body>( Curr.INDEX_COUNT );
+
+    private final AtomicLong generatedBodies = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new controller.
+     * @param port the local port; 0 means any free port (see getLocalPort())
+     */
+    public HttpQueryControllerImpl( int port ) {
+        if (port < 0 || port > 0xffff) throw new IllegalArgumentException( "Invalid port " + port );
+
+        this.port = port;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Controller
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Starts the server.
+     * @throws IllegalStateException when already started
+     * @throws RuntimeException when the port cannot be opened
+     */
+    public void start() {
+        if (paymentProcessor == null || moneyParser == null) {
+            throw new RuntimeException( "Components not initialized correctly" );
+        }
+
+        synchronized (lock) {
+            if (server != null) throw new IllegalStateException( "Already started" );
+
+            try {
+                server = HttpServer.create( new InetSocketAddress( InetAddress.getByName( null ), port ), 0 );
+            }
+            catch (IOException e) {
+                throw new RuntimeException( "Cannot listen on port " + port + ": " + e, e );
+            }
+
+            server.createContext( "/balance", new BalanceHandler());
+            server.createContext( "/forex", new ForexHandler());
+            server.start();
+
+            log.info( "HTTP server listening on port " + getLocalPort());
+        }
+    }
+
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        synchronized (lock) {
+            if (server != null) {
+                server.stop( 0 );
+                server = null;
+
+                log.info( "HTTP server stopped." );
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the port the server listens on or -1 if not started.
+     */
+    public int getLocalPort() {
+        synchronized (lock) {
+            return server != null ? server.getAddress().getPort() : -1;
+        }
+    }
+
+
+    /**
+     * Returns the number of the balance bodies generated so far - the others were served from the cache.
+     */
+    public long getGeneratedBodies() {
+        return generatedBodies.get();
+    }
+
+
+    /**
+     * Returns the number of the "304 Not Modified" responses.
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+
+    public PaymentProcessor getPaymentProcessor() {
+        return paymentProcessor;
+    }
+
+    public void setPaymentProcessor( PaymentProcessor paymentProcessor ) {
+        this.paymentProcessor = paymentProcessor;
+    }
+
+
+    public CurrencyConverter getCurrencyConverter() {
+        return currencyConverter;
+    }
+
+    /**
+     * Sets the converter used for the conversions - optional.
+     */
+    public void setCurrencyConverter( CurrencyConverter currencyConverter ) {
+        this.currencyConverter = currencyConverter;
+    }
+
+
+    public MoneyParser getMoneyParser() {
+        return moneyParser;
+    }
+
+    public void setMoneyParser( MoneyParser moneyParser ) {
+        this.moneyParser = moneyParser;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the cached body of all balances or generates a new one if the balances or the rates could have changed.
+     */
+    private Body getBalanceBody() {
+        PaymentProcessor pp = paymentProcessor;
+        CurrencyConverter cc = currencyConverter;
+        int txId = pp.getLastTransationId();
+        long ratesVersion = cc != null ? cc.getRatesVersion() : -1;
+
+        Body body = balanceBody;
+
+        if (body != null && body.isValid( txId, ratesVersion, cc )) return body;
+
+        // concurrent requests can generate the same body twice - it does not matter:
+        Balance balance = pp.getBalance();
+        ConvertedBalance converted = cc != null ? cc.convertBalance( balance ) : null;
+        ReportBuffer out = new ReportBuffer();
+        JsonWriter json = new JsonWriter( out );
+        List<Money> list = balance.getAllMoney();
+
+        json.beginObject();
+        json.name( "tx" ).value( balance.getLastTransationId());
+        json.name( "balances" ).beginArray();
+
+        for (int i=0; i < list.size(); i++) {
+            Money money = list.get( i );
+
+            if (money.isZero()) continue;
+
+            json.beginObject();
+            writeBalance( json, money, converted != null ? converted.getConverted( i ) : null, cc );
+            json.endObject();
+        }
+
+        json.endArray();
+        json.endObject();
+
+        body = new Body( balance.getLastTransationId(), -1, ratesVersion, cc, Arrays.copyOf( out.array(), out.length()));
+        generatedBodies.incrementAndGet();
+        balanceBody = body;
+
+        return body;
+    }
+
+
+    /**
+     * Returns the cached body of one balance or generates a new one if the balance or the rates have changed.
+     * Only the balance of the currency is converted.
+     */
+    private Body getBalanceBody( Curr currency ) {
+        PaymentProcessor pp = paymentProcessor;
+        CurrencyConverter cc = currencyConverter;
+        int txId = pp.getLastTransationId();
+        long ratesVersion = cc != null ? cc.getRatesVersion() : -1;
+
+        Body body = currencyBodies.get( currency.getIndex());
+
+        if (body != null && body.isValid( txId, ratesVersion, cc )) return body;
+
+        Balance balance = pp.getBalance();
+        List<Money> list = balance.getAllMoney();
+        int i = indexOf( list, currency );
+        long version = i != -1 ? balance.getVersion( i ) : ABSENT;
+
+        if (body != null && body.isValidVersion( version, ratesVersion, cc )) {
+            // the balance has not changed - the body is valid for the new transactions too:
+            body = new Body( balance.getLastTransationId(), body );
+        }
+        else {
+            Money money = i != -1 ? list.get( i ) : new Money( currency, 0, 0 );
+            ReportBuffer out = new ReportBuffer();
+            JsonWriter json = new JsonWriter( out );
+
+            json.beginObject();
+            json.name( "tx" ).value( balance.getLastTransationId());
+            writeBalance( json, money, cc != null && i != -1 ? cc.convertMoney( money ) : null, cc );
+            json.endObject();
+
+            body = new Body( balance.getLastTransationId(), version, ratesVersion, cc,
+                                Arrays.copyOf( out.array(), out.length()));
+            generatedBodies.incrementAndGet();
+        }
+
+        currencyBodies.set( currency.getIndex(), body );
+
+        return body;
+    }
+
+
+    /**
+     * Writes one balance.
+     * @param cc the converter the body is generated for - the "converted" member is written only if not null
+     */
+    private static void writeBalance( JsonWriter json, Money money, Money converted, CurrencyConverter cc ) {
+        json.name( "currency" ).value( money.getCurrency().getCurrencyCode());
+        json.name( "amount" ).amount( money );
+
+        if (cc != null) {
+            json.name( "converted" );
+            writeMoney( json, converted );
+        }
+    }
+
+
+    private static void writeMoney( JsonWriter json, Money money ) {
+        if (money == null) {
+            json.nullValue();
+            return;
+        }
+
+        json.beginObject();
+        json.name( "currency" ).value( money.getCurrency().getCurrencyCode());
+        json.name( "amount" ).amount( money );
+        json.endObject();
+    }
+
+
+    /**
+     * Finds the currency in the list sorted by the currency code.
+     * @return the index or -1 if not found
+     */
+    private static int indexOf( List<Money> list, Curr currency ) {
+        int low = 0;
+        int high = list.size() - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int index = list.get( mid ).getCurrency().getIndex();
+
+            if (index < currency.getIndex()) low = mid + 1;
+            else if (index > currency.getIndex()) high = mid - 1;
+            else return mid;
+        }
+
+        return -1;
+    }
+
+
+    private static Map<String, String> parseQuery( String query ) {
+        HashMap<String, String> ret = new HashMap<String, String>();
+
+        if (query == null) return ret;
+
+        for (String param : query.split( "&" )) {
+            int n = param.indexOf( '=' );
+
+            if (n > 0) ret.put( decode( param.substring( 0, n )), decode( param.substring( n + 1 )));
+        }
+
+        return ret;
+    }
+
+
+    private static String decode( String s ) {
+        try {
+            return URLDecoder.decode( s, "UTF-8" );
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+
+    private void sendError( HttpExchange exchange, int code, String message ) throws IOException {
+        ReportBuffer out = new ReportBuffer( 128 );
+        JsonWriter json = new JsonWriter( out );
+
+        json.beginObject().name( "error" ).value( message ).endObject();
+
+        send( exchange, code, out.array(), out.length());
+    }
+
+
+    private static void send( HttpExchange exchange, int code, byte[] data, int length ) throws IOException {
+        exchange.getResponseHeaders().set( "Content-Type", CONTENT_TYPE );
+        exchange.sendResponseHeaders( code, length );
+
+        OutputStream os = exchange.getResponseBody();
+        os.write( data, 0, length );
+        os.close();
+    }
+
+}
@@ -0,0 +1,432 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.spoledge.bscexercise.PaymentProcessor;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+import com.spoledge.bscexercise.util.BalanceSnapshot;
+import com.spoledge.bscexercise.util.PaymentJournal;
+
+
+/**
+ * The durable implementation of the PaymentProcessor.
+ * Each payment is appended to a journal file first and it is registered
+ * by the in-memory processor only when the journal record is on the disk.
+ * When opened, then the journal is replayed, so the balances and the last
+ * transaction id survive restarts.
+ * <p>
+ * The journal records are written under the lock (in the order of transaction ids),
+ * but the fsync is done outside of the lock and is shared by all threads
+ * waiting for it (group commit). So a registerPayment() call returns
+ * only when the payment is on the disk (unless the sync is disabled).
+ * The synced payments are then registered in the order of the transaction ids,
+ * so the balances never contain a payment which could be lost by a crash.
+ * When the sync fails, then the processor refuses any other payments.
+ * </p>
+ * <p>
+ * Every snapshotInterval transactions the balances are written to a snapshot file
+ * and the journal is truncated. So the recovery reads the snapshot and replays only
+ * the rest of the journal - the startup time does not grow with the number
+ * of the processed transactions.
+ * </p>
+ * <pre>
+ *  JournalPaymentProcessorImpl processor = new JournalPaymentProcessorImpl( file );
+ *  processor.open();
+ *  ...
+ *  processor.close();
+ * </pre>
+ * The implementation is thread-safe.
+ */
+public class JournalPaymentProcessorImpl implements PaymentProcessor {
+
+    /**
+     * The default number of transactions between two snapshots.
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100000;
+
+    private static final Log log = LogFactory.getLog( JournalPaymentProcessorImpl.class );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A payment written to the journal, but not registered in memory yet.
+     */
+    private static final class Pending {
+        final long position;
+        final Money payment;
+        final PaymentBatch batch;
+
+        Pending( long position, Money payment, PaymentBatch batch ) {
+            this.position = position;
+            this.payment = payment;
+            this.batch = batch;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private PaymentJournal journal;
+    private BalanceSnapshot snapshot;
+    private MemoryPaymentProcessorImpl memory;
+
+    /**
+     * The last transaction id registered in memory - changed under the lock, but read without it.
+     */
+    private volatile int lastTransationId;
+
+    /**
+     * The last transaction id written to the journal - guarded by the lock.
+     */
+    private int appendedTransationId;
+
+    /**
+     * The payments written to the journal, but not registered in memory yet,
+     * in the order of the transaction ids - guarded by the lock.
+     */
+    private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+
+    private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+
+    /**
+     * The last transaction id contained in the snapshot.
+     */
+    private int snapshotTransationId;
+
+    /**
+     * Set when writing to the journal failed - the journal may end with
+     * an incomplete record, so nothing can be appended after it.
+     */
+    private boolean failed;
+
+    private final Object lock = new Object();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new journal payment processor.
+     * The snapshot file is the journal file's path with the suffix ".snapshot".
+     * The processor must be opened before use.
+     * @param file the journal file
+     */
+    public JournalPaymentProcessorImpl( File file ) {
+        this( file, new File( file.getPath() + ".snapshot" ));
+    }
+
+
+    /**
+     * Creates a new journal payment processor.
+     * The processor must be opened before use.
+     * @param file the journal file
+     * @param snapshotFile the snapshot file
+     */
+    public JournalPaymentProcessorImpl( File file, File snapshotFile ) {
+        this( new PaymentJournal( file ), new BalanceSnapshot( snapshotFile ));
+    }
+
+
+    /**
+     * Creates a new journal payment processor.
+     * The processor must be opened before use.
+     * @param journal the journal
+     * @param snapshot the snapshot of the balances
+     */
+    public JournalPaymentProcessorImpl( PaymentJournal journal, BalanceSnapshot snapshot ) {
+        this.journal = journal;
+        this.snapshot = snapshot;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public PaymentJournal getJournal() {
+        return journal;
+    }
+
+
+    /**
+     * Enables or disables the fsync of the journal.
+     * @see PaymentJournal#setSyncEnabled(boolean)
+     */
+    public void setSyncEnabled( boolean syncEnabled ) {
+        journal.setSyncEnabled( syncEnabled );
+    }
+
+
+    /**
+     * Sets the group commit delay in millis.
+     * @see PaymentJournal#setGroupCommitDelay(long)
+     */
+    public void setGroupCommitDelay( long groupCommitDelay ) {
+        journal.setGroupCommitDelay( groupCommitDelay );
+    }
+
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+
+    /**
+     * Sets the number of transactions between two snapshots.
+     * Zero disables the automatic snapshots.
+     */
+    public void setSnapshotInterval( int snapshotInterval ) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+
+    /**
+     * Opens the journal and recovers the balances and the last transaction id
+     * from the snapshot and the journal.
+     */
+    public void open() throws IOException {
+        synchronized( lock ) {
+            if (memory != null) throw new IllegalStateException( "Processor already opened" );
+
+            Balance balance = snapshot.read();
+            MemoryPaymentProcessorImpl recovered = balance != null
+                                                    ? new MemoryPaymentProcessorImpl( balance )
+                                                    : new MemoryPaymentProcessorImpl();
+
+            snapshotTransationId = balance != null ? balance.getLastTransationId() : 0;
+            lastTransationId = journal.open( recovered, snapshotTransationId );
+            appendedTransationId = lastTransationId;
+            memory = recovered;
+        }
+    }
+
+
+    /**
+     * Writes the snapshot of the balances and truncates the journal.
+     * The records not synced yet are synced and registered first.
+     * The registering of payments is blocked meanwhile.
+     */
+    public void snapshot() throws IOException {
+        synchronized( lock ) {
+            checkOpened();
+
+            long position = journal.getWrittenPosition();
+
+            try {
+                journal.sync( position );
+            }
+            catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+
+            applyPending( position );
+
+            snapshot.write( memory.getBalance());
+            snapshotTransationId = lastTransationId;
+
+            // the journal is not needed now - even if the truncation fails,
+            // then the records are skipped during the recovery:
+            journal.truncate();
+        }
+    }
+
+
+    /**
+     * Closes the journal.
+     */
+    public void close() throws IOException {
+        synchronized( lock ) {
+            journal.close();
+            failed = true;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PaymentProcessor
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Registers a single payment.
+     * @param payment the amount and type of money to be registered
+     * @return the transaction id of the payment being registered
+     * @throws NullPointerException when the parameter is null
+     * @throws IllegalStateException when the processor is not opened or the journal cannot be written
+     */
+    public int registerPayment( Money payment ) {
+        if (payment == null) throw new NullPointerException( "Missing payment" );
+
+        int ret;
+        long position;
+
+        synchronized( lock ) {
+            checkOpened();
+
+            ret = appendedTransationId + 1;
+
+            try {
+                position = journal.append( ret, payment );
+            }
+            catch (IOException e) {
+                failed = true;
+                throw new IllegalStateException( "Cannot write journal: " + e, e );
+            }
+
+            pending.add( new Pending( position, payment, null ));
+            appendedTransationId = ret;
+        }
+
+        sync( position );
+
+        return ret;
+    }
+
+
+    /**
+     * Registers a batch of payments at once.
+     * The whole batch is written as one journal record.
+     * @param batch the pre-aggregated payments to be registered
+     * @return the transaction id of the first payment of the batch
+     * @throws NullPointerException when the parameter is null
+     * @throws IllegalStateException when the processor is not opened or the journal cannot be written
+     */
+    public int registerPayments( PaymentBatch batch ) {
+        if (batch == null) throw new NullPointerException( "Missing batch" );
+
+        int ret;
+        long position;
+
+        synchronized( lock ) {
+            checkOpened();
+
+            ret = appendedTransationId + 1;
+
+            if (batch.isEmpty()) return ret;
+
+            try {
+                position = journal.append( ret, batch );
+            }
+            catch (IOException e) {
+                failed = true;
+                throw new IllegalStateException( "Cannot write journal: " + e, e );
+            }
+
+            // the batch is registered before this method returns, so the caller cannot reuse it meanwhile:
+            pending.add( new Pending( position, null, batch ));
+            appendedTransationId += batch.getCount();
+        }
+
+        sync( position );
+
+        return ret;
+    }
+
+
+    /**
+     * Returns the balance.
+     * It contains only the payments which are synced to the disk.
+     */
+    public Balance getBalance() {
+        synchronized( lock ) {
+            if (memory == null) throw new IllegalStateException( "Processor not opened" );
+
+            return memory.getBalance();
+        }
+    }
+
+
+    public int getLastTransationId() {
+        return lastTransationId;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void checkOpened() {
+        if (memory == null) throw new IllegalStateException( "Processor not opened" );
+        if (failed) throw new IllegalStateException( "Journal closed or failed" );
+    }
+
+
+    /**
+     * Takes the snapshot if there were enough transactions since the last one.
+     * A failed snapshot is not fatal - the journal still contains everything.
+     */
+    private void autoSnapshot() {
+        if (snapshotInterval <= 0 || lastTransationId - snapshotTransationId < snapshotInterval) return;
+
+        try {
+            snapshot();
+        }
+        catch (IOException e) {
+            log.error( "Cannot write snapshot " + snapshot.getFile() + ": " + e, e );
+
+            // try again after next interval:
+            snapshotTransationId = lastTransationId;
+        }
+    }
+
+
+    /**
+     * Waits until the record is on the disk and then registers it in memory
+     * together with all the preceding records.
+     */
+    private void sync( long position ) {
+        try {
+            journal.sync( position );
+        }
+        catch (IOException e) {
+            synchronized( lock ) {
+                failed = true;
+            }
+
+            throw new IllegalStateException( "Cannot sync journal: " + e, e );
+        }
+
+        synchronized( lock ) {
+            applyPending( position );
+            autoSnapshot();
+        }
+    }
+
+
+    /**
+     * Registers the pending payments in memory up to the synced position.
+     */
+    private void applyPending( long position ) {
+        Pending p;
+
+        while ((p = pending.peek()) != null && p.position <= position) {
+            pending.poll();
+
+            if (p.payment != null) {
+                memory.registerPayment( p.payment );
+                lastTransationId++;
+            }
+            else {
+                memory.registerPayments( p.batch );
+                lastTransationId += p.batch.getCount();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.List;
+
+import com.spoledge.bscexercise.ReportSink;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
+import com.spoledge.bscexercise.model.Money;
+
+import com.spoledge.bscexercise.util.JsonWriter;
+import com.spoledge.bscexercise.util.ReportBuffer;
+
+
+/**
+ * An implementation of the PaymentReporter which generates the reports as line-delimited JSON.
+ * Each report is one line containing one object:
+ * <pre>
+ *  {"tx":5,
+ *   "balances":[{"currency":"EUR","amount":8,"converted":{"currency":"USD","amount":10.00}}, ...],
+ *   "totals":[{"currency":"USD","amount":20.00,"missing":0}, ...]}
+ * </pre>
+ * The "converted" member is present only when the currency converter is set,
+ * it is null when there is no conversion rate. The amounts are JSON numbers
+ * in the plain decimal format, so they keep their scale.
+ */
+public class JsonPaymentReporterImpl extends AbstractDataPaymentReporterImpl {
+
+    /**
+     * The reused writer - guarded by the buffer of the parent.
+     */
+    private JsonWriter json;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new reporter.
+     * @param reportSink the output of the reports
+     */
+    public JsonPaymentReporterImpl( ReportSink reportSink ) {
+        super( reportSink );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
+    protected void format( ReportBuffer out, Balance balance, ConvertedBalance converted,
+                                ConvertedBalance[] totals ) {
+
+        if (json == null) json = new JsonWriter( out );
+        else json.reset();
+
+        List<Money> list = balance.getAllMoney();
+
+        json.beginObject();
+        json.name( "tx" ).value( balance.getLastTransationId());
+        json.name( "balances" ).beginArray();
+
+        for (int i=0; i < list.size(); i++) {
+            Money money = list.get( i );
+
+            if (money.isZero()) continue;
+
+            json.beginObject();
+            json.name( "currency" ).value( money.getCurrency().getCurrencyCode());
+            json.name( "amount" ).amount( money );
+
+            if (converted != null) {
+                Money target = converted.getConverted( i );
+
+                json.name( "converted" );
+
+                if (target != null) {
+                    json.beginObject();
+                    json.name( "currency" ).value( target.getCurrency().getCurrencyCode());
+                    json.name( "amount" ).amount( target );
+                    json.endObject();
+                }
+                else json.nullValue();
+            }
+
+            json.endObject();
+        }
+
+        json.endArray();
+        json.name( "totals" ).beginArray();
+
+        for (ConvertedBalance total : totals) {
+            json.beginObject();
+            json.name( "currency" ).value( total.getTargetCurrency().getCurrencyCode());
+            json.name( "amount" ).amount( total.getTotal());
+            json.name( "missing" ).value( total.getMissingCount());
+            json.endObject();
+        }
+
+        json.endArray();
+        json.endObject();
+
+        out.append( '\n' );
+    }
+
+}
@@ -1,23 +1,47 @@
 package com.spoledge.bscexercise.impl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import com.spoledge.bscexercise.PaymentProcessor;
 
 import com.spoledge.bscexercise.model.Balance;
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
+import com.spoledge.bscexercise.model.PaymentBatch;
 
 
 /**
  * The in-memory implementation of the PaymentProcessor.
+ * The balances are kept as fixed-point sums, so registering of a compact payment
+ * does not allocate any new objects.
  * The implementation is thread-safe.
  */
 public class MemoryPaymentProcessorImpl implements PaymentProcessor {
 
-    private HashMap<Curr, Money> allCurrenciesMap = new HashMap<Curr, Money>();
-    private int lastTransationId;
+    /**
+     * The balances indexed by the currency index.
+     */
+    private MoneySum[] balances = new MoneySum[ Curr.INDEX_COUNT ];
+
+    /**
+     * The versions of the balances indexed by the currency index
+     * - the last transaction id which changed the balance.
+     */
+    private int[] versions = new int[ Curr.INDEX_COUNT ];
+
+    /**
+     * The indexes of the registered currencies in ascending order
+     * - the same order as the currency codes.
+     */
+    private int[] usedIndexes = new int[ 16 ];
+    private int usedCount;
+
+    /**
+     * The last transaction id - changed under the lock, but read without it.
+     */
+    private volatile int lastTransationId;
 
 
     ////////////////////////////////////////////////////////////////////////////
@@ -42,6 +66,20 @@ public class MemoryPaymentProcessorImpl implements PaymentProcessor {
     }
 
 
+    /**
+     * Creates a new memory payment processor initialized by a balance.
+     * @param balance the initial balances and the last transaction id
+     */
+    public MemoryPaymentProcessorImpl( Balance balance ) {
+        this( balance.getLastTransationId());
+
+        for (Money money : balance.getAllMoney()) {
+            getBalance( money.getCurrency()).add( money );
+            versions[ money.getCurrency().getIndex() ] = balance.getLastTransationId();
+        }
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // PaymentProcessor
     ////////////////////////////////////////////////////////////////////////////
@@ -55,37 +93,92 @@ public class MemoryPaymentProcessorImpl implements PaymentProcessor {
     public synchronized int registerPayment( Money payment ) {
         if (payment == null) throw new NullPointerException( "Missing payment" );
 
-        Curr currency = payment.getCurrency();
-        Money balance = allCurrenciesMap.get( currency );
+        getBalance( payment.getCurrency()).add( payment );
 
-        // NOTE: we keep the balance even if it is zero,
-        //      so it is possible to find out which currencies were really registered
-        //      Avoiding the zero balances can be done by the output formatters
+        lastTransationId++;
+        versions[ payment.getCurrency().getIndex() ] = lastTransationId;
+
+        return lastTransationId;
+    }
 
-        if (balance != null) {
-            balance = balance.add( payment );
-        }
-        else {
-            balance = payment;
-        }
 
-        allCurrenciesMap.put( currency, balance );
+    /**
+     * Registers a batch of payments at once.
+     * The whole batch is registered under one lock, so it is either
+     * fully visible or not visible at all in the balance.
+     * @param batch the pre-aggregated payments to be registered
+     * @return the transaction id of the first payment of the batch
+     * @throws NullPointerException when the parameter is null
+     */
+    public synchronized int registerPayments( PaymentBatch batch ) {
+        if (batch == null) throw new NullPointerException( "Missing batch" );
 
-        return ++lastTransationId;
+        int ret = lastTransationId + 1;
+        lastTransationId += batch.getCount();
+
+        for (int i=0; i < batch.getCurrencyCount(); i++) {
+            MoneySum sum = batch.getSum( i );
+
+            getBalance( sum.getCurrency()).add( sum );
+            versions[ sum.getCurrency().getIndex() ] = lastTransationId;
+        }
+
+        return ret;
     }
 
 
     /**
      * Returns the balance.
+     * The list of money is sorted by the currency code.
+     * The version of each balance is the last transaction id which changed it.
      */
     public synchronized Balance getBalance() {
-        // this is bad, because the list would be bacjed up by the map,
-        // so any change would raise an exception or even unpredictable behavior:
-        //      list = allCurrenciesMap.values()
-        //
-        // instead of that we must copy the values to a new list:
+        // the sums are mutable, so we must copy the values to a new list:
+        ArrayList<Money> list = new ArrayList<Money>( usedCount );
+        long[] vers = new long[ usedCount ];
+
+        for (int i=0; i < usedCount; i++) {
+            list.add( balances[ usedIndexes[ i ]].toMoney());
+            vers[ i ] = versions[ usedIndexes[ i ]];
+        }
+
+        return new Balance( lastTransationId, list, vers );
+    }
+
+
+    public int getLastTransationId() {
+        return lastTransationId;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the balance of the currency - creates a new one if not exists yet.
+     */
+    private MoneySum getBalance( Curr currency ) {
+        MoneySum ret = balances[ currency.getIndex() ];
+
+        // NOTE: we keep the balance even if it is zero,
+        //      so it is possible to find out which currencies were really registered
+        //      Avoiding the zero balances can be done by the output formatters
+
+        if (ret == null) {
+            ret = balances[ currency.getIndex() ] = new MoneySum( currency );
+
+            // keep the indexes sorted - new currencies are rare, so the shifting does not matter:
+            int pos = -Arrays.binarySearch( usedIndexes, 0, usedCount, currency.getIndex()) - 1;
+
+            if (usedCount == usedIndexes.length) usedIndexes = Arrays.copyOf( usedIndexes, usedCount * 2 );
+
+            System.arraycopy( usedIndexes, pos, usedIndexes, pos + 1, usedCount - pos );
+            usedIndexes[ pos ] = currency.getIndex();
+            usedCount++;
+        }
 
-        return new Balance( lastTransationId, new ArrayList<Money>( allCurrenciesMap.values()));
+        return ret;
     }
 
 }
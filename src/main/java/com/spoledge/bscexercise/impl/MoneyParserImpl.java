@@ -7,6 +7,7 @@ import com.spoledge.bscexercise.MoneyParser;
 
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
 
 
 /**
@@ -79,11 +80,9 @@ public class MoneyParserImpl implements MoneyParser {
     public Money parseMoney( String line, int lineNumber ) throws MoneyParseException {
         if (line == null) throw new NullPointerException( "Missing line parameter" );
 
-        int n = line.indexOf( ' ' );
-
-        if (n == -1) throw new MoneyParseException( "Invalid line format", lineNumber );
+        Money ret = parseSimpleMoney( line, 0, line.length());
 
-        return parseMoney0( line.substring( 0, n ), line.substring( n ), lineNumber );
+        return ret != null ? ret : parseMoney0( line, lineNumber );
     }
 
 
@@ -99,7 +98,31 @@ public class MoneyParserImpl implements MoneyParser {
         if (currency == null) throw new NullPointerException( "Missing currency parameter" );
         if (amount == null) throw new NullPointerException( "Missing amount parameter" );
 
-        return parseMoney0( currency, amount, -1 );
+        Money ret = parseSimpleMoney( currency, 0, currency.length(), amount, 0, amount.length());
+
+        return ret != null ? ret : parseMoney0( currency, amount, -1 );
+    }
+
+
+    /**
+     * Parses money from a part of a character sequence.
+     * The valid simple values (e.g. "USD -123.45") are parsed directly from the characters
+     * without creating any intermediate objects. All other values (including the invalid ones)
+     * are passed to the string based parsing, so the results and errors are exactly the same.
+     * @param line the characters containing both currency and amount
+     * @param start the index of the first character (inclusive)
+     * @param end the index of the last character (exclusive)
+     * @param lineNumber the line number or -1 if not applicable
+     * @return the parsed money - always non-null
+     * @throws MoneyParseException when the money cannot be parsed
+     * @throws NullPointerException when the line is null
+     */
+    public Money parseMoney( CharSequence line, int start, int end, int lineNumber ) throws MoneyParseException {
+        if (line == null) throw new NullPointerException( "Missing line parameter" );
+
+        Money ret = parseSimpleMoney( line, start, end );
+
+        return ret != null ? ret : parseMoney0( line.subSequence( start, end ).toString(), lineNumber );
     }
 
 
@@ -127,6 +150,18 @@ public class MoneyParserImpl implements MoneyParser {
     // Private
     ////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Parses money string line using strings and BigDecimal only.
+     */
+    Money parseMoney0( String line, int lineNumber ) throws MoneyParseException {
+        int n = line.indexOf( ' ' );
+
+        if (n == -1) throw new MoneyParseException( "Invalid line format", lineNumber );
+
+        return parseMoney0( line.substring( 0, n ), line.substring( n ), lineNumber );
+    }
+
+
     private Money parseMoney0( String currency, String amount, int lineNumber ) throws MoneyParseException {
         currency = currency.trim();
         amount = amount.trim();
@@ -141,7 +176,9 @@ public class MoneyParserImpl implements MoneyParser {
         }
 
         String canonizedAmount = canonizeDecimalPoints( amount, lineNumber );
-        BigDecimal bd = null;
+        Money money = toCompactMoney( curr, canonizedAmount );
+
+        if (money != null) return money;
 
         try {
             return new Money( curr, new BigDecimal( canonizedAmount ));
@@ -152,6 +189,136 @@ public class MoneyParserImpl implements MoneyParser {
     }
 
 
+    /**
+     * Parses a simple money line "CCC [-]digits[.digits]" directly from the characters.
+     * @return the money or null if the line is not simple or is not valid;
+     *  the caller should use the string based parsing then
+     */
+    Money parseSimpleMoney( CharSequence line, int start, int end ) {
+        int n = start;
+
+        while (n < end && line.charAt( n ) != ' ') n++;
+
+        if (n == end) return null;
+
+        return parseSimpleMoney( line, start, n, line, n, end );
+    }
+
+
+    /**
+     * Parses a simple money from the currency and amount characters.
+     * It follows the rules of canonizeDecimalPoints(): the amount is scaled to exactly
+     * decimalPoints digits and only trailing zeros can exceed them.
+     * @return the money or null if the values are not simple or are not valid;
+     *  the caller should use the string based parsing then
+     */
+    Money parseSimpleMoney( CharSequence currency, int cStart, int cEnd,
+                            CharSequence amount, int aStart, int aEnd ) {
+
+        // trim the same way as String.trim():
+        while (cStart < cEnd && currency.charAt( cStart ) <= ' ') cStart++;
+        while (cStart < cEnd && currency.charAt( cEnd - 1 ) <= ' ') cEnd--;
+        while (aStart < aEnd && amount.charAt( aStart ) <= ' ') aStart++;
+        while (aStart < aEnd && amount.charAt( aEnd - 1 ) <= ' ') aEnd--;
+
+        if (cEnd - cStart != 3) return null;
+
+        int index = Curr.index( currency.charAt( cStart ), currency.charAt( cStart + 1 ), currency.charAt( cStart + 2 ));
+
+        if (index == -1) return null;
+
+        int i = aStart;
+        boolean negative = false;
+
+        if (i < aEnd && amount.charAt( i ) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        int fraction = -1;
+
+        for (; i < aEnd; i++) {
+            char c = amount.charAt( i );
+
+            if (c >= '0' && c <= '9') {
+                digits++;
+
+                if (fraction != -1 && ++fraction > decimalPoints) {
+                    // only trailing zeros can exceed the decimal points:
+                    if (c != '0') return null;
+                    continue;
+                }
+
+                // overflow - let the BigDecimal cope with it:
+                if (value > (Long.MAX_VALUE - 9) / 10) return null;
+
+                value = value * 10 + (c - '0');
+            }
+            else if (c == '.' && fraction == -1) {
+                fraction = 0;
+            }
+            else return null;
+        }
+
+        if (digits == 0) return null;
+
+        int scale = fraction == -1 ? 0 : Math.min( fraction, decimalPoints );
+
+        if (scale < decimalPoints) {
+            value = MoneySum.rescale( value, decimalPoints - scale );
+
+            if (value == Long.MIN_VALUE) return null;
+        }
+
+        return new Money( Curr.getInstance( index ), negative ? -value : value, decimalPoints );
+    }
+
+
+    /**
+     * Converts a simple decimal number "[-]digits[.digits]" directly to a compact money.
+     * @return the money or null if the amount is not a simple number or does not fit into long;
+     *  the caller should use BigDecimal then
+     */
+    static Money toCompactMoney( Curr curr, String amount ) {
+        int len = amount.length();
+        int i = 0;
+        boolean negative = false;
+
+        if (len > 0 && amount.charAt( 0 ) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        int scale = -1;
+
+        for (; i < len; i++) {
+            char c = amount.charAt( i );
+
+            if (c >= '0' && c <= '9') {
+                // overflow - let the BigDecimal cope with it:
+                if (value > (Long.MAX_VALUE - 9) / 10) return null;
+
+                value = value * 10 + (c - '0');
+                digits++;
+
+                if (scale != -1) scale++;
+            }
+            else if (c == '.' && scale == -1) {
+                scale = 0;
+            }
+            else return null;
+        }
+
+        if (digits == 0) return null;
+
+        return new Money( curr, negative ? -value : value, scale != -1 ? scale : 0 );
+    }
+
+
     /**
      * Canonize decimal points.
      * If the value has less decimal points, then additional ones are added.
@@ -0,0 +1,110 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.spoledge.bscexercise.PaymentListener;
+import com.spoledge.bscexercise.PaymentProcessor;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+
+/**
+ * A payment processor which notifies the listeners about the registered payments.
+ * The payments are registered by another processor, the listeners are called
+ * afterwards by the registering thread - outside of any lock of the processor.
+ * <pre>
+ *  NotifyingPaymentProcessorImpl processor = new NotifyingPaymentProcessorImpl( memoryProcessor );
+ *  processor.addPaymentListener( reporter );
+ * </pre>
+ * The implementation is thread-safe.
+ */
+public class NotifyingPaymentProcessorImpl implements PaymentProcessor {
+
+    private final PaymentProcessor paymentProcessor;
+
+    /**
+     * The listeners - changed rarely, iterated on every payment.
+     */
+    private final List<PaymentListener> listeners = new CopyOnWriteArrayList<PaymentListener>();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new processor.
+     * @param paymentProcessor the processor which registers the payments
+     */
+    public NotifyingPaymentProcessorImpl( PaymentProcessor paymentProcessor ) {
+        if (paymentProcessor == null) throw new NullPointerException( "Missing paymentProcessor" );
+
+        this.paymentProcessor = paymentProcessor;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PaymentProcessor
+    ////////////////////////////////////////////////////////////////////////////
+
+    public int registerPayment( Money payment ) {
+        int ret = paymentProcessor.registerPayment( payment );
+
+        for (PaymentListener listener : listeners) {
+            listener.paymentRegistered( payment, ret );
+        }
+
+        return ret;
+    }
+
+
+    public int registerPayments( PaymentBatch batch ) {
+        int ret = paymentProcessor.registerPayments( batch );
+
+        if (!batch.isEmpty()) {
+            for (PaymentListener listener : listeners) {
+                listener.paymentsRegistered( batch, ret );
+            }
+        }
+
+        return ret;
+    }
+
+
+    public Balance getBalance() {
+        return paymentProcessor.getBalance();
+    }
+
+
+    public int getLastTransationId() {
+        return paymentProcessor.getLastTransationId();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the processor which registers the payments.
+     */
+    public PaymentProcessor getPaymentProcessor() {
+        return paymentProcessor;
+    }
+
+
+    public void addPaymentListener( PaymentListener listener ) {
+        if (listener == null) throw new NullPointerException( "Missing listener" );
+
+        listeners.add( listener );
+    }
+
+
+    public void removePaymentListener( PaymentListener listener ) {
+        listeners.remove( listener );
+    }
+
+}
@@ -0,0 +1,411 @@
+package com.spoledge.bscexercise.impl;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.spoledge.bscexercise.PaymentListener;
+import com.spoledge.bscexercise.PaymentStatistics;
+
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
+import com.spoledge.bscexercise.model.PaymentBatch;
+import com.spoledge.bscexercise.model.PaymentFlow;
+
+
+/**
+ * The statistics of the recent payments kept in per-second ring buffers.
+ * It is a listener of the payments (see NotifyingPaymentProcessorImpl).
+ * <p>
+ * Each currency has a ring of maxSeconds buckets - one bucket per second holding
+ * the number of payments, the inflow and the outflow as fixed-point values
+ * of the configured scale. A bucket is reused when its second is older than
+ * the window, so the memory does not depend on the traffic: each currency takes
+ * about 36 bytes per second - 4 longs and 1 int - so about 127 KB with the default
+ * window of 3600 seconds. The buckets are updated lock-free by atomic operations;
+ * only the thread which reuses a bucket waits for the pending updates of the old second
+ * and makes the others wait until it is cleared.
+ * </p>
+ * <p>
+ * The statistics are approximate: the amounts with more decimal places than the scale
+ * are rounded and the batches are pre-aggregated, so a batch counts its net sum
+ * of each currency either as the inflow or as the outflow. The amounts out of the long range
+ * are saturated - the inflow and the outflow stay at the maximal value instead of overflowing.
+ * </p>
+ * The implementation is thread-safe.
+ */
+public class RollingPaymentStatisticsImpl implements PaymentStatistics, PaymentListener {
+
+    /**
+     * The default maximal time window - one hour.
+     */
+    public static final int DEFAULT_MAX_SECONDS = 3600;
+
+    /**
+     * The second of a bucket which is being cleared.
+     */
+    private static final long CLEARING = Long.MIN_VALUE;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The buckets of one currency.
+     */
+    static final class Ring {
+        final Curr currency;
+
+        /**
+         * The second of each bucket - the values of a bucket belong to this second.
+         */
+        final AtomicLongArray seconds;
+        final AtomicLongArray counts;
+        final AtomicLongArray inflows;
+        final AtomicLongArray outflows;
+
+        /**
+         * The number of threads updating each bucket - the bucket is not cleared until they finish.
+         */
+        final AtomicIntegerArray writers;
+
+        Ring( Curr currency, int size ) {
+            this.currency = currency;
+            this.seconds = new AtomicLongArray( size );
+            this.counts = new AtomicLongArray( size );
+            this.inflows = new AtomicLongArray( size );
+            this.outflows = new AtomicLongArray( size );
+            this.writers = new AtomicIntegerArray( size );
+
+            for (int i=0; i < size; i++) seconds.set( i, -1 );
+        }
+
+        void add( long second, long count, long value ) {
+            int i = (int) (second % seconds.length());
+
+            while (true) {
+                writers.incrementAndGet( i );
+
+                long s = seconds.get( i );
+
+                if (s == second) {
+                    // the bucket cannot be reused until the writers are done:
+                    counts.addAndGet( i, count );
+
+                    if (value > 0) addSaturated( inflows, i, value );
+                    else if (value < 0) addSaturated( outflows, i, value );
+
+                    writers.decrementAndGet( i );
+                    return;
+                }
+
+                writers.decrementAndGet( i );
+
+                // a late update of a bucket which has been already reused - ignore it:
+                if (s > second) return;
+
+                if (s != CLEARING && seconds.compareAndSet( i, s, CLEARING )) {
+                    // wait for the updates of the old second:
+                    while (writers.get( i ) != 0) Thread.yield();
+
+                    counts.set( i, 0 );
+                    inflows.set( i, 0 );
+                    outflows.set( i, 0 );
+                    seconds.set( i, second );
+                }
+                else {
+                    // other thread is clearing the bucket:
+                    Thread.yield();
+                }
+            }
+        }
+
+        /**
+         * Sums the buckets of the seconds from (second - n) exclusive to second inclusive.
+         * @param out the output - count, inflow and outflow
+         */
+        void sum( long second, int n, long[] out ) {
+            out[ 0 ] = out[ 1 ] = out[ 2 ] = 0;
+
+            for (int i=0; i < seconds.length(); i++) {
+                long s = seconds.get( i );
+
+                if (s <= second - n || s > second) continue;
+
+                long count = counts.get( i );
+                long inflow = inflows.get( i );
+                long outflow = outflows.get( i );
+
+                // the bucket has been reused meanwhile:
+                if (seconds.get( i ) != s) continue;
+
+                out[ 0 ] += count;
+                out[ 1 ] = saturatedAdd( out[ 1 ], inflow );
+                out[ 2 ] = saturatedAdd( out[ 2 ], outflow );
+            }
+        }
+
+        /**
+         * Adds the value to the element - saturated instead of overflowing.
+         */
+        private static void addSaturated( AtomicLongArray array, int i, long value ) {
+            while (true) {
+                long current = array.get( i );
+                long updated = saturatedAdd( current, value );
+
+                if (updated == current || array.compareAndSet( i, current, updated )) return;
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private final int maxSeconds;
+    private final int scale;
+
+    /**
+     * The rings indexed by the currency index - created on the first payment.
+     */
+    private final AtomicReferenceArray<Ring> rings = new AtomicReferenceArray<Ring>( Curr.INDEX_COUNT );
+
+    /**
+     * All created rings sorted by the currency index - copy on write, guarded by rings.
+     */
+    private volatile Ring[] allRings = new Ring[ 0 ];
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates new statistics of the last hour with the default scale.
+     */
+    public RollingPaymentStatisticsImpl() {
+        this( DEFAULT_MAX_SECONDS, ConcurrentPaymentProcessorImpl.DEFAULT_SCALE );
+    }
+
+
+    /**
+     * Creates new statistics.
+     * @param maxSeconds the maximal time window - the number of buckets of each currency
+     * @param scale the scale of the amounts (typically the number of decimal points of the money parser)
+     */
+    public RollingPaymentStatisticsImpl( int maxSeconds, int scale ) {
+        if (maxSeconds < 1) throw new IllegalArgumentException( "Invalid maxSeconds " + maxSeconds );
+        if (scale < 0) throw new IllegalArgumentException( "Negative scale" );
+
+        this.maxSeconds = maxSeconds;
+        this.scale = scale;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PaymentListener
+    ////////////////////////////////////////////////////////////////////////////
+
+    public void paymentRegistered( Money payment, int transactionId ) {
+        long value = payment.isCompact() ? toUnscaled( payment.getUnscaledAmount(), payment.getScale())
+                                         : Long.MIN_VALUE;
+
+        if (value == Long.MIN_VALUE) value = toUnscaled( payment.getAmount());
+
+        getRing( payment.getCurrency()).add( currentSecond(), 1, value );
+    }
+
+
+    public void paymentsRegistered( PaymentBatch batch, int firstTransactionId ) {
+        long second = currentSecond();
+
+        for (int i=0; i < batch.getCurrencyCount(); i++) {
+            MoneySum sum = batch.getSum( i );
+            long value = sum.isCompact() ? toUnscaled( sum.getUnscaledAmount(), sum.getScale())
+                                         : Long.MIN_VALUE;
+
+            if (value == Long.MIN_VALUE) value = toUnscaled( sum.getAmount());
+
+            getRing( sum.getCurrency()).add( second, batch.getCount( i ), value );
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // PaymentStatistics
+    ////////////////////////////////////////////////////////////////////////////
+
+    public int getMaxSeconds() {
+        return maxSeconds;
+    }
+
+
+    public PaymentFlow getFlow( Curr currency, int seconds ) {
+        checkSeconds( seconds );
+
+        Ring ring = rings.get( currency.getIndex());
+
+        if (ring == null) return new PaymentFlow( currency, seconds, 0, zero( currency ), zero( currency ));
+
+        long[] sums = new long[ 3 ];
+        ring.sum( currentSecond(), seconds, sums );
+
+        return toFlow( currency, seconds, sums );
+    }
+
+
+    public List<PaymentFlow> getFlows( int seconds ) {
+        checkSeconds( seconds );
+
+        long second = currentSecond();
+        Ring[] all = allRings;
+        ArrayList<PaymentFlow> ret = new ArrayList<PaymentFlow>( all.length );
+        long[] sums = new long[ 3 ];
+
+        for (Ring ring : all) {
+            ring.sum( second, seconds, sums );
+
+            if (sums[ 0 ] != 0) ret.add( toFlow( ring.currency, seconds, sums ));
+        }
+
+        return ret;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the scale of the amounts.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the current time in seconds.
+     */
+    protected long currentSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void checkSeconds( int seconds ) {
+        if (seconds < 1 || seconds > maxSeconds) {
+            throw new IllegalArgumentException( "Invalid time window " + seconds + " - must be from 1 to " + maxSeconds );
+        }
+    }
+
+
+    /**
+     * Converts the compact value to the scale of the statistics.
+     * @return the value or Long.MIN_VALUE if it cannot be converted exactly
+     */
+    private long toUnscaled( long value, int valueScale ) {
+        if (valueScale > scale || value == Long.MIN_VALUE) return Long.MIN_VALUE;
+
+        return valueScale == scale ? value : MoneySum.rescale( value, scale - valueScale );
+    }
+
+
+    /**
+     * Converts the amount to the scale of the statistics - rounded and limited to the long range.
+     */
+    private long toUnscaled( BigDecimal amount ) {
+        BigDecimal value = amount.setScale( scale, RoundingMode.HALF_UP );
+
+        if (value.unscaledValue().bitLength() < 64) return value.unscaledValue().longValue();
+
+        return value.signum() > 0 ? Long.MAX_VALUE : -Long.MAX_VALUE;
+    }
+
+
+    /**
+     * Adds two values - limited to the range from -Long.MAX_VALUE to Long.MAX_VALUE
+     * (the same as the converted amounts).
+     */
+    private static long saturatedAdd( long a, long b ) {
+        long ret = a + b;
+
+        // overflow when both values have the same sign and the result has the other one:
+        if (((a ^ ret) & (b ^ ret)) < 0 || ret == Long.MIN_VALUE) return a < 0 ? -Long.MAX_VALUE : Long.MAX_VALUE;
+
+        return ret;
+    }
+
+
+    private PaymentFlow toFlow( Curr currency, int seconds, long[] sums ) {
+        return new PaymentFlow( currency, seconds, sums[ 0 ],
+                                new Money( currency, sums[ 1 ], scale ),
+                                new Money( currency, sums[ 2 ], scale ));
+    }
+
+
+    private Money zero( Curr currency ) {
+        return new Money( currency, 0, scale );
+    }
+
+
+    /**
+     * Returns the ring of the currency - creates a new one if not exists yet.
+     */
+    private Ring getRing( Curr currency ) {
+        int index = currency.getIndex();
+        Ring ret = rings.get( index );
+
+        if (ret == null) {
+            Ring created = new Ring( currency, maxSeconds );
+
+            if (rings.compareAndSet( index, null, created )) {
+                addSorted( created );
+                ret = created;
+            }
+            else {
+                ret = rings.get( index );
+            }
+        }
+
+        return ret;
+    }
+
+
+    /**
+     * Inserts the ring to the sorted array of all rings.
+     * New currencies are rare, so the copying does not matter.
+     */
+    private void addSorted( Ring ring ) {
+        synchronized (rings) {
+            Ring[] all = allRings;
+            int pos = 0;
+
+            while (pos < all.length && all[ pos ].currency.getIndex() < ring.currency.getIndex()) pos++;
+
+            Ring[] updated = new Ring[ all.length + 1 ];
+
+            System.arraycopy( all, 0, updated, 0, pos );
+            updated[ pos ] = ring;
+            System.arraycopy( all, pos, updated, pos + 1, all.length - pos );
+
+            allRings = updated;
+        }
+    }
+
+}
@@ -1,32 +1,117 @@
 package com.spoledge.bscexercise.impl;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.spoledge.bscexercise.CurrencyConverter;
 import com.spoledge.bscexercise.PaymentProcessor;
 import com.spoledge.bscexercise.PaymentReporter;
+import com.spoledge.bscexercise.PaymentStatistics;
+import com.spoledge.bscexercise.ReportSink;
 
 import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.ConvertedBalance;
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
+import com.spoledge.bscexercise.model.PaymentFlow;
 
 
 /**
  * An implementation of the PaymentReporter which generates the report as a plain text.
+ * <p>
+ * The balance lines of the last report are kept as one text and the formatted lines
+ * and the conversions are cached per currency. A line is recomputed and spliced into the text
+ * only when the version of its balance (see Balance.getVersion()) has changed since the last report.
+ * The total in the target currency is kept as a running sum of the converted lines.
+ * When no transaction was registered and the rates did not change, then the balance
+ * is not obtained at all and the previous text is reused.
+ * </p>
+ * <p>
+ * When the payment statistics are set, then the report ends with the flows
+ * of the currencies during the statistics window, e.g. "Flow 60s USD 3 payments, in 10.00, out -2.00".
+ * </p>
  */
 public class SimplePaymentReporterImpl extends AbstractPaymentReporterImpl {
 
     public static final String NL = System.getProperty( "line.separator" );
 
 
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A cached report line of one currency.
+     * It is valid while the version of the balance is the same.
+     */
+    private static final class Line {
+        final Money money;
+        final long version;
+
+        /**
+         * The line this one replaces or null.
+         */
+        Line previous;
+
+        Money converted;
+
+        /**
+         * The text including the line separator - empty for the zero balance.
+         */
+        String text;
+
+        Line( Money money, long version, Line previous ) {
+            this.money = money;
+            this.version = version;
+            this.previous = previous;
+        }
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Attributes
     ////////////////////////////////////////////////////////////////////////////
 
-    private PrintWriter out;
-    private PaymentProcessor paymentProcessor;
-    private CurrencyConverter currencyConverter;
+    private ReportSink reportSink;
+
+    /**
+     * The cached report lines indexed by the currency index - guarded by itself
+     * as well as all the cached data below.
+     */
+    private final Line[] lines = new Line[ Curr.INDEX_COUNT ];
 
+    /**
+     * The text of the balance lines sorted by the currency code.
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * The text of the totals.
+     */
+    private String totalsText = "";
+
+    /**
+     * The cache keys - the cache is cleared when the processor, the converter
+     * or the rates are changed.
+     */
+    private PaymentProcessor cachedProcessor;
+    private CurrencyConverter cachedConverter;
+    private long cachedRatesVersion;
+    private List<Curr> cachedTotalCurrencies;
+    private int cachedTransationId = -1;
+
+    /**
+     * The running sum of the converted lines in the target currency and the number of lines without a rate.
+     */
+    private MoneySum targetTotal;
+    private int missingCount;
+
+    private volatile long recomputedLines;
 
     ////////////////////////////////////////////////////////////////////////////
     // Constructors
@@ -36,7 +121,7 @@ public class SimplePaymentReporterImpl extends AbstractPaymentReporterImpl {
      * Creates a new reporter which reports to the standard out.
      */
     public SimplePaymentReporterImpl() {
-        this( null );
+        this( (PrintWriter) null );
     }
 
 
@@ -45,51 +130,74 @@ public class SimplePaymentReporterImpl extends AbstractPaymentReporterImpl {
      * @param out the output writer; if null then the system out is used
      */
     public SimplePaymentReporterImpl( PrintWriter out ) {
-        this.out = out != null ? out : new PrintWriter( System.out );
+        this( new WriterReportSinkImpl( out ));
+    }
+
+
+    /**
+     * Creates a new reporter.
+     * @param reportSink the output of the reports
+     */
+    public SimplePaymentReporterImpl( ReportSink reportSink ) {
+        if (reportSink == null) throw new NullPointerException( "Missing reportSink" );
+
+        this.reportSink = reportSink;
     }
 
 
     ////////////////////////////////////////////////////////////////////////////
-    // PaymentReporter
+    // AbstractPaymentReporterImpl
     ////////////////////////////////////////////////////////////////////////////
 
     /**
-     * Generates a new payment report.
-     * This method can be called explicitly even when the automatic reporting is enabled.
+     * Writes a new payment report.
      */
-    public void generatePaymentReport() {
+    protected void writePaymentReport() {
         PaymentProcessor pp = this.paymentProcessor;
         CurrencyConverter cc = this.currencyConverter;
-        Curr targetCurrency = cc != null ? cc.getTargetCurrency() : null;
+        List<Curr> totalCurrs = this.totalCurrencies;
 
         if (pp == null) {
             log.error( "PaymentProcessor not set, cannot obtain data." );
             return;
         }
 
-        Balance balance = pp.getBalance();
-        String sLastTransationId = String.valueOf( balance.getLastTransationId());
+        // read the rates version before converting - a concurrent change makes it stale, never missed:
+        long ratesVersion = cc != null ? cc.getRatesVersion() : -1;
+        StringBuilder sb;
+        String sLastTransationId;
 
-        StringBuilder sb = new StringBuilder();
-        sb.append( NL );
-        sb.append( "---- Report after tx[" ).append( sLastTransationId ).append( "] ----" );
-        sb.append( NL );
+        synchronized (lines) {
+            if (pp != cachedProcessor || cc != cachedConverter || ratesVersion != cachedRatesVersion) {
+                clearCache( pp, cc, ratesVersion );
+            }
 
-        for (Money money : sortByCurrencyCode( balance.getAllMoney())) {
-            if (!money.isZero()) {
-                sb.append( money );
+            if (pp.getLastTransationId() != cachedTransationId || totalCurrs != cachedTotalCurrencies) {
+                Balance balance = pp.getBalance();
 
-                if (cc != null && money.getCurrency() != targetCurrency) {
-                    Money converted = cc.convertMoney( money );
-                    sb.append( " (" );
+                updateLines( balance, cc );
+                totalsText = formatTotals( balance, cc, totalCurrs );
+                cachedTransationId = balance.getLastTransationId();
+                cachedTotalCurrencies = totalCurrs;
+            }
 
-                    if (converted != null) sb.append( converted );
-                    else sb.append( targetCurrency ).append( " ???" );
+            sLastTransationId = String.valueOf( cachedTransationId );
+            sb = new StringBuilder( text.length() + totalsText.length() + 128 );
 
-                    sb.append( ')' );
-                }
+            sb.append( NL );
+            sb.append( "---- Report after tx[" ).append( sLastTransationId ).append( "] ----" );
+            sb.append( NL );
+            sb.append( text );
+            sb.append( totalsText );
+        }
+
+        PaymentStatistics ps = this.paymentStatistics;
+
+        if (ps != null) {
+            int seconds = Math.min( statisticsSeconds, ps.getMaxSeconds());
 
-                sb.append( NL );
+            for (PaymentFlow flow : ps.getFlows( seconds )) {
+                sb.append( "Flow " ).append( seconds ).append( "s " ).append( flow ).append( NL );
             }
         }
 
@@ -99,11 +207,15 @@ public class SimplePaymentReporterImpl extends AbstractPaymentReporterImpl {
 
         String report = sb.toString();
 
-        log.info( "Generating report:" + report );
+        if (log.isDebugEnabled()) log.debug( "Generating report:" + report );
 
-        // we print it at once, so underlying synchronization avoid mixing report messages together:
-        out.print( report );
-        out.flush();
+        // we pass it at once, so the sink does not mix report messages together:
+        try {
+            reportSink.write( report );
+        }
+        catch (IOException e) {
+            log.error( "Cannot write the report: " + e );
+        }
     }
 
 
@@ -111,21 +223,191 @@ public class SimplePaymentReporterImpl extends AbstractPaymentReporterImpl {
     // Public
     ////////////////////////////////////////////////////////////////////////////
 
-    public PaymentProcessor getPaymentProcessor() {
-        return paymentProcessor;
+    public ReportSink getReportSink() {
+        return reportSink;
     }
 
-    public void setPaymentProcessor( PaymentProcessor paymentProcessor ) {
-        this.paymentProcessor = paymentProcessor;
+    public void setReportSink( ReportSink reportSink ) {
+        if (reportSink == null) throw new NullPointerException( "Missing reportSink" );
+
+        this.reportSink = reportSink;
     }
 
 
-    public CurrencyConverter getCurrencyConverter() {
-        return currencyConverter;
+    /**
+     * Returns the number of report lines recomputed so far.
+     * The lines of the currencies which did not change since the last report are reused.
+     */
+    public long getRecomputedLines() {
+        return recomputedLines;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Clears all cached lines - called under the lock of lines.
+     */
+    private void clearCache( PaymentProcessor pp, CurrencyConverter cc, long ratesVersion ) {
+        Arrays.fill( lines, null );
+        text.setLength( 0 );
+        totalsText = "";
+
+        cachedProcessor = pp;
+        cachedConverter = cc;
+        cachedRatesVersion = ratesVersion;
+        cachedTotalCurrencies = null;
+        cachedTransationId = -1;
+
+        targetTotal = cc != null ? new MoneySum( cc.getTargetCurrency()) : null;
+        missingCount = 0;
     }
 
-    public void setCurrencyConverter( CurrencyConverter currencyConverter ) {
-        this.currencyConverter = currencyConverter;
+
+    /**
+     * Finds the changed balance items, recomputes their lines and splices them into the text.
+     * All changed items are converted at once. Must be called under the lock of lines.
+     */
+    private void updateLines( Balance balance, CurrencyConverter cc ) {
+        List<Money> list = balance.getAllMoney();
+        Curr targetCurrency = cc != null ? cc.getTargetCurrency() : null;
+
+        ArrayList<Money> dirty = new ArrayList<Money>();
+        ArrayList<Line> dirtyLines = new ArrayList<Line>();
+
+        for (int i=0; i < list.size(); i++) {
+            Money money = list.get( i );
+            long version = balance.getVersion( i );
+            int index = money.getCurrency().getIndex();
+            Line line = lines[ index ];
+
+            if (line == null || version == -1 || line.version != version) {
+                line = new Line( money, version, line );
+                lines[ index ] = line;
+
+                if (cc != null && money.getCurrency() != targetCurrency) {
+                    dirty.add( money );
+                }
+
+                dirtyLines.add( line );
+            }
+        }
+
+        if (dirtyLines.isEmpty()) return;
+
+        if (!dirty.isEmpty()) {
+            // a subset of the sorted balance is sorted as well:
+            ConvertedBalance cb = cc.convertBalance( new Balance( balance.getLastTransationId(), dirty ));
+
+            for (int i=0; i < dirty.size(); i++) {
+                lines[ dirty.get( i ).getCurrency().getIndex() ].converted = cb.getConverted( i );
+            }
+        }
+
+        for (Line line : dirtyLines) {
+            StringBuilder sb = new StringBuilder();
+            sb.append( line.money );
+
+            if (cc != null) {
+                if (line.money.getCurrency() == targetCurrency) {
+                    line.converted = line.money;
+                }
+                else {
+                    sb.append( " (" );
+
+                    if (line.converted != null) sb.append( line.converted );
+                    else sb.append( targetCurrency ).append( " ???" );
+
+                    sb.append( ')' );
+                }
+
+                updateTotal( line );
+            }
+
+            line.text = line.money.isZero() ? "" : sb.append( NL ).toString();
+        }
+
+        spliceLines( list, dirtyLines );
+
+        recomputedLines += dirtyLines.size();
+    }
+
+
+    /**
+     * Replaces the converted value of the previous line by the new one in the running total.
+     */
+    private void updateTotal( Line line ) {
+        Line previous = line.previous;
+
+        if (previous != null) {
+            if (previous.converted != null) targetTotal.add( previous.converted.getAmount().negate());
+            else missingCount--;
+        }
+
+        if (line.converted != null) targetTotal.add( line.converted );
+        else missingCount++;
+    }
+
+
+    /**
+     * Replaces the texts of the previous lines by the texts of the dirty lines.
+     * @param list the balance items
+     * @param dirtyLines the dirty lines in the order of the balance items
+     */
+    private void spliceLines( List<Money> list, List<Line> dirtyLines ) {
+        int pos = 0;
+        int d = 0;
+
+        for (int i=0; i < list.size(); i++) {
+            Line line = lines[ list.get( i ).getCurrency().getIndex() ];
+
+            if (line == dirtyLines.get( d )) {
+                int length = line.previous != null ? line.previous.text.length() : 0;
+
+                text.replace( pos, pos + length, line.text );
+                line.previous = null;
+
+                if (++d == dirtyLines.size()) break;
+            }
+
+            pos += line.text.length();
+        }
+    }
+
+
+    /**
+     * Formats the totals in the total currencies.
+     */
+    private String formatTotals( Balance balance, CurrencyConverter cc, List<Curr> totalCurrs ) {
+        if (cc == null || totalCurrs.isEmpty()) return "";
+
+        StringBuilder sb = new StringBuilder();
+
+        for (Curr curr : totalCurrs) {
+            ConvertedBalance total = curr == cc.getTargetCurrency()
+                                        ? sumConverted( cc, balance )
+                                        : cc.convertBalance( balance, curr );
+
+            sb.append( "Total " ).append( total.getTotal());
+
+            if (!total.isComplete()) {
+                sb.append( " (without " ).append( total.getMissingCount()).append( " unknown currencies)" );
+            }
+
+            sb.append( NL );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * Returns the running total of the converted lines in the target currency.
+     */
+    private ConvertedBalance sumConverted( CurrencyConverter cc, Balance balance ) {
+        return new ConvertedBalance( balance, cc.getTargetCurrency(), cc.round( targetTotal.toMoney()), missingCount );
     }
 
 }
@@ -0,0 +1,666 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.spoledge.bscexercise.Controller;
+import com.spoledge.bscexercise.CurrencyConverter;
+import com.spoledge.bscexercise.MoneyParseException;
+import com.spoledge.bscexercise.MoneyParser;
+import com.spoledge.bscexercise.PaymentProcessor;
+import com.spoledge.bscexercise.PaymentReporter;
+
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+
+import com.spoledge.bscexercise.util.ByteCharSequence;
+import com.spoledge.bscexercise.util.ReportBuffer;
+import com.spoledge.bscexercise.util.SharedScheduler;
+
+
+/**
+ * A controller which accepts the payments from TCP connections.
+ * It listens on a local port and serves all connections by one thread
+ * using a non-blocking selector, so many feeders can send the payments concurrently.
+ * <p>
+ * The protocol is the same as of the command line: one payment ("USD 100")
+ * or command ("report", "forex CUR AMOUNT [TARGET]", "help", "quit") per line.
+ * Each line is answered by one line starting with "&gt;&gt; ". The payments are parsed
+ * directly from the receive buffer and the answers of all lines received at once
+ * are sent by one write, so the feeders can pipeline the lines without waiting
+ * for the answers. While the answers cannot be sent, no more lines of the connection are read.
+ * </p>
+ * <p>
+ * The 'report' command does not block the selector thread: the report is generated
+ * by the executor and the command is answered immediately. The report commands received
+ * before the scheduled report starts are served by it.
+ * </p>
+ * <p>
+ * The controller does not start nor stop the automatic reporting - it is intended to run
+ * beside the command line controller which does it.
+ * </p>
+ * <pre>
+ *  TcpControllerImpl tcp = new TcpControllerImpl( 7000 );
+ *  tcp.setPaymentProcessor( processor );
+ *  tcp.setMoneyParser( parser );
+ *  tcp.start();
+ * </pre>
+ */
+public class TcpControllerImpl implements Runnable, Controller {
+
+    /**
+     * The default size of the receive buffer of one connection - the maximal line length.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final Log log = LogFactory.getLog( TcpControllerImpl.class );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The state of one connection.
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer in;
+        final ReportBuffer out = new ReportBuffer();
+
+        /**
+         * The answers not sent yet or null.
+         */
+        ByteBuffer pending;
+
+        /**
+         * The connection is closed when all answers are sent.
+         */
+        boolean closing;
+
+        /**
+         * The end of the input has been reached.
+         */
+        boolean eof;
+
+        /**
+         * The answers have been sent and the output shut down - the rest of the input is discarded
+         * until the feeder closes the connection (so the answers are not lost by a reset).
+         */
+        boolean draining;
+
+        /**
+         * The connection has been closed and counted off.
+         */
+        boolean closed;
+
+        Connection( SocketChannel channel ) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocateDirect( bufferSize );
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private PaymentProcessor paymentProcessor;
+    private PaymentReporter paymentReporter;
+    private CurrencyConverter currencyConverter;
+    private MoneyParser moneyParser;
+
+    private final int port;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+
+    private Thread thread;
+    private volatile boolean running;
+    private final Object lockThread = new Object();
+
+    private volatile int connectionCount;
+
+    /**
+     * The reused view of the received lines - used by the selector thread only.
+     */
+    private final ByteCharSequence seq = new ByteCharSequence();
+
+    private Executor executor = SharedScheduler.getInstance();
+
+    /**
+     * A report is scheduled and has not started yet.
+     */
+    private final AtomicBoolean reportScheduled = new AtomicBoolean();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new controller.
+     * @param port the local port; 0 means any free port (see getLocalPort())
+     */
+    public TcpControllerImpl( int port ) {
+        if (port < 0 || port > 0xffff) throw new IllegalArgumentException( "Invalid port " + port );
+
+        this.port = port;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Controller
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Starts listening.
+     * @throws IllegalStateException when already started
+     * @throws RuntimeException when the port cannot be opened
+     */
+    public void start() {
+        if (paymentProcessor == null || moneyParser == null) {
+            throw new RuntimeException( "Components not initialized correctly" );
+        }
+
+        synchronized (lockThread) {
+            if (thread != null) throw new IllegalStateException( "Already started" );
+
+            try {
+                selector = Selector.open();
+                server = ServerSocketChannel.open();
+                server.configureBlocking( false );
+                server.socket().setReuseAddress( true );
+                server.socket().bind( new InetSocketAddress( InetAddress.getByName( null ), port ));
+                server.register( selector, SelectionKey.OP_ACCEPT );
+            }
+            catch (IOException e) {
+                closeQuietly();
+                throw new RuntimeException( "Cannot listen on port " + port + ": " + e, e );
+            }
+
+            running = true;
+
+            thread = new Thread( this, "TcpController" );
+            thread.setDaemon( true );
+            thread.start();
+
+            log.info( "Listening on port " + getLocalPort());
+        }
+    }
+
+
+    /**
+     * Stops listening and closes all connections.
+     * It waits until the connections are closed.
+     */
+    public void stop() {
+        Thread t;
+
+        synchronized (lockThread) {
+            t = thread;
+            if (t == null) return;
+
+            thread = null;
+            running = false;
+            selector.wakeup();
+        }
+
+        if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                log.warn( "Interrupted while stopping" );
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Runnable
+    ////////////////////////////////////////////////////////////////////////////
+
+    public void run() {
+        log.info( "Selector loop started." );
+
+        try {
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Connection conn = (Connection) key.attachment();
+
+                        try {
+                            if (key.isWritable()) write( key, conn );
+                            else if (key.isReadable()) read( key, conn );
+                        }
+                        catch (IOException e) {
+                            log.warn( "Connection failed: " + e );
+                            close( key, conn );
+                        }
+                        catch (RuntimeException e) {
+                            // only this connection is affected - the others are still served:
+                            log.error( "Connection failed: " + e, e );
+                            close( key, conn );
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            log.error( "Selector failed, aborting: ", e );
+        }
+        finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) close( key, (Connection) key.attachment());
+            }
+
+            closeQuietly();
+        }
+
+        log.info( "Selector loop stopped." );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the port the controller listens on or -1 if not started.
+     */
+    public int getLocalPort() {
+        ServerSocketChannel s = server;
+
+        return s != null ? s.socket().getLocalPort() : -1;
+    }
+
+
+    /**
+     * Returns the number of the open connections.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the size of the receive buffer of each connection - the maximal length of a line.
+     * The change takes effect for the next connections.
+     */
+    public void setBufferSize( int bufferSize ) {
+        if (bufferSize < 16) throw new IllegalArgumentException( "Too small bufferSize " + bufferSize );
+
+        this.bufferSize = bufferSize;
+    }
+
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor which generates the reports requested by the 'report' command.
+     * By default the shared executor is used.
+     */
+    public void setExecutor( Executor executor ) {
+        this.executor = executor;
+    }
+
+
+    public PaymentProcessor getPaymentProcessor() {
+        return paymentProcessor;
+    }
+
+    public void setPaymentProcessor( PaymentProcessor paymentProcessor ) {
+        this.paymentProcessor = paymentProcessor;
+    }
+
+
+    public PaymentReporter getPaymentReporter() {
+        return paymentReporter;
+    }
+
+    /**
+     * Sets the reporter used by the 'report' command - optional.
+     */
+    public void setPaymentReporter( PaymentReporter paymentReporter ) {
+        this.paymentReporter = paymentReporter;
+    }
+
+
+    public CurrencyConverter getCurrencyConverter() {
+        return currencyConverter;
+    }
+
+    public void setCurrencyConverter( CurrencyConverter currencyConverter ) {
+        this.currencyConverter = currencyConverter;
+    }
+
+
+    public MoneyParser getMoneyParser() {
+        return moneyParser;
+    }
+
+    public void setMoneyParser( MoneyParser moneyParser ) {
+        this.moneyParser = moneyParser;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Protected
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Processes one command line (not a payment).
+     * @param line the trimmed line
+     * @param out the output for the answer
+     * @return false if the connection should be closed
+     */
+    protected boolean processCommandLine( String line, ReportBuffer out ) {
+        String[] args = line.split( "\\s+" );
+        String cmd = args[ 0 ];
+
+        if ("quit".equals( cmd )) {
+            answer( out, "Bye!" );
+            return false;
+        }
+        else if ("report".equals( cmd )) {
+            PaymentReporter pr = paymentReporter;
+
+            if (pr != null) answer( out, scheduleReport( pr ) ? "Report scheduled" : "ERROR - cannot schedule report" );
+            else answer( out, "ERROR - no reporter" );
+        }
+        else if ("forex".equals( cmd )) {
+            answer( out, forex( args ));
+        }
+        else if ("help".equals( cmd )) {
+            answer( out, "Commands: CUR AMOUNT | report | forex CUR AMOUNT [TARGET] | help | quit" );
+        }
+        else {
+            answer( out, "ERROR - unknown command '" + line + "'" );
+        }
+
+        return true;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Schedules a report unless one is already scheduled and not started yet.
+     * @return false if the executor rejected the report
+     */
+    private boolean scheduleReport( final PaymentReporter pr ) {
+        if (!reportScheduled.compareAndSet( false, true )) return true;
+
+        try {
+            executor.execute( new Runnable() {
+                public void run() {
+                    reportScheduled.set( false );
+
+                    try {
+                        pr.generatePaymentReport();
+                    }
+                    catch (RuntimeException e) {
+                        log.error( "Cannot generate report: " + e, e );
+                    }
+                }
+            });
+
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            reportScheduled.set( false );
+            log.error( "Cannot schedule report: " + e );
+
+            return false;
+        }
+    }
+
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+
+        if (channel == null) return;
+
+        channel.configureBlocking( false );
+        channel.socket().setTcpNoDelay( true );
+        channel.register( selector, SelectionKey.OP_READ, new Connection( channel ));
+        connectionCount++;
+
+        if (log.isDebugEnabled()) log.debug( "Accepted " + channel.socket().getRemoteSocketAddress());
+    }
+
+
+    /**
+     * Reads the available data and processes all complete lines.
+     */
+    private void read( SelectionKey key, Connection conn ) throws IOException {
+        ByteBuffer in = conn.in;
+        int n = conn.channel.read( in );
+
+        if (conn.draining) {
+            in.clear();
+            if (n == -1) close( key, conn );
+            return;
+        }
+
+        if (n == -1) {
+            // the last line does not need to be terminated:
+            if (in.position() > 0) processLine( conn, 0, in.position());
+
+            in.clear();
+            conn.eof = true;
+            conn.closing = true;
+        }
+        else {
+            int end = in.position();
+            int lineStart = 0;
+
+            for (int i=0; i < end && !conn.closing; i++) {
+                if (in.get( i ) == '\n') {
+                    processLine( conn, lineStart, i );
+                    lineStart = i + 1;
+                }
+            }
+
+            if (conn.closing) {
+                in.clear();
+            }
+            else if (lineStart == 0 && end == in.capacity()) {
+                answer( conn.out, "ERROR - line too long" );
+                in.clear();
+                conn.closing = true;
+            }
+            else {
+                // keep the incomplete line:
+                in.limit( end );
+                in.position( lineStart );
+                in.compact();
+            }
+        }
+
+        flush( key, conn );
+    }
+
+
+    /**
+     * Processes one line and writes the answer to the output of the connection.
+     * @param start the index of the first byte of the line
+     * @param end the index of the line terminator
+     */
+    private void processLine( Connection conn, int start, int end ) {
+        ByteBuffer in = conn.in;
+
+        // trim including "\r":
+        while (start < end && (in.get( start ) & 0xff) <= ' ') start++;
+        while (end > start && (in.get( end - 1 ) & 0xff) <= ' ') end--;
+
+        if (start == end) return;
+
+        byte first = in.get( start );
+
+        // the commands are lower case, the currency codes upper case:
+        if (first < 'a' || first > 'z') {
+            seq.set( in, start, end );
+
+            try {
+                Money money = moneyParser.parseMoney( seq, 0, seq.length(), -1 );
+                int txId = paymentProcessor.registerPayment( money );
+
+                conn.out.append( ">> Registered payment " ).append( money.getCurrency().getCurrencyCode())
+                        .append( ' ' ).appendAmount( money ).append( " as tx[" ).append( txId ).append( "]\n" );
+            }
+            catch (MoneyParseException e) {
+                answer( conn.out, "ERROR - invalid payment format: " + e.getMessage());
+            }
+            catch (RuntimeException e) {
+                log.error( "Cannot register payment: " + e, e );
+                answer( conn.out, "ERROR - cannot register payment: " + e.getMessage());
+            }
+        }
+        else {
+            seq.set( in, start, end );
+
+            try {
+                if (!processCommandLine( seq.toString(), conn.out )) conn.closing = true;
+            }
+            catch (RuntimeException e) {
+                log.error( "Cannot process command: " + e, e );
+                answer( conn.out, "ERROR - " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Sends the answers - if they cannot be sent at once, then the reading is suspended.
+     */
+    private void flush( SelectionKey key, Connection conn ) throws IOException {
+        if (conn.out.length() > 0) {
+            conn.pending = ByteBuffer.wrap( conn.out.array(), 0, conn.out.length());
+        }
+
+        write( key, conn );
+    }
+
+
+    private void write( SelectionKey key, Connection conn ) throws IOException {
+        if (conn.pending != null) {
+            conn.channel.write( conn.pending );
+
+            if (conn.pending.hasRemaining()) {
+                key.interestOps( SelectionKey.OP_WRITE );
+                return;
+            }
+
+            conn.pending = null;
+            conn.out.clear();
+        }
+
+        if (conn.closing && conn.eof) {
+            close( key, conn );
+        }
+        else if (conn.closing) {
+            conn.channel.socket().shutdownOutput();
+            conn.draining = true;
+            key.interestOps( SelectionKey.OP_READ );
+        }
+        else key.interestOps( SelectionKey.OP_READ );
+    }
+
+
+    /**
+     * Closes the connection - only once, it can be called again by the final cleanup.
+     */
+    private void close( SelectionKey key, Connection conn ) {
+        if (conn.closed) return;
+
+        conn.closed = true;
+        key.cancel();
+
+        try {
+            conn.channel.close();
+        }
+        catch (IOException e) {
+            log.warn( "Cannot close connection: " + e );
+        }
+
+        connectionCount--;
+    }
+
+
+    private String forex( String[] args ) {
+        if (args.length < 3 || args.length > 4) return "ERROR - usage: forex CUR AMOUNT [TARGET]";
+
+        CurrencyConverter cc = currencyConverter;
+
+        if (cc == null) return "No exchange rates loaded.";
+
+        try {
+            Money money = moneyParser.parseMoney( args[ 1 ], args[ 2 ]);
+            Curr target = args.length == 4 ? Curr.getInstance( args[ 3 ]) : cc.getTargetCurrency();
+            Money converted = cc.convertMoney( money, target );
+
+            return converted != null ? "Forex " + money + " ==> " + converted
+                                     : "No conversion rate for " + money.getCurrency() + " to " + target + " set";
+        }
+        catch (MoneyParseException e) {
+            return "ERROR - invalid forex format: " + e.getMessage();
+        }
+        catch (IllegalArgumentException e) {
+            return "ERROR - invalid forex format: " + e.getMessage();
+        }
+    }
+
+
+    private static void answer( ReportBuffer out, String s ) {
+        out.append( ">> " ).append( s ).append( '\n' );
+    }
+
+
+    private void closeQuietly() {
+        try {
+            if (server != null) server.close();
+            if (selector != null) selector.close();
+        }
+        catch (IOException e) {
+            log.warn( "Cannot close: " + e );
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import com.spoledge.bscexercise.ReportSink;
+
+
+/**
+ * A report sink which prints the reports to a writer (typically the standard out).
+ * Each report is printed at once and flushed, so the synchronization of the writer
+ * avoids mixing the reports with other messages.
+ * The writer itself is not closed when the sink is closed.
+ */
+public class WriterReportSinkImpl implements ReportSink {
+
+    private PrintWriter out;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new sink.
+     * @param out the output writer; if null then the system out is used
+     */
+    public WriterReportSinkImpl( PrintWriter out ) {
+        this.out = out != null ? out : new PrintWriter( System.out );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // ReportSink
+    ////////////////////////////////////////////////////////////////////////////
+
+    public void write( String report ) throws IOException {
+        out.print( report );
+        out.flush();
+
+        if (out.checkError()) throw new IOException( "Cannot write the report" );
+    }
+
+
+    /**
+     * Prints the report decoded as UTF-8 text.
+     */
+    public void write( byte[] data, int offset, int length ) throws IOException {
+        write( new String( data, offset, length, "UTF-8" ));
+    }
+
+
+    public void close() {
+        out.flush();
+    }
+
+}
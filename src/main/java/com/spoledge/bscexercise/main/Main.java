@@ -3,6 +3,14 @@ package com.spoledge.bscexercise.main;
 import java.io.File;
 import java.io.PrintWriter;
 
+import java.math.BigDecimal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.spoledge.bscexercise.PaymentProcessor;
+import com.spoledge.bscexercise.ReportSink;
+
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.impl.*;
 
@@ -14,14 +22,31 @@ public class Main {
 
     private static class Opts {
         int period = 60;
+        int batchSize;
+        int tcpPort = -1;
+        int httpPort = -1;
+        int forexWatch;
         int decimalPoints = 2;
         boolean syncSec;
         boolean syncMin;
         boolean syncHour;
+        boolean concurrent;
+        boolean journalSync = true;
+        long journalDelay;
+        int snapshotInterval = JournalPaymentProcessorImpl.DEFAULT_SNAPSHOT_INTERVAL;
+        long reportMaxSize;
+        int reportEvery;
+        int reportFlow;
+        BigDecimal reportThreshold;
+        String reportFormat = "text";
+        AsyncReportSinkImpl.OverflowPolicy reportAsync;
         Curr targetCurr = Curr.getInstance( "USD" );
+        List<Curr> totalCurrs;
 
         File directory;
         File forex;
+        File journal;
+        File reportFile;
         File[] files;
     }
 
@@ -33,11 +58,96 @@ public class Main {
         PrintWriter writer = new PrintWriter( System.out );
 
         MoneyParserImpl moneyParser = new MoneyParserImpl( opts.decimalPoints );
-        SimplePaymentReporterImpl reporter = new SimplePaymentReporterImpl( writer );
-        MemoryPaymentProcessorImpl paymentProcessor = new MemoryPaymentProcessorImpl();
+        ReportSink reportSink = opts.reportFile != null
+                                    ? new FileReportSinkImpl( opts.reportFile, opts.reportMaxSize,
+                                                                FileReportSinkImpl.DEFAULT_MAX_FILES )
+                                    : new WriterReportSinkImpl( writer );
+
+        if (opts.reportAsync != null) {
+            final ReportSink asyncSink = new AsyncReportSinkImpl( reportSink,
+                                                AsyncReportSinkImpl.DEFAULT_CAPACITY, opts.reportAsync );
+
+            Runtime.getRuntime().addShutdownHook( new Thread() {
+                public void run() {
+                    try {
+                        asyncSink.close();
+                    }
+                    catch (Exception e) {
+                        System.err.println( "Cannot write pending reports: " + e );
+                    }
+                }
+            });
+
+            reportSink = asyncSink;
+        }
+
+        AbstractPaymentReporterImpl reporter;
+
+        if ("csv".equals( opts.reportFormat )) reporter = new CsvPaymentReporterImpl( reportSink );
+        else if ("json".equals( opts.reportFormat )) reporter = new JsonPaymentReporterImpl( reportSink );
+        else if ("binary".equals( opts.reportFormat )) reporter = new BinaryPaymentReporterImpl( reportSink );
+        else reporter = new SimplePaymentReporterImpl( reportSink );
+        PaymentProcessor paymentProcessor;
         CommandLineControllerImpl controller = new CommandLineControllerImpl( null, writer );
 
-        reporter.setPeriod( opts.period * 1000 );
+        if (opts.journal != null) {
+            final JournalPaymentProcessorImpl journalProcessor = new JournalPaymentProcessorImpl( opts.journal );
+
+            journalProcessor.setSyncEnabled( opts.journalSync );
+            journalProcessor.setGroupCommitDelay( opts.journalDelay );
+            journalProcessor.setSnapshotInterval( opts.snapshotInterval );
+
+            try {
+                journalProcessor.open();
+            }
+            catch (Exception e) {
+                System.err.println( "Cannot open journal file: " + e );
+                return;
+            }
+
+            Runtime.getRuntime().addShutdownHook( new Thread() {
+                public void run() {
+                    try {
+                        journalProcessor.close();
+                    }
+                    catch (Exception e) {
+                        System.err.println( "Cannot close journal file: " + e );
+                    }
+                }
+            });
+
+            paymentProcessor = journalProcessor;
+        }
+        else if (opts.concurrent) {
+            paymentProcessor = new ConcurrentPaymentProcessorImpl( 0, opts.decimalPoints );
+        }
+        else {
+            paymentProcessor = new MemoryPaymentProcessorImpl();
+        }
+
+        if (opts.reportEvery > 0 || opts.reportThreshold != null || opts.reportFlow > 0) {
+            NotifyingPaymentProcessorImpl notifyingProcessor = new NotifyingPaymentProcessorImpl( paymentProcessor );
+
+            if (opts.reportEvery > 0 || opts.reportThreshold != null) {
+                notifyingProcessor.addPaymentListener( reporter );
+                reporter.setReportEvery( opts.reportEvery );
+                reporter.setReportThreshold( opts.reportThreshold );
+            }
+
+            if (opts.reportFlow > 0) {
+                RollingPaymentStatisticsImpl statistics = new RollingPaymentStatisticsImpl(
+                        Math.max( opts.reportFlow, RollingPaymentStatisticsImpl.DEFAULT_MAX_SECONDS ),
+                        opts.decimalPoints );
+
+                notifyingProcessor.addPaymentListener( statistics );
+                reporter.setPaymentStatistics( statistics );
+                reporter.setStatisticsSeconds( opts.reportFlow );
+            }
+
+            paymentProcessor = notifyingProcessor;
+        }
+
+        reporter.setPeriod( opts.period * 1000L );
         reporter.setPaymentProcessor( paymentProcessor );
         reporter.setSyncSec( opts.syncSec );
         reporter.setSyncMin( opts.syncMin );
@@ -46,6 +156,7 @@ public class Main {
         controller.setPaymentProcessor( paymentProcessor );
         controller.setPaymentReporter( reporter );
         controller.setMoneyParser( moneyParser );
+        controller.setBatchSize( opts.batchSize );
 
         if (opts.directory != null) controller.setDirectory( opts.directory );
 
@@ -54,6 +165,7 @@ public class Main {
                 = new FileCurrencyConverterImpl( opts.targetCurr, opts.decimalPoints );
 
             reporter.setCurrencyConverter( converter );
+            reporter.setTotalCurrencies( opts.totalCurrs );
             controller.setCurrencyConverter( converter );
 
             try {
@@ -63,10 +175,45 @@ public class Main {
                 System.err.println( "Cannot read forex file: " + e );
                 return;
             }
+
+            if (opts.forexWatch > 0) converter.startWatching( opts.forexWatch * 1000L );
         }
 
         printVersion( writer );
 
+        if (opts.tcpPort != -1) {
+            TcpControllerImpl tcpController = new TcpControllerImpl( opts.tcpPort );
+
+            tcpController.setPaymentProcessor( paymentProcessor );
+            tcpController.setPaymentReporter( reporter );
+            tcpController.setCurrencyConverter( controller.getCurrencyConverter());
+            tcpController.setMoneyParser( moneyParser );
+
+            try {
+                tcpController.start();
+            }
+            catch (Exception e) {
+                System.err.println( "Cannot start TCP controller: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (opts.httpPort != -1) {
+            HttpQueryControllerImpl httpController = new HttpQueryControllerImpl( opts.httpPort );
+
+            httpController.setPaymentProcessor( paymentProcessor );
+            httpController.setCurrencyConverter( controller.getCurrencyConverter());
+            httpController.setMoneyParser( moneyParser );
+
+            try {
+                httpController.start();
+            }
+            catch (Exception e) {
+                System.err.println( "Cannot start HTTP controller: " + e.getMessage());
+                return;
+            }
+        }
+
         controller.start();
 
         if (opts.files != null) {
@@ -138,7 +285,16 @@ public class Main {
 
             String val = args[ i++ ];
 
-            if ("-c".equals( opt ) || "--forex-currency".equals( opt )) {
+            if ("-b".equals( opt ) || "--batch".equals( opt )) {
+                try {
+                    ret.batchSize = Integer.parseInt( val );
+                    if (ret.batchSize < 0) throw new IllegalArgumentException();
+                }
+                catch (Exception e) {
+                    return error( "Invalid batch - must be a non-negative integer - was '" + val + "'");
+                }
+            }
+            else if ("-c".equals( opt ) || "--forex-currency".equals( opt )) {
                 try {
                     ret.targetCurr = Curr.getInstance( val );
                 }
@@ -165,6 +321,44 @@ public class Main {
                 }
                 continue;
             }
+            else if ("--forex-watch".equals( opt )) {
+                try {
+                    ret.forexWatch = Integer.parseInt( val );
+                }
+                catch (Exception e) {
+                    return error( "Invalid forex-watch - must be an integer - was '" + val + "'");
+                }
+            }
+            else if ("-F".equals( opt ) || "--report-format".equals( opt )) {
+                if ("text".equals( val ) || "csv".equals( val ) || "json".equals( val ) || "binary".equals( val )) {
+                    ret.reportFormat = val;
+                }
+                else return error( "Unknown report-format option value '" + val + "'" );
+            }
+            else if ("-j".equals( opt ) || "--journal".equals( opt )) {
+                ret.journal = new File( val );
+            }
+            else if ("--journal-sync".equals( opt )) {
+                if ("on".equals( val )) ret.journalSync = true;
+                else if ("off".equals( val )) ret.journalSync = false;
+                else {
+                    try {
+                        ret.journalDelay = Long.parseLong( val );
+                        ret.journalSync = true;
+                    }
+                    catch (Exception e) {
+                        return error( "Invalid journal-sync - must be on, off or millis - was '" + val + "'");
+                    }
+                }
+            }
+            else if ("--journal-snapshot".equals( opt )) {
+                try {
+                    ret.snapshotInterval = Integer.parseInt( val );
+                }
+                catch (Exception e) {
+                    return error( "Invalid journal-snapshot - must be an integer - was '" + val + "'");
+                }
+            }
             else if ("-p".equals( opt ) || "--period".equals( opt )) {
                 try {
                     ret.period = Integer.parseInt( val );
@@ -173,6 +367,55 @@ public class Main {
                     return error( "Invalid period - must be an integer - was '" + val + "'");
                 }
             }
+            else if ("-P".equals( opt ) || "--processor".equals( opt )) {
+                if ("concurrent".equals( val )) ret.concurrent = true;
+                else if ("memory".equals( val )) ret.concurrent = false;
+                else return error( "Unknown processor option value '" + val + "'" );
+            }
+            else if ("-r".equals( opt ) || "--report-file".equals( opt )) {
+                ret.reportFile = new File( val );
+            }
+            else if ("--report-async".equals( opt )) {
+                if ("off".equals( val )) ret.reportAsync = null;
+                else if ("drop".equals( val )) ret.reportAsync = AsyncReportSinkImpl.OverflowPolicy.DROP;
+                else if ("block".equals( val )) ret.reportAsync = AsyncReportSinkImpl.OverflowPolicy.BLOCK;
+                else return error( "Unknown report-async option value '" + val + "'" );
+            }
+            else if ("--report-every".equals( opt )) {
+                try {
+                    ret.reportEvery = Integer.parseInt( val );
+                    if (ret.reportEvery < 0) throw new IllegalArgumentException();
+                }
+                catch (Exception e) {
+                    return error( "Invalid report-every - must be a non-negative integer - was '" + val + "'");
+                }
+            }
+            else if ("--report-flow".equals( opt )) {
+                try {
+                    ret.reportFlow = Integer.parseInt( val );
+                    if (ret.reportFlow < 0) throw new IllegalArgumentException();
+                }
+                catch (Exception e) {
+                    return error( "Invalid report-flow - must be a non-negative integer - was '" + val + "'");
+                }
+            }
+            else if ("--report-threshold".equals( opt )) {
+                try {
+                    ret.reportThreshold = new BigDecimal( val );
+                    if (ret.reportThreshold.signum() < 0) throw new IllegalArgumentException();
+                }
+                catch (Exception e) {
+                    return error( "Invalid report-threshold - must be a non-negative number - was '" + val + "'");
+                }
+            }
+            else if ("--report-rotate".equals( opt )) {
+                try {
+                    ret.reportMaxSize = Long.parseLong( val );
+                }
+                catch (Exception e) {
+                    return error( "Invalid report-rotate - must be an integer - was '" + val + "'");
+                }
+            }
             else if ("-S".equals( opt ) || "--sync-period".equals( opt )) {
                 char c = val.length() == 1 ? val.charAt( 0 ) : 'x';
 
@@ -185,6 +428,34 @@ public class Main {
                         return error( "Unknown sync-period option value '" + val + "'" );
                 }
             }
+            else if ("--tcp-port".equals( opt )) {
+                try {
+                    ret.tcpPort = Integer.parseInt( val );
+                    if (ret.tcpPort < 0 || ret.tcpPort > 0xffff) throw new IllegalArgumentException();
+                }
+                catch (Exception e) {
+                    return error( "Invalid tcp-port - must be from 0 to 65535 - was '" + val + "'");
+                }
+            }
+            else if ("--http-port".equals( opt )) {
+                try {
+                    ret.httpPort = Integer.parseInt( val );
+                    if (ret.httpPort < 0 || ret.httpPort > 0xffff) throw new IllegalArgumentException();
+                }
+                catch (Exception e) {
+                    return error( "Invalid http-port - must be from 0 to 65535 - was '" + val + "'");
+                }
+            }
+            else if ("-T".equals( opt ) || "--total".equals( opt )) {
+                ret.totalCurrs = new ArrayList<Curr>();
+
+                try {
+                    for (String code : val.split( "," )) ret.totalCurrs.add( Curr.getInstance( code ));
+                }
+                catch (Exception e) {
+                    return error( "Invalid total currency: " + e.getMessage());
+                }
+            }
             else if ("-x".equals( opt ) || "--forex-file".equals( opt )) {
                 File file = ret.forex = new File( ret.directory, val );
 
@@ -195,6 +466,10 @@ public class Main {
             else return error("Unknown option '" + opt + "'");
         }
 
+        if ("binary".equals( ret.reportFormat ) && ret.reportFile == null) {
+            return error( "The binary report format needs a report file (-r)" );
+        }
+
         return ret;
     }
 
@@ -210,13 +485,29 @@ public class Main {
         System.err.println( "usage: java -jar bsc-exercise-2.0.jar [OPTIONS] [FILE1 [FILE2...]]" );
         System.err.println( "BSC-Example - payment tracker.\n");
         System.err.println( " OPTIONS:");
+        System.err.println( "  -b, --batch SIZE             pipe mode - register the payments in batches of up to SIZE lines");
         System.err.println( "  -c, --forex-currency CODE    target currency for conversions (default=USD)");
         System.err.println( "  -d, --decimal NUMBER         max number of decimal points (default=2)");
         System.err.println( "  -D, --directory DIR          parent directory used for relative paths (input)");
-        System.err.println( "  -p, --period SECONDS         the reporting period, default is 60 seconds.");
+        System.err.println( "      --forex-watch SECONDS    check the forex file for changes, 0=never (default=0)");
+        System.err.println( "  -F, --report-format {text|csv|json|binary}  format of the reports (default=text)");
+        System.err.println( "      --http-port PORT         answer balance and forex queries as JSON over local HTTP");
+        System.err.println( "  -j, --journal FILE           journal file - payments survive restarts");
+        System.err.println( "      --journal-sync {on|off|MILLIS}  fsync of the journal, MILLIS=group commit delay (default=on)");
+        System.err.println( "      --journal-snapshot TX    transactions between snapshots, 0=never (default=100000)");
+        System.err.println( "  -p, --period SECONDS         the reporting period, 0=no timer, default is 60 seconds.");
+        System.err.println( "  -P, --processor {memory|concurrent}  payment processor (default=memory)");
+        System.err.println( "  -r, --report-file FILE       write the reports to the file instead of the console");
+        System.err.println( "      --report-async {off|drop|block}  write the reports by a separate thread (default=off)");
+        System.err.println( "      --report-every TX        report also every TX transactions (default=0=never)");
+        System.err.println( "      --report-flow SECONDS    report the payment flows of the last SECONDS (default=0=no)");
+        System.err.println( "      --report-threshold AMOUNT  report also when a balance moves by more than AMOUNT");
+        System.err.println( "      --report-rotate BYTES    roll the report file at the size, keeps 5 old files (default=0=never)");
         System.err.println( "  -S, --sync-period {s|m|h}    sync reporting with clock's seconds|minutes|hours");
         System.err.println( "  -?, --help                   prints this help and exits");
         System.err.println( "      --usage");
+        System.err.println( "      --tcp-port PORT          accept payments also from local TCP connections");
+        System.err.println( "  -T, --total CODE[,CODE...]   report totals in the currencies (needs forex file)");
         System.err.println( "  -V, --version                prints the version and exits");
         System.err.println( "  -x, --forex-file FILE        conversion rates file");
     }
@@ -7,11 +7,17 @@ import java.util.List;
  * The balance status.
  * It contains information about the last known transaction
  * and list of known balancies.
+ * <p>
+ * Optionally it contains also a version of each balance - a number which
+ * is changed whenever the balance of the currency is changed. So the consumers
+ * can find out which balances were changed since the last time.
+ * </p>
  */
 public final class Balance {
 
     private int lastTransationId;
     private List<Money> allMoney;
+    private long[] versions;
 
 
     ////////////////////////////////////////////////////////////////////////////
@@ -22,8 +28,18 @@ public final class Balance {
      * Creates a new balance.
      */
     public Balance( int lastTransationId, List<Money> allMoney ) {
+        this( lastTransationId, allMoney, null );
+    }
+
+
+    /**
+     * Creates a new balance with versions.
+     * @param versions the versions of the items of the list of money or null if unknown
+     */
+    public Balance( int lastTransationId, List<Money> allMoney, long[] versions ) {
         this.lastTransationId = lastTransationId;
         this.allMoney = allMoney;
+        this.versions = versions;
     }
 
 
@@ -46,4 +62,14 @@ public final class Balance {
         return allMoney;
     }
 
+
+    /**
+     * Returns the version of the balance.
+     * @param i the index of the money in the list of money
+     * @return the version or -1 if the versions are unknown
+     */
+    public long getVersion( int i ) {
+        return versions != null ? versions[ i ] : -1;
+    }
+
 }
@@ -0,0 +1,150 @@
+package com.spoledge.bscexercise.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A balance converted to one target currency.
+ * It contains the converted money of each item of the balance
+ * (in the same order) and the total of all converted items.
+ * A summary contains only the total and the number of the items which could not be converted.
+ */
+public final class ConvertedBalance {
+
+    private final Balance balance;
+    private final Curr targetCurrency;
+    private final Money[] converted;
+    private final Money total;
+    private final int missingCount;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new converted balance.
+     * @param balance the original balance
+     * @param targetCurrency the target currency
+     * @param converted the converted items - null items mean that there was no rate
+     * @param total the total of all converted items
+     */
+    public ConvertedBalance( Balance balance, Curr targetCurrency, Money[] converted, Money total ) {
+        this.balance = balance;
+        this.targetCurrency = targetCurrency;
+        this.converted = converted;
+        this.total = total;
+
+        int missing = 0;
+
+        for (Money money : converted) {
+            if (money == null) missing++;
+        }
+
+        this.missingCount = missing;
+    }
+
+
+    /**
+     * Creates a new summary - without the converted items.
+     * @param balance the original balance
+     * @param targetCurrency the target currency
+     * @param total the total of all converted items
+     * @param missingCount the number of items which could not be converted
+     */
+    public ConvertedBalance( Balance balance, Curr targetCurrency, Money total, int missingCount ) {
+        if (missingCount < 0) throw new IllegalArgumentException( "Negative missingCount" );
+
+        this.balance = balance;
+        this.targetCurrency = targetCurrency;
+        this.converted = null;
+        this.total = total;
+        this.missingCount = missingCount;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the original balance.
+     */
+    public Balance getBalance() {
+        return balance;
+    }
+
+
+    /**
+     * Returns the target currency.
+     */
+    public Curr getTargetCurrency() {
+        return targetCurrency;
+    }
+
+
+    /**
+     * Returns the converted item of the balance.
+     * @param i the index of the item in the balance's list of money
+     * @return the converted money or null if there was no rate for the item
+     * @throws IllegalStateException when this is a summary
+     */
+    public Money getConverted( int i ) {
+        return getItems()[ i ];
+    }
+
+
+    /**
+     * Returns all converted items - the null items mean that there was no rate.
+     * @throws IllegalStateException when this is a summary
+     */
+    public List<Money> getAllConverted() {
+        return Collections.unmodifiableList( Arrays.asList( getItems()));
+    }
+
+
+    /**
+     * Returns true if this contains the converted items, false if this is only a summary.
+     */
+    public boolean hasItems() {
+        return converted != null;
+    }
+
+
+    /**
+     * Returns the total of all converted items.
+     */
+    public Money getTotal() {
+        return total;
+    }
+
+
+    /**
+     * Returns the number of items which could not be converted.
+     */
+    public int getMissingCount() {
+        return missingCount;
+    }
+
+
+    /**
+     * Returns true if all items were converted, so the total is complete.
+     */
+    public boolean isComplete() {
+        return missingCount == 0;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private Money[] getItems() {
+        if (converted == null) throw new IllegalStateException( "A summary without the converted items" );
+
+        return converted;
+    }
+
+}
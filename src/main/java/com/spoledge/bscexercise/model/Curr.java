@@ -1,33 +1,49 @@
 package com.spoledge.bscexercise.model;
 
-import java.util.HashMap;
-
-
 /**
  * The curency.
  * The assignment says "any 3-letter uppercase currency code is valid".
  * So when using the standard java.util.Currency an exception is thrown - e.g. for "RMB".
  * We follow the approach of the system Currency class - for instantiation please
  * use getInstance() method.
+ * <p>
+ * Each currency has its index - a number computed directly from the code letters
+ * in range 0..INDEX_COUNT-1. The indexes are ordered the same way as the codes,
+ * so they can be used for indexing plain arrays of balances, rates etc.
+ * </p>
  */
 public class Curr {
 
-    private static HashMap<String, Curr> allMap = new HashMap<String, Curr>();
+    /**
+     * The number of all possible currencies (26^3).
+     */
+    public static final int INDEX_COUNT = 26 * 26 * 26;
+
+
+    /**
+     * All instances by their index.
+     * The array is read without locking - the final fields of Curr guarantee
+     * that a non-null instance is always seen fully initialized.
+     * When not found, then the instance is created under the lock.
+     */
+    private static final Curr[] allByIndex = new Curr[ INDEX_COUNT ];
 
 
     ////////////////////////////////////////////////////////////////////////////
     // Attributes
     ////////////////////////////////////////////////////////////////////////////
 
-    private String currencyCode;
+    private final String currencyCode;
+    private final int index;
 
 
     ////////////////////////////////////////////////////////////////////////////
     // Constructors
     ////////////////////////////////////////////////////////////////////////////
 
-    private Curr( String currencyCode ) {
+    private Curr( String currencyCode, int index ) {
         this.currencyCode = currencyCode;
+        this.index = index;
     }
 
 
@@ -40,6 +56,14 @@ public class Curr {
     }
 
 
+    /**
+     * Returns the index of this currency - a number in range 0..INDEX_COUNT-1.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+
     @Override
     public String toString() {
         return currencyCode;
@@ -54,19 +78,60 @@ public class Curr {
      * @throws IllegalArgumentException when the code param is not 3-letter uppercase string
      */
     public static Curr getInstance( String code ) {
-        synchronized( allMap ) {
-            // assume everything is ok first:
-            Curr ret = allMap.get( code );
+        if (code == null) throw new NullPointerException( "Missing code param" );
 
-            if (ret == null) {
-                if (code == null) throw new NullPointerException( "Missing code param" );
+        int index = code.length() == 3 ? index( code.charAt( 0 ), code.charAt( 1 ), code.charAt( 2 )) : -1;
+
+        if (index == -1) throw new IllegalArgumentException( "Invalid currency code '" + code + "'" );
+
+        Curr ret = allByIndex[ index ];
+
+        return ret != null ? ret : create( index );
+    }
 
-                if (code.length() != 3 || !code.toUpperCase().equals( code )) {
-                    throw new IllegalArgumentException( "Invalid currency code '" + code + "'" );
-                }
 
-                ret = new Curr( code );
-                allMap.put( code, ret );
+    /**
+     * Returns an instance of the currency of the given index.
+     * @param index the index of the currency
+     * @throws IllegalArgumentException when the index is out of range
+     */
+    public static Curr getInstance( int index ) {
+        if (index < 0 || index >= INDEX_COUNT) throw new IllegalArgumentException( "Invalid currency index " + index );
+
+        Curr ret = allByIndex[ index ];
+
+        return ret != null ? ret : create( index );
+    }
+
+
+    /**
+     * Returns the index of the currency code.
+     * @return the index or -1 if the code is not a valid currency code
+     */
+    public static int index( char c0, char c1, char c2 ) {
+        if (c0 < 'A' || c0 > 'Z' || c1 < 'A' || c1 > 'Z' || c2 < 'A' || c2 > 'Z') return -1;
+
+        return ((c0 - 'A') * 26 + (c1 - 'A')) * 26 + (c2 - 'A');
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private static Curr create( int index ) {
+        synchronized( allByIndex ) {
+            Curr ret = allByIndex[ index ];
+
+            if (ret == null) {
+                char[] code = {
+                    (char)('A' + index / (26 * 26)),
+                    (char)('A' + index / 26 % 26),
+                    (char)('A' + index % 26)
+                };
+
+                ret = new Curr( new String( code ), index );
+                allByIndex[ index ] = ret;
             }
 
             return ret;
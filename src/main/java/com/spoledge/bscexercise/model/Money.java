@@ -14,8 +14,19 @@ public final class Money {
     ////////////////////////////////////////////////////////////////////////////
 
     private Curr currency;
+
+    /**
+     * The amount - for compact money it is created lazily.
+     */
     private BigDecimal amount;
 
+    /**
+     * True if the amount is held also in the fixed-point form.
+     */
+    private boolean compact;
+    private long unscaledAmount;
+    private int scale;
+
 
     ////////////////////////////////////////////////////////////////////////////
     // Constructors
@@ -33,6 +44,32 @@ public final class Money {
         
         this.currency = currency;
         this.amount= amount;
+
+        if (amount.scale() >= 0 && amount.unscaledValue().bitLength() < 64) {
+            this.compact = true;
+            this.unscaledAmount = amount.unscaledValue().longValue();
+            this.scale = amount.scale();
+        }
+    }
+
+
+    /**
+     * Creates a new compact money represented as a fixed-point number.
+     * The BigDecimal amount is not created until it is requested.
+     * @param currency the currency
+     * @param unscaledAmount the unscaled value of the amount
+     * @param scale the scale of the amount
+     * @throws NullPointerException if the currency is null
+     * @throws IllegalArgumentException if the scale is negative
+     */
+    public Money( Curr currency, long unscaledAmount, int scale ) {
+        if (currency == null) throw new NullPointerException( "Missing currency" );
+        if (scale < 0) throw new IllegalArgumentException( "Negative scale" );
+
+        this.currency = currency;
+        this.compact = true;
+        this.unscaledAmount = unscaledAmount;
+        this.scale = scale;
     }
 
 
@@ -52,7 +89,41 @@ public final class Money {
      * Returns the amount.
      */
     public BigDecimal getAmount() {
-        return amount;
+        BigDecimal ret = amount;
+
+        // a benign race - BigDecimal is immutable, so at most more instances are created:
+        if (ret == null) amount = ret = BigDecimal.valueOf( unscaledAmount, scale );
+
+        return ret;
+    }
+
+
+    /**
+     * Returns true if the amount is available as a fixed-point number.
+     * @see #getUnscaledAmount()
+     * @see #getScale()
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+
+    /**
+     * Returns the unscaled value of the amount.
+     * @throws IllegalStateException if this money is not compact
+     */
+    public long getUnscaledAmount() {
+        if (!compact) throw new IllegalStateException( "Not a compact money" );
+
+        return unscaledAmount;
+    }
+
+
+    /**
+     * Returns the scale of the amount.
+     */
+    public int getScale() {
+        return compact ? scale : amount.scale();
     }
 
 
@@ -71,7 +142,11 @@ public final class Money {
         // than one Currency instance for any given currency"
         if (this.currency != other.currency) throw new IllegalArgumentException( "Currency mismatch" );
 
-        return new Money( this.currency, this.amount.add( other.amount ));
+        MoneySum sum = new MoneySum( currency );
+        sum.add( this );
+        sum.add( other );
+
+        return sum.toMoney();
     }
 
 
@@ -80,6 +155,8 @@ public final class Money {
      * NOTE: BigDecimal distinguishes "0" and "0.00", but this method is aware of it.
      */
     public boolean isZero() {
+        if (compact) return unscaledAmount == 0;
+
         return java.math.BigInteger.ZERO.equals( amount.unscaledValue());
     }
 
@@ -90,7 +167,7 @@ public final class Money {
      */
     @Override
     public String toString() {
-        return currency.toString() + ' ' + amount.toPlainString();
+        return currency.toString() + ' ' + getAmount().toPlainString();
     }
 
 }
@@ -0,0 +1,231 @@
+package com.spoledge.bscexercise.model;
+
+import java.math.BigDecimal;
+
+
+/**
+ * A mutable sum of money of one currency.
+ * The sum is kept as a fixed-point number (unscaled long value + scale)
+ * as long as it fits, so adding of compact money does not allocate any objects.
+ * When the long value would overflow, then the sum falls back to BigDecimal.
+ * The scale of the sum is the maximum scale of all added amounts - the same
+ * as if the amounts were added by BigDecimal.add().
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public final class MoneySum {
+
+    /**
+     * Powers of ten which fit into the long type.
+     */
+    private static final long[] POW10 = new long[ 19 ];
+
+    static {
+        POW10[ 0 ] = 1;
+        for (int i=1; i < POW10.length; i++) POW10[ i ] = POW10[ i - 1 ] * 10;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private Curr currency;
+
+    private long unscaledAmount;
+    private int scale;
+
+    /**
+     * The amount when the sum does not fit into the long - null otherwise.
+     */
+    private BigDecimal amount;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new zero sum.
+     * @param currency the currency
+     * @throws NullPointerException if the parameter is null
+     */
+    public MoneySum( Curr currency ) {
+        if (currency == null) throw new NullPointerException( "Missing currency" );
+
+        this.currency = currency;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the currency.
+     */
+    public Curr getCurrency() {
+        return currency;
+    }
+
+
+    /**
+     * Adds money to this sum.
+     * @throws NullPointerException when the parameter is null
+     * @throws IllegalArgumentException when the money's currency is different than this one's
+     */
+    public void add( Money money ) {
+        if (money == null) throw new NullPointerException( "Missing money" );
+        if (money.getCurrency() != currency) throw new IllegalArgumentException( "Currency mismatch" );
+
+        if (money.isCompact()) add( money.getUnscaledAmount(), money.getScale());
+        else add( money.getAmount());
+    }
+
+
+    /**
+     * Adds a fixed-point amount to this sum.
+     * @param unscaledAmount the unscaled value
+     * @param scale the scale - must not be negative
+     */
+    public void add( long unscaledAmount, int scale ) {
+        if (amount == null) {
+            long a = this.unscaledAmount;
+            long b = unscaledAmount;
+            int s = this.scale;
+
+            if (scale > s) {
+                a = rescale( a, scale - s );
+                s = scale;
+            }
+            else if (scale < s) {
+                b = rescale( b, s - scale );
+            }
+
+            if (a != Long.MIN_VALUE && b != Long.MIN_VALUE) {
+                long r = a + b;
+
+                if (((a ^ r) & (b ^ r)) >= 0) {
+                    this.unscaledAmount = r;
+                    this.scale = s;
+
+                    return;
+                }
+            }
+        }
+
+        add( BigDecimal.valueOf( unscaledAmount, scale ));
+    }
+
+
+    /**
+     * Adds other sum to this sum.
+     * @throws NullPointerException when the parameter is null
+     * @throws IllegalArgumentException when the other sum's currency is different than this one's
+     */
+    public void add( MoneySum other ) {
+        if (other == null) throw new NullPointerException( "Missing other sum" );
+        if (other.currency != currency) throw new IllegalArgumentException( "Currency mismatch" );
+
+        if (other.amount == null) add( other.unscaledAmount, other.scale );
+        else add( other.amount );
+    }
+
+
+    /**
+     * Adds a decimal amount to this sum.
+     * If the result fits into long, then the sum stays compact.
+     */
+    public void add( BigDecimal value ) {
+        BigDecimal sum = getAmount().add( value );
+        setAmount( sum );
+    }
+
+
+    /**
+     * Returns true if the sum is kept as a fixed-point long value.
+     */
+    public boolean isCompact() {
+        return amount == null;
+    }
+
+
+    /**
+     * Returns the unscaled value of the sum.
+     * @throws IllegalStateException if this sum is not compact
+     */
+    public long getUnscaledAmount() {
+        if (amount != null) throw new IllegalStateException( "Not a compact sum" );
+
+        return unscaledAmount;
+    }
+
+
+    /**
+     * Returns the scale of the sum.
+     */
+    public int getScale() {
+        return amount != null ? amount.scale() : scale;
+    }
+
+
+    /**
+     * Returns the amount.
+     */
+    public BigDecimal getAmount() {
+        return amount != null ? amount : BigDecimal.valueOf( unscaledAmount, scale );
+    }
+
+
+    /**
+     * Returns the sum as an immutable money.
+     */
+    public Money toMoney() {
+        return amount != null ? new Money( currency, amount ) : new Money( currency, unscaledAmount, scale );
+    }
+
+
+    /**
+     * Resets the sum to zero.
+     */
+    public void clear() {
+        unscaledAmount = 0;
+        scale = 0;
+        amount = null;
+    }
+
+
+    /**
+     * Multiplies the value by 10^digits.
+     * @param value the value
+     * @param digits the number of digits - must not be negative
+     * @return the result or Long.MIN_VALUE if it would overflow
+     */
+    public static long rescale( long value, int digits ) {
+        if (digits >= POW10.length) return Long.MIN_VALUE;
+
+        long limit = Long.MAX_VALUE / POW10[ digits ];
+
+        if (value > limit || value < -limit) return Long.MIN_VALUE;
+
+        return value * POW10[ digits ];
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void setAmount( BigDecimal value ) {
+        if (value.scale() >= 0 && value.unscaledValue().bitLength() < 64) {
+            unscaledAmount = value.unscaledValue().longValue();
+            scale = value.scale();
+            amount = null;
+        }
+        else {
+            amount = value;
+        }
+    }
+
+}
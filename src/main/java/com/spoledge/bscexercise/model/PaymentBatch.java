@@ -0,0 +1,183 @@
+package com.spoledge.bscexercise.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A batch of payments pre-aggregated per currency.
+ * It keeps only the number of payments and one fixed-point sum per currency,
+ * so its size does not depend on the number of payments.
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public final class PaymentBatch {
+
+    private MoneySum[] sums = new MoneySum[ Curr.INDEX_COUNT ];
+
+    /**
+     * The numbers of payments indexed by the currency index.
+     */
+    private int[] counts = new int[ Curr.INDEX_COUNT ];
+
+    /**
+     * The indexes of the used currencies in order of their first use.
+     */
+    private int[] usedIndexes = new int[ 16 ];
+    private int usedCount;
+
+    private int count;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Adds a payment to this batch.
+     * @throws NullPointerException when the parameter is null
+     */
+    public void add( Money payment ) {
+        if (payment == null) throw new NullPointerException( "Missing payment" );
+
+        getSum( payment.getCurrency()).add( payment );
+        counts[ payment.getCurrency().getIndex() ]++;
+        count++;
+    }
+
+
+    /**
+     * Adds a sum of more payments to this batch.
+     * @param payments the sum of the payments
+     * @param count the number of the payments
+     * @throws NullPointerException when the payments parameter is null
+     */
+    public void add( Money payments, int count ) {
+        if (payments == null) throw new NullPointerException( "Missing payments" );
+        if (count < 0) throw new IllegalArgumentException( "Negative count" );
+
+        getSum( payments.getCurrency()).add( payments );
+        counts[ payments.getCurrency().getIndex() ] += count;
+        this.count += count;
+    }
+
+
+    /**
+     * Adds all payments of other batch to this batch.
+     * @throws NullPointerException when the parameter is null
+     */
+    public void addAll( PaymentBatch other ) {
+        if (other == null) throw new NullPointerException( "Missing other batch" );
+
+        for (int i=0; i < other.usedCount; i++) {
+            MoneySum sum = other.sums[ other.usedIndexes[ i ]];
+
+            getSum( sum.getCurrency()).add( sum );
+            counts[ other.usedIndexes[ i ]] += other.counts[ other.usedIndexes[ i ]];
+        }
+
+        count += other.count;
+    }
+
+
+    /**
+     * Returns the number of payments in this batch.
+     */
+    public int getCount() {
+        return count;
+    }
+
+
+    /**
+     * Returns true if there are no payments in this batch.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+
+    /**
+     * Returns the sums of the payments - one money per currency.
+     */
+    public List<Money> getAllMoney() {
+        ArrayList<Money> ret = new ArrayList<Money>( usedCount );
+
+        for (int i=0; i < usedCount; i++) {
+            ret.add( sums[ usedIndexes[ i ]].toMoney());
+        }
+
+        return ret;
+    }
+
+
+    /**
+     * Returns the number of currencies used in this batch.
+     */
+    public int getCurrencyCount() {
+        return usedCount;
+    }
+
+
+    /**
+     * Returns the sum of the i-th used currency.
+     * The returned object must not be modified.
+     * @param i the order of the currency - from 0 to getCurrencyCount()-1
+     */
+    public MoneySum getSum( int i ) {
+        if (i < 0 || i >= usedCount) throw new IndexOutOfBoundsException( "Index " + i );
+
+        return sums[ usedIndexes[ i ]];
+    }
+
+
+    /**
+     * Returns the number of payments of the i-th used currency.
+     * @param i the order of the currency - from 0 to getCurrencyCount()-1
+     */
+    public int getCount( int i ) {
+        if (i < 0 || i >= usedCount) throw new IndexOutOfBoundsException( "Index " + i );
+
+        return counts[ usedIndexes[ i ]];
+    }
+
+
+    /**
+     * Removes all payments, so the batch can be reused.
+     */
+    public void clear() {
+        for (int i=0; i < usedCount; i++) {
+            sums[ usedIndexes[ i ]] = null;
+            counts[ usedIndexes[ i ]] = 0;
+        }
+
+        usedCount = 0;
+        count = 0;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private MoneySum getSum( Curr currency ) {
+        int index = currency.getIndex();
+        MoneySum ret = sums[ index ];
+
+        if (ret == null) {
+            ret = sums[ index ] = new MoneySum( currency );
+            markUsed( index );
+        }
+
+        return ret;
+    }
+
+
+    private void markUsed( int index ) {
+        if (usedCount == usedIndexes.length) usedIndexes = Arrays.copyOf( usedIndexes, usedCount * 2 );
+
+        usedIndexes[ usedCount++ ] = index;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.spoledge.bscexercise.model;
+
+
+/**
+ * The flow of the payments of one currency during a time window.
+ * The inflow is the sum of the positive payments, the outflow is the sum
+ * of the negative payments (so it is never positive).
+ */
+public final class PaymentFlow {
+
+    private final Curr currency;
+    private final int seconds;
+    private final long count;
+    private final Money inflow;
+    private final Money outflow;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new flow.
+     * @param currency the currency
+     * @param seconds the length of the time window
+     * @param count the number of the payments
+     * @param inflow the sum of the positive payments
+     * @param outflow the sum of the negative payments
+     */
+    public PaymentFlow( Curr currency, int seconds, long count, Money inflow, Money outflow ) {
+        this.currency = currency;
+        this.seconds = seconds;
+        this.count = count;
+        this.inflow = inflow;
+        this.outflow = outflow;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public Curr getCurrency() {
+        return currency;
+    }
+
+
+    /**
+     * Returns the length of the time window in seconds.
+     */
+    public int getSeconds() {
+        return seconds;
+    }
+
+
+    /**
+     * Returns the number of the payments.
+     */
+    public long getCount() {
+        return count;
+    }
+
+
+    /**
+     * Returns the sum of the positive payments.
+     */
+    public Money getInflow() {
+        return inflow;
+    }
+
+
+    /**
+     * Returns the sum of the negative payments.
+     */
+    public Money getOutflow() {
+        return outflow;
+    }
+
+
+    /**
+     * Returns true if there was no payment.
+     */
+    public boolean isEmpty() {
+        return count == 0 && inflow.isZero() && outflow.isZero();
+    }
+
+
+    @Override
+    public String toString() {
+        return currency + " " + count + " payments, in " + inflow.getAmount().toPlainString()
+                    + ", out " + outflow.getAmount().toPlainString();
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.spoledge.bscexercise.model;
+
+import java.util.Arrays;
+
+
+/**
+ * A bounded history of rate tables keyed by their effective time.
+ * The table valid at an instant is the one with the greatest effective time
+ * not after the instant - it is found by a binary search.
+ * <p>
+ * The versions are kept in immutable arrays which are replaced when a version
+ * is added or evicted (copy on write), so the lookups do not need any locking.
+ * When the maximal number of versions is exceeded, then the oldest versions
+ * are evicted.
+ * </p>
+ * The implementation is thread-safe.
+ */
+public final class RateHistory {
+
+    /**
+     * The default maximal number of versions.
+     */
+    public static final int DEFAULT_MAX_VERSIONS = 64;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * An immutable snapshot of all versions sorted by the effective time.
+     */
+    private static final class Versions {
+        final long[] times;
+        final RateTable[] tables;
+
+        Versions( long[] times, RateTable[] tables ) {
+            this.times = times;
+            this.tables = tables;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private final int maxVersions;
+
+    private volatile Versions versions = new Versions( new long[ 0 ], new RateTable[ 0 ] );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new history with the default maximal number of versions.
+     */
+    public RateHistory() {
+        this( DEFAULT_MAX_VERSIONS );
+    }
+
+
+    /**
+     * Creates a new history.
+     * @param maxVersions the maximal number of versions kept
+     */
+    public RateHistory( int maxVersions ) {
+        if (maxVersions < 1) throw new IllegalArgumentException( "Invalid maxVersions " + maxVersions );
+
+        this.maxVersions = maxVersions;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+
+    /**
+     * Returns the number of versions.
+     */
+    public int size() {
+        return versions.times.length;
+    }
+
+
+    /**
+     * Returns the effective times of all versions in ascending order.
+     */
+    public long[] getEffectiveTimes() {
+        return versions.times.clone();
+    }
+
+
+    /**
+     * Adds a new version.
+     * If there is already a version of the same effective time, then it is replaced.
+     * @param effectiveTime the time in ms since which the table is valid
+     * @param table the rate table
+     */
+    public synchronized void add( long effectiveTime, RateTable table ) {
+        if (table == null) throw new NullPointerException( "Missing table" );
+
+        Versions v = versions;
+        int i = Arrays.binarySearch( v.times, effectiveTime );
+
+        if (i >= 0) {
+            RateTable[] tables = v.tables.clone();
+            tables[ i ] = table;
+            versions = new Versions( v.times, tables );
+
+            return;
+        }
+
+        i = -i - 1;
+
+        int n = v.times.length + 1;
+        long[] times = new long[ n ];
+        RateTable[] tables = new RateTable[ n ];
+
+        System.arraycopy( v.times, 0, times, 0, i );
+        System.arraycopy( v.tables, 0, tables, 0, i );
+        times[ i ] = effectiveTime;
+        tables[ i ] = table;
+        System.arraycopy( v.times, i, times, i + 1, n - i - 1 );
+        System.arraycopy( v.tables, i, tables, i + 1, n - i - 1 );
+
+        versions = trim( times, tables, Math.max( 0, n - maxVersions ));
+    }
+
+
+    /**
+     * Returns the table valid at the given time.
+     * @param time the time in ms
+     * @return the table or null if there is no version effective at the time
+     */
+    public RateTable get( long time ) {
+        Versions v = versions;
+        int i = Arrays.binarySearch( v.times, time );
+
+        if (i < 0) i = -i - 2;
+
+        return i >= 0 ? v.tables[ i ] : null;
+    }
+
+
+    /**
+     * Returns the newest version or null if there is no version.
+     */
+    public RateTable getLatest() {
+        Versions v = versions;
+
+        return v.tables.length != 0 ? v.tables[ v.tables.length - 1 ] : null;
+    }
+
+
+    /**
+     * Evicts the versions which are not valid at the given time or later.
+     * So the version valid at the time is kept, but all older versions are removed.
+     * @param time the time in ms
+     * @return the number of evicted versions
+     */
+    public synchronized int evict( long time ) {
+        Versions v = versions;
+        int i = Arrays.binarySearch( v.times, time );
+
+        if (i < 0) i = -i - 2;
+        if (i <= 0) return 0;
+
+        versions = trim( v.times, v.tables, i );
+
+        return i;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private static Versions trim( long[] times, RateTable[] tables, int count ) {
+        if (count == 0) return new Versions( times, tables );
+
+        return new Versions( Arrays.copyOfRange( times, count, times.length ),
+                                Arrays.copyOfRange( tables, count, tables.length ));
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.spoledge.bscexercise.model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * An immutable table of conversion rates between all pairs of currencies.
+ * The table is created from the rates of currencies to one base currency
+ * and all cross rates are precomputed (triangulated via the base currency)
+ * into a matrix, so a conversion is one array lookup and one multiplication.
+ * <p>
+ * The direct rates to the base currency are kept exactly as they were given,
+ * the derived rates are computed with the precision of MATH_CONTEXT.
+ * The matrix has N x N items, so it is intended for tens or hundreds
+ * of currencies, not for thousands.
+ * </p>
+ */
+public final class RateTable {
+
+    /**
+     * The precision used for derived rates.
+     */
+    public static final MathContext MATH_CONTEXT = MathContext.DECIMAL128;
+
+    private static final AtomicLong versionCounter = new AtomicLong();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private final Curr baseCurrency;
+
+    /**
+     * The currencies by their slot in the matrix - the base currency is in slot 0.
+     */
+    private final Curr[] currencies;
+
+    /**
+     * The slots of the currencies plus one indexed by the currency index - 0 means unknown.
+     */
+    private final int[] slots;
+
+    /**
+     * The rates - matrix[from][to].
+     */
+    private final BigDecimal[][] matrix;
+
+    private final long version = versionCounter.incrementAndGet();
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new table.
+     * @param baseCurrency the base currency
+     * @param rates the rates to the base currency - one unit of the currency
+     *      is equal to rate units of the base currency; the rate of the base currency
+     *      itself is ignored
+     * @throws IllegalArgumentException when a rate is not positive
+     */
+    public RateTable( Curr baseCurrency, Map<Curr, BigDecimal> rates ) {
+        if (baseCurrency == null) throw new NullPointerException( "Missing base currency" );
+
+        int n = 1;
+        Curr[] currs = new Curr[ rates.size() + 1 ];
+        BigDecimal[] direct = new BigDecimal[ currs.length ];
+
+        currs[ 0 ] = baseCurrency;
+        direct[ 0 ] = BigDecimal.ONE;
+
+        for (Map.Entry<Curr, BigDecimal> entry : rates.entrySet()) {
+            if (entry.getKey() == baseCurrency) continue;
+
+            if (entry.getValue().signum() <= 0) {
+                throw new IllegalArgumentException( "Invalid rate " + entry.getKey() + " " + entry.getValue() );
+            }
+
+            currs[ n ] = entry.getKey();
+            direct[ n ] = entry.getValue();
+            n++;
+        }
+
+        this.baseCurrency = baseCurrency;
+        this.currencies = n == currs.length ? currs : Arrays.copyOf( currs, n );
+        this.slots = new int[ Curr.INDEX_COUNT ];
+        this.matrix = new BigDecimal[ n ][ n ];
+
+        for (int i=0; i < n; i++) {
+            slots[ currencies[ i ].getIndex() ] = i + 1;
+
+            for (int j=0; j < n; j++) {
+                BigDecimal rate;
+
+                if (i == j) rate = BigDecimal.ONE;
+                else if (j == 0) rate = direct[ i ];
+                else rate = direct[ i ].divide( direct[ j ], MATH_CONTEXT );
+
+                matrix[ i ][ j ] = rate;
+            }
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the base currency.
+     */
+    public Curr getBaseCurrency() {
+        return baseCurrency;
+    }
+
+
+    /**
+     * Returns the version of this table - a number unique for each table created.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Returns all currencies of this table (including the base currency).
+     */
+    public List<Curr> getCurrencies() {
+        return Collections.unmodifiableList( Arrays.asList( currencies ));
+    }
+
+
+    /**
+     * Returns true if the rates of the currency are known.
+     */
+    public boolean contains( Curr currency ) {
+        return slots[ currency.getIndex() ] != 0;
+    }
+
+
+    /**
+     * Returns the conversion rate.
+     * @return the rate - one unit of the "from" currency is equal to rate units
+     *      of the "to" currency; or null if any of the currencies is unknown
+     */
+    public BigDecimal getRate( Curr from, Curr to ) {
+        int i = slots[ from.getIndex() ];
+        int j = slots[ to.getIndex() ];
+
+        return i != 0 && j != 0 ? matrix[ i - 1 ][ j - 1 ] : null;
+    }
+
+
+    /**
+     * Converts money to other currency.
+     * When the money is already in the target currency, then it is returned as is.
+     * @param money the money to be converted
+     * @param to the target currency
+     * @param decimalDigits the scale of the result
+     * @return the converted money or null if any of the currencies is unknown
+     */
+    public Money convert( Money money, Curr to, int decimalDigits ) {
+        if (money.getCurrency() == to) return money;
+
+        BigDecimal rate = getRate( money.getCurrency(), to );
+
+        if (rate == null) return null;
+
+        return new Money( to, money.getAmount().multiply( rate ).setScale( decimalDigits, RoundingMode.HALF_EVEN ));
+    }
+
+
+    /**
+     * Converts all money of the balance to other currency in one pass.
+     * The target currency is looked up only once and the total is accumulated
+     * as a fixed-point sum. The total is the sum of the converted (rounded) items,
+     * so it matches the items shown.
+     * @param balance the balance to be converted
+     * @param to the target currency
+     * @param decimalDigits the scale of the results
+     * @return the converted balance - the items without a rate are null
+     */
+    public ConvertedBalance convert( Balance balance, Curr to, int decimalDigits ) {
+        List<Money> list = balance.getAllMoney();
+        Money[] converted = new Money[ list.size() ];
+        MoneySum total = new MoneySum( to );
+        int j = slots[ to.getIndex() ];
+
+        for (int k=0; k < converted.length; k++) {
+            Money money = list.get( k );
+            Money result;
+
+            if (money.getCurrency() == to) {
+                result = money;
+            }
+            else {
+                int i = slots[ money.getCurrency().getIndex() ];
+
+                if (i == 0 || j == 0) continue;
+
+                BigDecimal amount = money.getAmount().multiply( matrix[ i - 1 ][ j - 1 ] );
+
+                result = new Money( to, amount.setScale( decimalDigits, RoundingMode.HALF_EVEN ));
+            }
+
+            converted[ k ] = result;
+            total.add( result );
+        }
+
+        return new ConvertedBalance( balance, to, converted, round( total.toMoney(), decimalDigits ));
+    }
+
+
+    /**
+     * Rounds money as the converted amounts are rounded.
+     * @param money the money to be rounded
+     * @param decimalDigits the scale of the result
+     */
+    public static Money round( Money money, int decimalDigits ) {
+        return new Money( money.getCurrency(), money.getAmount().setScale( decimalDigits, RoundingMode.HALF_EVEN ));
+    }
+
+}
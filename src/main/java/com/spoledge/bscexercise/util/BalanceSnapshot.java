@@ -0,0 +1,251 @@
+package com.spoledge.bscexercise.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Money;
+
+
+/**
+ * A binary snapshot of the balances and the last transaction id.
+ * The snapshot is written to a temporary file which is synced to the disk
+ * and then renamed to the snapshot file, so the snapshot file is always
+ * either the old or the new complete snapshot. The directory is synced after the rename
+ * (where the platform allows it), so the new snapshot survives a crash of the system
+ * before the journal is truncated.
+ * Where the rename cannot replace an existing file, the old snapshot is kept
+ * as the backup (".bak" suffix) until the new one is in place, and the backup
+ * is read when the snapshot file is missing.
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ */
+public class BalanceSnapshot {
+
+    /**
+     * The file header - magic "BSCS" and version 1.
+     */
+    private static final int MAGIC = 0x42534353;
+    private static final int VERSION = 1;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private File file;
+    private File backupFile;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new snapshot.
+     * @param file the snapshot file
+     */
+    public BalanceSnapshot( File file ) {
+        if (file == null) throw new NullPointerException( "Missing file" );
+
+        this.file = file;
+        this.backupFile = new File( file.getPath() + ".bak" );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Returns the backup of the previous snapshot - it exists only while a new snapshot is being renamed.
+     */
+    public File getBackupFile() {
+        return backupFile;
+    }
+
+
+    /**
+     * Reads the snapshot - or its backup if the snapshot file does not exist.
+     * @return the balance or null if neither the snapshot file nor the backup exists
+     * @throws IOException when the file cannot be read or it is corrupted
+     */
+    public Balance read() throws IOException {
+        if (file.exists()) return read( file );
+
+        return backupFile.exists() ? read( backupFile ) : null;
+    }
+
+
+    /**
+     * Writes the snapshot.
+     * When this method returns, then the snapshot is on the disk
+     * including the directory entry (where the platform allows to sync it).
+     * @param balance the balance
+     */
+    public void write( Balance balance ) throws IOException {
+        List<Money> list = balance.getAllMoney();
+        int bits = 0;
+
+        for (Money money : list) {
+            if (!money.isCompact()) bits += money.getAmount().unscaledValue().bitLength();
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate( 16 + PaymentJournal.moneySize( list.size(), bits ) + 4 );
+
+        buf.putInt( MAGIC ).putInt( VERSION );
+        buf.putInt( balance.getLastTransationId());
+        buf.putInt( list.size());
+
+        for (Money money : list) PaymentJournal.putMoney( buf, money );
+
+        CRC32 crc = new CRC32();
+        crc.update( buf.array(), 0, buf.position());
+        buf.putInt( (int) crc.getValue());
+
+        File tmp = new File( file.getPath() + ".tmp" );
+        FileOutputStream out = new FileOutputStream( tmp );
+
+        try {
+            out.write( buf.array(), 0, buf.position());
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        if (tmp.renameTo( file )) {
+            syncDirectory();
+            return;
+        }
+
+        // rename does not replace an existing file on some platforms - the journal may be
+        // already truncated after the old snapshot, so keep it until the new one is in place:
+        backupFile.delete();
+
+        if (file.exists() && !file.renameTo( backupFile )) {
+            throw new IOException( "Cannot rename " + file + " to " + backupFile );
+        }
+
+        if (!tmp.renameTo( file )) {
+            backupFile.renameTo( file );
+
+            throw new IOException( "Cannot rename " + tmp + " to " + file );
+        }
+
+        syncDirectory();
+        backupFile.delete();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Syncs the directory of the snapshot file, so the rename is durable.
+     * The directories can be opened only by Java 7+ (FileChannel.open) and not on all platforms
+     * (e.g. Windows) - then the sync is skipped.
+     */
+    @SuppressWarnings("unchecked")
+    private void syncDirectory() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        FileChannel channel;
+
+        try {
+            Class<?> pathClass = Class.forName( "java.nio.file.Path" );
+            Class<?> optionClass = Class.forName( "java.nio.file.OpenOption" );
+            Class<? extends Enum> standardClass = (Class<? extends Enum>) Class.forName( "java.nio.file.StandardOpenOption" );
+
+            Object options = Array.newInstance( optionClass, 1 );
+            Array.set( options, 0, Enum.valueOf( standardClass, "READ" ));
+
+            Object path = File.class.getMethod( "toPath" ).invoke( dir );
+
+            channel = (FileChannel) FileChannel.class.getMethod( "open", pathClass, options.getClass())
+                                                        .invoke( null, path, options );
+        }
+        catch (InvocationTargetException e) {
+            // the directory cannot be opened on this platform:
+            return;
+        }
+        catch (Exception e) {
+            // older Java without java.nio.file:
+            return;
+        }
+
+        try {
+            channel.force( true );
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+
+    private Balance read( File file ) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) throw new IOException( "Snapshot " + file + " is corrupted" );
+
+        byte[] data = new byte[ (int) file.length() ];
+        FileInputStream in = new FileInputStream( file );
+
+        try {
+            for (int n=0; n < data.length;) {
+                int r = in.read( data, n, data.length - n );
+
+                if (r == -1) throw new IOException( "Snapshot " + file + " is corrupted" );
+
+                n += r;
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap( data );
+
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw new IOException( "File " + file + " is not a balance snapshot" );
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update( data, 0, data.length - 4 );
+
+            if (buf.getInt( data.length - 4 ) != (int) crc.getValue()) {
+                throw new IOException( "Snapshot " + file + " is corrupted" );
+            }
+
+            int lastTransationId = buf.getInt();
+            int n = buf.getInt();
+            List<Money> list = new ArrayList<Money>( n );
+
+            for (int i=0; i < n; i++) list.add( PaymentJournal.getMoney( buf ));
+
+            return new Balance( lastTransationId, list );
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException( "Snapshot " + file + " is corrupted" );
+        }
+    }
+
+}
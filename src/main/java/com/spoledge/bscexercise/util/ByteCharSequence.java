@@ -0,0 +1,110 @@
+package com.spoledge.bscexercise.util;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * A character view of a part of a byte buffer.
+ * Each byte is treated as one ISO-8859-1 character, so it is usable for ASCII data
+ * like money lines. The view is mutable and can be reused for many lines,
+ * so parsing directly from (e.g. memory mapped or socket) buffers does not allocate
+ * any objects.
+ * <pre>
+ *  ByteCharSequence seq = new ByteCharSequence();
+ *  ...
+ *  seq.set( buffer, lineStart, lineEnd );
+ *  Money money = moneyParser.parseMoney( seq, 0, seq.length(), lineNumber );
+ * </pre>
+ *
+ * This class is not thread safe.
+ */
+public final class ByteCharSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new empty view.
+     */
+    public ByteCharSequence() {
+    }
+
+
+    /**
+     * Creates a new view.
+     * @param buffer the buffer
+     * @param start the absolute index of the first byte (inclusive)
+     * @param end the absolute index of the last byte (exclusive)
+     */
+    public ByteCharSequence( ByteBuffer buffer, int start, int end ) {
+        set( buffer, start, end );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // CharSequence
+    ////////////////////////////////////////////////////////////////////////////
+
+    public int length() {
+        return length;
+    }
+
+
+    public char charAt( int index ) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException( "Index " + index );
+
+        return (char)(buffer.get( offset + index ) & 0xff);
+    }
+
+
+    /**
+     * Returns a subsequence - it is a new String, so use this method only in slow paths.
+     */
+    public CharSequence subSequence( int start, int end ) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException( "Range " + start + ".." + end );
+        }
+
+        char[] chars = new char[ end - start ];
+
+        for (int i=0; i < chars.length; i++) chars[ i ] = (char)(buffer.get( offset + start + i ) & 0xff);
+
+        return new String( chars );
+    }
+
+
+    @Override
+    public String toString() {
+        return subSequence( 0, length ).toString();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets the viewed part of a buffer.
+     * The position and limit of the buffer are not used nor changed.
+     * @param buffer the buffer
+     * @param start the absolute index of the first byte (inclusive)
+     * @param end the absolute index of the last byte (exclusive)
+     */
+    public void set( ByteBuffer buffer, int start, int end ) {
+        if (buffer == null) throw new NullPointerException( "Missing buffer param" );
+        if (start < 0 || end > buffer.capacity() || start > end) {
+            throw new IndexOutOfBoundsException( "Range " + start + ".." + end );
+        }
+
+        this.buffer = buffer;
+        this.offset = start;
+        this.length = end - start;
+    }
+
+}
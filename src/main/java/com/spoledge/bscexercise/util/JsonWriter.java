@@ -0,0 +1,211 @@
+package com.spoledge.bscexercise.util;
+
+import com.spoledge.bscexercise.model.Money;
+
+
+/**
+ * A minimal streaming JSON writer which writes to a report buffer.
+ * It takes care of the separators and escaping, but it does not validate
+ * the structure - the caller is responsible for the pairing of begin/end calls
+ * and for calling name() before each value inside an object.
+ * <pre>
+ *  JsonWriter json = new JsonWriter( buffer );
+ *  json.beginObject().name( "tx" ).value( 5 ).endObject();
+ * </pre>
+ *
+ * This class is not thread safe.
+ */
+public final class JsonWriter {
+
+    private static final int MAX_DEPTH = 32;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ReportBuffer out;
+
+    /**
+     * Flags whether the current container of each level already has an item.
+     */
+    private final boolean[] hasItem = new boolean[ MAX_DEPTH ];
+    private int depth;
+
+    /**
+     * True if the name was just written, so the next value must not be separated.
+     */
+    private boolean afterName;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new writer.
+     * @param out the output buffer
+     */
+    public JsonWriter( ReportBuffer out ) {
+        this.out = out;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Resets the state, so a new top-level value can be written.
+     */
+    public void reset() {
+        depth = 0;
+        afterName = false;
+    }
+
+
+    public JsonWriter beginObject() {
+        return begin( '{' );
+    }
+
+
+    public JsonWriter endObject() {
+        return end( '}' );
+    }
+
+
+    public JsonWriter beginArray() {
+        return begin( '[' );
+    }
+
+
+    public JsonWriter endArray() {
+        return end( ']' );
+    }
+
+
+    /**
+     * Writes the name of the next member of an object.
+     */
+    public JsonWriter name( CharSequence name ) {
+        separate();
+        string( name );
+        out.append( ':' );
+        afterName = true;
+
+        return this;
+    }
+
+
+    public JsonWriter value( CharSequence value ) {
+        if (value == null) return nullValue();
+
+        separate();
+        string( value );
+
+        return this;
+    }
+
+
+    public JsonWriter value( long value ) {
+        separate();
+        out.append( value );
+
+        return this;
+    }
+
+
+    /**
+     * Writes the amount of the money as a number (in the plain decimal format).
+     */
+    public JsonWriter amount( Money money ) {
+        if (money == null) return nullValue();
+
+        separate();
+        out.appendAmount( money );
+
+        return this;
+    }
+
+
+    public JsonWriter nullValue() {
+        separate();
+        out.append( "null" );
+
+        return this;
+    }
+
+
+    /**
+     * Writes a quoted and escaped JSON string.
+     * The characters above 0x7f are escaped as well, so the output is pure ASCII.
+     */
+    public static void appendString( ReportBuffer out, CharSequence s ) {
+        out.append( '"' );
+
+        for (int i=0; i < s.length(); i++) {
+            char c = s.charAt( i );
+
+            switch (c) {
+                case '"': out.append( "\\\"" ); break;
+                case '\\': out.append( "\\\\" ); break;
+                case '\n': out.append( "\\n" ); break;
+                case '\r': out.append( "\\r" ); break;
+                case '\t': out.append( "\\t" ); break;
+                default:
+                    if (c < 0x20 || c >= 0x7f) {
+                        out.append( "\\u" )
+                            .append( HEX[ (c >> 12) & 0xf ] ).append( HEX[ (c >> 8) & 0xf ] )
+                            .append( HEX[ (c >> 4) & 0xf ] ).append( HEX[ c & 0xf ] );
+                    }
+                    else out.append( c );
+            }
+        }
+
+        out.append( '"' );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private JsonWriter begin( char c ) {
+        if (depth == MAX_DEPTH) throw new IllegalStateException( "Too deep" );
+
+        separate();
+        out.append( c );
+        hasItem[ depth++ ] = false;
+
+        return this;
+    }
+
+
+    private JsonWriter end( char c ) {
+        if (depth == 0) throw new IllegalStateException( "Nothing to end" );
+
+        depth--;
+        out.append( c );
+
+        return this;
+    }
+
+
+    /**
+     * Writes the comma if the current container already has an item.
+     */
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+
+        if (depth > 0) {
+            if (hasItem[ depth - 1 ]) out.append( ',' );
+            else hasItem[ depth - 1 ] = true;
+        }
+    }
+
+
+    private void string( CharSequence s ) {
+        appendString( out, s );
+    }
+
+}
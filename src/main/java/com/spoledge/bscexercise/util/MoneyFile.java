@@ -3,10 +3,24 @@ package com.spoledge.bscexercise.util;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -14,6 +28,7 @@ import org.apache.commons.logging.LogFactory;
 import com.spoledge.bscexercise.MoneyParseException;
 import com.spoledge.bscexercise.MoneyParser;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
 
 
 /**
@@ -27,6 +42,10 @@ import com.spoledge.bscexercise.model.Money;
  * <pre>
  *  MoneyFile mf = new MoneyFile( ... );
  *  try {
+ *      // either fetch all records at once:
+ *      List&lt;Money&gt; all = mf.fetchAll();
+ *
+ *      // or
  *      // optionally validate
  *      if (shouldValidate) mf.validate();
  *
@@ -45,6 +64,17 @@ import com.spoledge.bscexercise.model.Money;
  */
 public class MoneyFile {
 
+    /**
+     * The minimal size of a chunk parsed by one task of fetchBatch().
+     */
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    /**
+     * The maximal size of a chunk - it is mapped to memory at once.
+     */
+    private static final long MAX_CHUNK_SIZE = 1L << 28;
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Inner
     ////////////////////////////////////////////////////////////////////////////
@@ -111,6 +141,73 @@ public class MoneyFile {
     }
 
 
+    /**
+     * A part of the file parsed by one task of fetchBatch().
+     * It always starts at the beginning of a line and ends after a line separator
+     * (or at the end of the file).
+     */
+    class Chunk implements Callable<Chunk> {
+        final FileChannel channel;
+        final int order;
+        final long start;
+        final long end;
+        final AtomicInteger firstErrorChunk;
+
+        PaymentBatch batch = new PaymentBatch();
+        int lines;
+        MoneyParseException error;
+
+        Chunk( FileChannel channel, int order, long start, long end, AtomicInteger firstErrorChunk ) {
+            this.channel = channel;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+            this.firstErrorChunk = firstErrorChunk;
+        }
+
+        public Chunk call() throws IOException {
+            ByteBuffer buf = channel.map( FileChannel.MapMode.READ_ONLY, start, end - start );
+            ByteCharSequence seq = new ByteCharSequence();
+            int len = buf.limit();
+            int lineStart = 0;
+
+            // the same line separators as BufferedReader.readLine(): "\n", "\r" or "\r\n"
+            for (int i=0; i <= len; i++) {
+                if (i == len) {
+                    if (lineStart == len) break;
+                }
+                else {
+                    byte b = buf.get( i );
+                    if (b != '\n' && b != '\r') continue;
+                }
+
+                seq.set( buf, lineStart, i );
+                lines++;
+
+                try {
+                    batch.add( moneyParser.parseMoney( seq, 0, seq.length(), -1 ));
+                }
+                catch (MoneyParseException e) {
+                    error = e;
+
+                    int first;
+                    while ((first = firstErrorChunk.get()) > order && !firstErrorChunk.compareAndSet( first, order ));
+
+                    break;
+                }
+
+                if (i + 1 < len && buf.get( i ) == '\r' && buf.get( i + 1 ) == '\n') i++;
+                lineStart = i + 1;
+
+                // some previous chunk failed - our result is not needed:
+                if ((lines & 0x3ff) == 0 && firstErrorChunk.get() < order) break;
+            }
+
+            return this;
+        }
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Attributes
     ////////////////////////////////////////////////////////////////////////////
@@ -166,6 +263,106 @@ public class MoneyFile {
     }
 
 
+    /**
+     * Fetches all the data at once.
+     * Each line is read and parsed only once, so this is the cheaper alternative to
+     * calling validate() followed by fetch() when all records are needed anyway.
+     * @return all records of the file
+     * @throws MoneyParseException when any of the lines is invalid - no records are returned then
+     */
+    public List<Money> fetchAll() throws IOException, MoneyParseException {
+        ArrayList<Money> ret = new ArrayList<Money>();
+        boolean ok = false;
+
+        try {
+            for (Iterator<Money> iter = fetch(); iter.hasNext();) {
+                ret.add( iter.next());
+            }
+            ok = true;
+        }
+        finally {
+            close();
+
+            if (ok) log.info( "Successfully fetched " + ret.size() + " records from file '" + file + "'");
+            else log.warn( "Error detected in file '" + file + "' near line " + (ret.size()+1));
+        }
+
+        return ret;
+    }
+
+
+    /**
+     * Fetches the sums of all data at once using more threads.
+     * The file is memory-mapped and split into chunks on line boundaries.
+     * The chunks are parsed in parallel into per-chunk currency subtotals which are merged then.
+     * This is the fastest way of loading large files when the individual records are not needed.
+     * The money parser must be thread safe.
+     * @param parallelism the maximum number of threads
+     * @return the sums of all records of the file
+     * @throws MoneyParseException when any of the lines is invalid - the line number
+     *      is the same as it would be reported by fetch()
+     */
+    public PaymentBatch fetchBatch( int parallelism ) throws IOException, MoneyParseException {
+        return fetchBatch( parallelism, MIN_CHUNK_SIZE );
+    }
+
+
+    PaymentBatch fetchBatch( int parallelism, long minChunkSize ) throws IOException, MoneyParseException {
+        if (parallelism < 1) throw new IllegalArgumentException( "Invalid parallelism " + parallelism );
+
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        ExecutorService executor = null;
+
+        try {
+            FileChannel channel = raf.getChannel();
+            List<Chunk> chunks = split( channel, parallelism, minChunkSize );
+
+            executor = Executors.newFixedThreadPool( Math.min( parallelism, Math.max( 1, chunks.size())),
+                new ThreadFactory() {
+                    public Thread newThread( Runnable r ) {
+                        Thread t = new Thread( r, "MoneyFile-" + file.getName());
+                        t.setDaemon( true );
+                        return t;
+                    }
+                });
+
+            List<Future<Chunk>> results = executor.invokeAll( chunks );
+
+            PaymentBatch ret = new PaymentBatch();
+            int lines = 0;
+
+            for (Future<Chunk> result : results) {
+                Chunk chunk = getChunk( result );
+
+                if (chunk.error != null) {
+                    // numbered the same way as by the MoneyIterator:
+                    int lineNumber = lines + chunk.lines + 1;
+
+                    log.warn( "Error detected in file '" + file + "' near line " + lineNumber );
+
+                    throw new MoneyParseException( chunk.error.getMessage(), lineNumber );
+                }
+
+                lines += chunk.lines;
+                ret.addAll( chunk.batch );
+            }
+
+            log.info( "Successfully fetched " + lines + " records from file '" + file + "' in "
+                        + chunks.size() + " chunks" );
+
+            return ret;
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException( "Interrupted while loading file '" + file + "'" );
+        }
+        finally {
+            if (executor != null) executor.shutdownNow();
+
+            try { raf.close(); } catch (IOException e) {}
+        }
+    }
+
+
     /**
      * Fetches the data incrementally.
      */
@@ -194,6 +391,76 @@ public class MoneyFile {
     }
 
 
+    /**
+     * Splits the file into chunks on line boundaries.
+     */
+    private List<Chunk> split( FileChannel channel, int parallelism, long minChunkSize ) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min( MAX_CHUNK_SIZE, Math.max( minChunkSize, size / (parallelism * 4L) + 1 ));
+
+        ArrayList<Chunk> ret = new ArrayList<Chunk>();
+        AtomicInteger firstErrorChunk = new AtomicInteger( Integer.MAX_VALUE );
+        ByteBuffer buf = ByteBuffer.allocate( 4096 );
+        long start = 0;
+
+        while (start < size) {
+            long end = start + chunkSize;
+
+            if (end >= size) {
+                end = size;
+            }
+            else {
+                // find the end of the line:
+                boolean found = false;
+
+                while (!found && end < size) {
+                    buf.clear();
+                    int n = channel.read( buf, end );
+
+                    if (n <= 0) break;
+
+                    for (int i=0; i < n; i++) {
+                        if (buf.get( i ) == '\n') {
+                            end += i + 1;
+                            found = true;
+                            break;
+                        }
+                    }
+
+                    if (!found) end += n;
+                }
+
+                if (!found) end = size;
+                if (end - start > Integer.MAX_VALUE) throw new IOException( "Too long line in file '" + file + "'" );
+            }
+
+            ret.add( new Chunk( channel, ret.size(), start, end, firstErrorChunk ));
+            start = end;
+        }
+
+        return ret;
+    }
+
+
+    private Chunk getChunk( Future<Chunk> result ) throws IOException {
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException( "Interrupted while loading file '" + file + "'" );
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+
+            throw new RuntimeException( cause );
+        }
+    }
+
+
     /**
      * Closes any opened resources.
      * This method can be called even if no file has been opened.
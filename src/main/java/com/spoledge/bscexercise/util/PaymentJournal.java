@@ -0,0 +1,622 @@
+package com.spoledge.bscexercise.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.spoledge.bscexercise.PaymentProcessor;
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.MoneySum;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+
+/**
+ * An append-only journal of registered payments.
+ * Each record contains the id of the first transaction, the number of payments
+ * and one sum per currency (a single payment is a record of one payment).
+ * The records are protected by CRC32, so a record torn by a crash
+ * is detected during the recovery and cut off. A damaged record which is not
+ * the last one is a corruption - the recovery fails and the file is left untouched.
+ * <p>
+ * The appending itself must be serialized by the caller (the records must
+ * be written in the order of the transaction ids), but the sync() method
+ * can be called concurrently - the fsync is shared by all callers waiting
+ * at the same moment (group commit).
+ * </p>
+ * <pre>
+ *  PaymentJournal journal = new PaymentJournal( file );
+ *  int lastTxId = journal.open( processor, 0 );
+ *  ...
+ *  synchronized (lock) {
+ *      position = journal.append( ++lastTxId, payment );
+ *  }
+ *  journal.sync( position );
+ *  ...
+ *  journal.close();
+ * </pre>
+ */
+public class PaymentJournal {
+
+    /**
+     * The file header - magic "BSCJ" and version 1.
+     */
+    private static final int MAGIC = 0x4253434a;
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the file header.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * The maximal size of the payload of one record.
+     */
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+
+    private static final byte COMPACT = 0;
+    private static final byte DECIMAL = 1;
+
+    private static final Log log = LogFactory.getLog( PaymentJournal.class );
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Attributes
+    ////////////////////////////////////////////////////////////////////////////
+
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    private ByteBuffer buffer = ByteBuffer.allocate( 256 );
+    private CRC32 crc = new CRC32();
+
+    private boolean syncEnabled = true;
+    private long groupCommitDelay;
+
+    /**
+     * The logical end of the written data - updated after each append.
+     * The logical positions never decrease, even when the journal is truncated,
+     * so they can be compared by the threads waiting for the sync.
+     */
+    private volatile long writtenPosition;
+
+    /**
+     * The number of bytes removed by truncate() - physical position = logical - truncatedBytes.
+     */
+    private long truncatedBytes;
+
+    /**
+     * The position up to which the data are known to be on the disk.
+     * Guarded by syncLock.
+     */
+    private long syncedPosition;
+    private boolean syncing;
+
+    /**
+     * The failure of a previous fsync - guarded by syncLock.
+     * The records not synced before it are never reported as durable,
+     * because a later fsync could succeed even when their data were lost.
+     */
+    private IOException syncFailure;
+
+    private final Object syncLock = new Object();
+
+    /**
+     * The last transaction id found during the replay.
+     */
+    private int lastTransationId;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new journal.
+     * @param file the journal file - it is created when opened if it does not exist
+     */
+    public PaymentJournal( File file ) {
+        if (file == null) throw new NullPointerException( "Missing file" );
+
+        this.file = file;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    public File getFile() {
+        return file;
+    }
+
+
+    public boolean isSyncEnabled() {
+        return syncEnabled;
+    }
+
+
+    /**
+     * Enables or disables the fsync.
+     * When disabled, then the records are only written to the OS,
+     * so they survive a crash of the application, but not a crash of the system.
+     * The default is true.
+     */
+    public void setSyncEnabled( boolean syncEnabled ) {
+        this.syncEnabled = syncEnabled;
+    }
+
+
+    public long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+
+    /**
+     * Sets the time in millis the syncing thread waits before the fsync,
+     * so more records can be committed by one fsync.
+     * The default is 0 - the records appended during the previous fsync
+     * are committed together anyway.
+     */
+    public void setGroupCommitDelay( long groupCommitDelay ) {
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
+
+    /**
+     * Opens the journal and replays all the valid records to the processor.
+     * The records of transactions already contained in the processor
+     * (up to the given last transaction id) are skipped.
+     * An incomplete or damaged last record (running to the end of the file, e.g. torn by a crash)
+     * is cut off.
+     * @param processor the target processor
+     * @param lastTransationId the last transaction id already contained in the processor
+     * @return the last transaction id after the replay
+     * @throws IOException when the file cannot be read, a record before the last one is damaged
+     *  or the transaction ids do not follow
+     */
+    public int open( PaymentProcessor processor, int lastTransationId ) throws IOException {
+        if (channel != null) throw new IllegalStateException( "Journal already opened" );
+
+        this.lastTransationId = lastTransationId;
+
+        long validLength = file.exists() ? replay( processor ) : 0;
+
+        raf = new RandomAccessFile( file, "rw" );
+        channel = raf.getChannel();
+
+        try {
+            if (validLength == 0) {
+                ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+                header.putInt( MAGIC ).putInt( VERSION ).flip();
+
+                channel.truncate( 0 );
+                writeFully( header, 0 );
+                channel.force( true );
+                validLength = HEADER_SIZE;
+            }
+            else if (validLength < channel.size()) {
+                log.warn( "Cutting off " + (channel.size() - validLength) + " bytes of incomplete journal records" );
+
+                channel.truncate( validLength );
+                channel.force( true );
+            }
+        }
+        catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        channel.position( validLength );
+        writtenPosition = validLength;
+        syncedPosition = validLength;
+        syncFailure = null;
+        truncatedBytes = 0;
+
+        return this.lastTransationId;
+    }
+
+
+    /**
+     * Appends a record of a single payment.
+     * The calls of the append methods must be serialized by the caller.
+     * @param transactionId the transaction id of the payment
+     * @param payment the payment
+     * @return the position which must be passed to sync() to make the record durable
+     */
+    public long append( int transactionId, Money payment ) throws IOException {
+        ByteBuffer buf = startRecord( transactionId, 1, 1, payment.isCompact() ? 0 : payment.getAmount().unscaledValue().bitLength());
+
+        putMoney( buf, payment );
+
+        return endRecord( buf );
+    }
+
+
+    /**
+     * Appends a record of a batch of payments.
+     * The calls of the append methods must be serialized by the caller.
+     * @param firstTransactionId the transaction id of the first payment of the batch
+     * @param batch the batch
+     * @return the position which must be passed to sync() to make the record durable
+     */
+    public long append( int firstTransactionId, PaymentBatch batch ) throws IOException {
+        int n = batch.getCurrencyCount();
+        int bits = 0;
+
+        for (int i=0; i < n; i++) {
+            MoneySum sum = batch.getSum( i );
+
+            if (!sum.isCompact()) bits += sum.getAmount().unscaledValue().bitLength();
+        }
+
+        ByteBuffer buf = startRecord( firstTransactionId, batch.getCount(), n, bits );
+
+        for (int i=0; i < n; i++) {
+            MoneySum sum = batch.getSum( i );
+
+            if (sum.isCompact()) putCompact( buf, sum.getCurrency(), sum.getUnscaledAmount(), sum.getScale());
+            else putDecimal( buf, sum.getCurrency(), sum.getAmount());
+        }
+
+        return endRecord( buf );
+    }
+
+
+    /**
+     * Removes all the records from the journal.
+     * This must be called only when all the records are stored durably
+     * elsewhere (e.g. in a snapshot of the balances) and it must be serialized
+     * with the append methods. The truncation is synced to the disk even when the sync
+     * is disabled. The threads waiting for the sync of the removed records are released.
+     */
+    public void truncate() throws IOException {
+        if (channel == null) throw new IllegalStateException( "Journal not opened" );
+
+        long length = writtenPosition - truncatedBytes;
+
+        channel.truncate( HEADER_SIZE );
+        truncatedBytes += length - HEADER_SIZE;
+
+        // always on the disk - the records could be lost by a crash otherwise, when the truncation
+        // survived, but the snapshot containing them did not:
+        channel.force( true );
+
+        synchronized( syncLock ) {
+            if (writtenPosition > syncedPosition) syncedPosition = writtenPosition;
+            syncLock.notifyAll();
+        }
+    }
+
+
+    /**
+     * Returns the current size of the journal file.
+     */
+    public long getSize() {
+        return writtenPosition - truncatedBytes;
+    }
+
+
+    /**
+     * Returns the logical position of the end of the written records.
+     */
+    public long getWrittenPosition() {
+        return writtenPosition;
+    }
+
+
+    /**
+     * Waits until all the records up to the position are on the disk.
+     * If no other thread is syncing, then this thread does the fsync for all records
+     * written so far - otherwise it waits for the syncing thread and then
+     * (if still needed) it does the next fsync.
+     * Does nothing when the sync is disabled.
+     * When an fsync fails, then all the following calls fail too (for the records not synced before).
+     * @param position the position returned by the append method
+     */
+    public void sync( long position ) throws IOException {
+        if (!syncEnabled) return;
+
+        while (true) {
+            synchronized( syncLock ) {
+                while (syncing && syncedPosition < position) {
+                    try {
+                        syncLock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        throw new InterruptedIOException( "Interrupted while waiting for sync" );
+                    }
+                }
+
+                if (syncedPosition >= position) return;
+
+                if (syncFailure != null) {
+                    throw new IOException( "Journal sync failed before: " + syncFailure, syncFailure );
+                }
+
+                syncing = true;
+            }
+
+            long target = 0;
+            boolean ok = false;
+            IOException failure = null;
+
+            try {
+                if (groupCommitDelay > 0) {
+                    try {
+                        Thread.sleep( groupCommitDelay );
+                    }
+                    catch (InterruptedException e) {
+                        throw new InterruptedIOException( "Interrupted while waiting for group commit" );
+                    }
+                }
+
+                // all records written before this point will be synced:
+                target = writtenPosition;
+
+                try {
+                    channel.force( false );
+                }
+                catch (IOException e) {
+                    failure = e;
+                    throw e;
+                }
+
+                ok = true;
+            }
+            finally {
+                synchronized( syncLock ) {
+                    syncing = false;
+                    if (ok && target > syncedPosition) syncedPosition = target;
+                    if (failure != null) syncFailure = failure;
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Closes the journal.
+     */
+    public void close() throws IOException {
+        if (raf == null) return;
+
+        try {
+            if (syncEnabled && channel.isOpen()) channel.force( false );
+        }
+        finally {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Reads the records and registers them.
+     * @return the length of the valid part of the file - 0 if there is no valid header
+     */
+    private long replay( PaymentProcessor processor ) throws IOException {
+        long fileLength = file.length();
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ));
+        long position = 0;
+        int records = 0;
+
+        try {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException( "File " + file + " is not a payment journal" );
+                }
+            }
+            catch (EOFException e) {
+                // an empty or incomplete header - nothing was ever committed:
+                return 0;
+            }
+
+            position = HEADER_SIZE;
+
+            byte[] data = new byte[ 256 ];
+
+            while (true) {
+                int length;
+
+                try {
+                    length = in.readInt();
+
+                    if (length < 10 || length > MAX_RECORD_SIZE) {
+                        // torn only if no complete record could follow:
+                        if (position + 4 + 10 + 4 > fileLength || position + 4 + (long) length + 4 > fileLength) break;
+
+                        throw corrupted( position, "invalid length " + length );
+                    }
+
+                    if (data.length < length) data = new byte[ length ];
+
+                    in.readFully( data, 0, length );
+
+                    crc.reset();
+                    crc.update( data, 0, length );
+
+                    if (in.readInt() != (int) crc.getValue()) {
+                        if (position + 4 + length + 4 == fileLength) break;
+
+                        throw corrupted( position, "invalid CRC" );
+                    }
+                }
+                catch (EOFException e) {
+                    // the last record is incomplete:
+                    break;
+                }
+
+                replayRecord( processor, ByteBuffer.wrap( data, 0, length ));
+                position += 4 + length + 4;
+                records++;
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        log.info( "Replayed " + records + " journal records, last transaction id is " + this.lastTransationId );
+
+        return position;
+    }
+
+
+    private IOException corrupted( long position, String reason ) {
+        return new IOException( "Corrupted journal record at position " + position + " in " + file
+            + " (" + reason + ") - the journal must be repaired manually" );
+    }
+
+
+    private void replayRecord( PaymentProcessor processor, ByteBuffer buf ) throws IOException {
+        int firstTransactionId = buf.getInt();
+        int count = buf.getInt();
+        int n = buf.getShort() & 0xffff;
+
+        if (firstTransactionId <= lastTransationId) {
+            // already contained in the processor:
+            return;
+        }
+
+        if (firstTransactionId != lastTransationId + 1) {
+            throw new IOException( "Missing transactions " + (lastTransationId + 1) + ".." + (firstTransactionId - 1)
+                + " in journal " + file );
+        }
+
+        PaymentBatch batch = new PaymentBatch();
+
+        for (int i=0; i < n; i++) {
+            batch.add( getMoney( buf ), i == 0 ? count : 0 );
+        }
+
+        if (count == 1 && n == 1) processor.registerPayment( batch.getSum( 0 ).toMoney());
+        else processor.registerPayments( batch );
+
+        lastTransationId += count;
+    }
+
+
+    /**
+     * Prepares the buffer for a new record.
+     * @param bits the number of bits of all non-compact amounts
+     */
+    private ByteBuffer startRecord( int firstTransactionId, int count, int n, int bits ) {
+        if (channel == null) throw new IllegalStateException( "Journal not opened" );
+
+        // length + header + money + crc:
+        int size = 4 + 10 + moneySize( n, bits ) + 4;
+
+        if (buffer.capacity() < size) buffer = ByteBuffer.allocate( Math.max( size, buffer.capacity() * 2 ));
+
+        ByteBuffer buf = buffer;
+        buf.clear();
+        buf.putInt( 0 );
+        buf.putInt( firstTransactionId );
+        buf.putInt( count );
+        buf.putShort( (short) n );
+
+        return buf;
+    }
+
+
+    /**
+     * Returns the maximal size of n encoded money values.
+     * @param bits the number of bits of all non-compact amounts
+     */
+    static int moneySize( int n, int bits ) {
+        // (currency + type + scale + long/length) + decimal bytes:
+        return n * 15 + (bits / 8 + n);
+    }
+
+
+    static void putMoney( ByteBuffer buf, Money money ) {
+        if (money.isCompact()) putCompact( buf, money.getCurrency(), money.getUnscaledAmount(), money.getScale());
+        else putDecimal( buf, money.getCurrency(), money.getAmount());
+    }
+
+
+    static Money getMoney( ByteBuffer buf ) {
+        Curr currency = Curr.getInstance( buf.getShort() & 0xffff );
+        byte type = buf.get();
+        int scale = buf.getInt();
+
+        if (type == COMPACT) return new Money( currency, buf.getLong(), scale );
+
+        byte[] bytes = new byte[ buf.getInt() ];
+        buf.get( bytes );
+
+        return new Money( currency, new BigDecimal( new BigInteger( bytes ), scale ));
+    }
+
+
+    static void putCompact( ByteBuffer buf, Curr currency, long unscaledAmount, int scale ) {
+        buf.putShort( (short) currency.getIndex());
+        buf.put( COMPACT );
+        buf.putInt( scale );
+        buf.putLong( unscaledAmount );
+    }
+
+
+    static void putDecimal( ByteBuffer buf, Curr currency, BigDecimal amount ) {
+        byte[] bytes = amount.unscaledValue().toByteArray();
+
+        buf.putShort( (short) currency.getIndex());
+        buf.put( DECIMAL );
+        buf.putInt( amount.scale());
+        buf.putInt( bytes.length );
+        buf.put( bytes );
+    }
+
+
+    /**
+     * Fills the length and the CRC and writes the record.
+     * @return the position after the record
+     */
+    private long endRecord( ByteBuffer buf ) throws IOException {
+        int length = buf.position() - 4;
+
+        buf.putInt( 0, length );
+
+        crc.reset();
+        crc.update( buf.array(), buf.arrayOffset() + 4, length );
+        buf.putInt( (int) crc.getValue());
+        buf.flip();
+
+        long position = writtenPosition;
+
+        writeFully( buf, position - truncatedBytes );
+
+        return writtenPosition = position + buf.limit();
+    }
+
+
+    private void writeFully( ByteBuffer buf, long position ) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write( buf, position );
+        }
+    }
+
+}
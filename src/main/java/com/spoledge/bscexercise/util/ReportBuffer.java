@@ -0,0 +1,273 @@
+package com.spoledge.bscexercise.util;
+
+import java.nio.ByteBuffer;
+
+import java.util.Arrays;
+
+import com.spoledge.bscexercise.model.Money;
+
+
+/**
+ * A growable byte buffer for building reports.
+ * The buffer is intended to be reused for many reports, so once it grows
+ * to the size of a typical report, building the next reports does not allocate
+ * (except of the amounts which are not compact).
+ * <p>
+ * The text methods write ASCII characters (the characters above 0x7f are replaced
+ * by '?'), the binary methods write big-endian numbers and the money in the same
+ * encoding as the payment journal.
+ * </p>
+ * This class is not thread safe.
+ */
+public final class ReportBuffer {
+
+    private byte[] data;
+    private int length;
+
+    /**
+     * The view of the data used for the binary encoding of money.
+     */
+    private ByteBuffer view;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a new buffer of the default initial capacity.
+     */
+    public ReportBuffer() {
+        this( 1024 );
+    }
+
+
+    /**
+     * Creates a new buffer.
+     * @param capacity the initial capacity in bytes
+     */
+    public ReportBuffer( int capacity ) {
+        data = new byte[ Math.max( 16, capacity ) ];
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the internal array - valid until the buffer grows.
+     */
+    public byte[] array() {
+        return data;
+    }
+
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public int length() {
+        return length;
+    }
+
+
+    /**
+     * Discards all written bytes, but keeps the allocated space.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+
+    /**
+     * Appends one ASCII character.
+     */
+    public ReportBuffer append( char c ) {
+        ensureCapacity( 1 );
+        data[ length++ ] = c < 0x80 ? (byte) c : (byte) '?';
+
+        return this;
+    }
+
+
+    /**
+     * Appends ASCII characters.
+     */
+    public ReportBuffer append( CharSequence s ) {
+        int n = s.length();
+        ensureCapacity( n );
+
+        for (int i=0; i < n; i++) {
+            char c = s.charAt( i );
+            data[ length++ ] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Appends the decimal representation of the number.
+     */
+    public ReportBuffer append( long value ) {
+        if (value == Long.MIN_VALUE) return append( "-9223372036854775808" );
+
+        if (value < 0) {
+            append( '-' );
+            value = -value;
+        }
+
+        int n = digits( value );
+        ensureCapacity( n );
+
+        for (int i=length + n - 1; i >= length; i--) {
+            data[ i ] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        length += n;
+
+        return this;
+    }
+
+
+    /**
+     * Appends the amount of the money in the plain decimal format (as BigDecimal.toPlainString()).
+     * The compact amounts are formatted without any allocation.
+     */
+    public ReportBuffer appendAmount( Money money ) {
+        if (!money.isCompact() || money.getScale() < 0 || money.getUnscaledAmount() == Long.MIN_VALUE) {
+            return append( money.getAmount().toPlainString());
+        }
+
+        long value = money.getUnscaledAmount();
+        int scale = money.getScale();
+
+        if (scale == 0) return append( value );
+
+        if (value < 0) {
+            append( '-' );
+            value = -value;
+        }
+
+        int n = digits( value );
+        int total = n > scale ? n + 1 : scale + 2;
+        int dot = length + total - scale - 1;
+
+        ensureCapacity( total );
+
+        for (int i=length + total - 1; i >= length; i--) {
+            if (i == dot) {
+                data[ i ] = '.';
+            }
+            else {
+                data[ i ] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+
+        length += total;
+
+        return this;
+    }
+
+
+    public ReportBuffer putByte( int value ) {
+        ensureCapacity( 1 );
+        data[ length++ ] = (byte) value;
+
+        return this;
+    }
+
+
+    public ReportBuffer putShort( int value ) {
+        ensureCapacity( 2 );
+        data[ length++ ] = (byte) (value >> 8);
+        data[ length++ ] = (byte) value;
+
+        return this;
+    }
+
+
+    public ReportBuffer putInt( int value ) {
+        ensureCapacity( 4 );
+        data[ length++ ] = (byte) (value >> 24);
+        data[ length++ ] = (byte) (value >> 16);
+        data[ length++ ] = (byte) (value >> 8);
+        data[ length++ ] = (byte) value;
+
+        return this;
+    }
+
+
+    /**
+     * Writes the int value at the given position (e.g. a length of a frame written later).
+     */
+    public void setInt( int position, int value ) {
+        if (position < 0 || position + 4 > length) throw new IndexOutOfBoundsException( "Position " + position );
+
+        data[ position ] = (byte) (value >> 24);
+        data[ position + 1 ] = (byte) (value >> 16);
+        data[ position + 2 ] = (byte) (value >> 8);
+        data[ position + 3 ] = (byte) value;
+    }
+
+
+    /**
+     * Writes the money in the binary encoding of the payment journal.
+     */
+    public ReportBuffer putMoney( Money money ) {
+        int bits = money.isCompact() ? 0 : money.getAmount().unscaledValue().bitLength();
+
+        ensureCapacity( PaymentJournal.moneySize( 1, bits ));
+
+        view.clear();
+        view.position( length );
+        PaymentJournal.putMoney( view, money );
+        length = view.position();
+
+        return this;
+    }
+
+
+    /**
+     * Appends the bytes.
+     */
+    public ReportBuffer put( byte[] src, int offset, int len ) {
+        ensureCapacity( len );
+        System.arraycopy( src, offset, data, length, len );
+        length += len;
+
+        return this;
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void ensureCapacity( int n ) {
+        if (length + n > data.length) {
+            data = Arrays.copyOf( data, Math.max( data.length * 2, length + n ));
+            view = null;
+        }
+
+        if (view == null) view = ByteBuffer.wrap( data );
+    }
+
+
+    /**
+     * Returns the number of decimal digits of a non-negative number.
+     */
+    private static int digits( long value ) {
+        int ret = 1;
+
+        while (value >= 10) {
+            value /= 10;
+            ret++;
+        }
+
+        return ret;
+    }
+
+}
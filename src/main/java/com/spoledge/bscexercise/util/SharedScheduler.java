@@ -0,0 +1,57 @@
+package com.spoledge.bscexercise.util;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The scheduled executor shared by all periodic tasks of the application
+ * (reporters, file watchers etc.), so each of them does not need its own thread.
+ * The threads are daemons, so they do not block the exit of the application.
+ * <p>
+ * The tasks should not block the threads for long - a long running task delays
+ * the other tasks when all threads are busy.
+ * </p>
+ */
+public final class SharedScheduler {
+
+    private static ScheduledExecutorService instance;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Constructors
+    ////////////////////////////////////////////////////////////////////////////
+
+    private SharedScheduler() {
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Public
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the shared executor - creates it on the first call.
+     */
+    public static synchronized ScheduledExecutorService getInstance() {
+        if (instance == null) {
+            int size = Math.max( 2, Runtime.getRuntime().availableProcessors());
+
+            instance = new ScheduledThreadPoolExecutor( size, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread( Runnable r ) {
+                    Thread ret = new Thread( r, "SharedScheduler-" + counter.incrementAndGet());
+                    ret.setDaemon( true );
+
+                    return ret;
+                }
+            });
+        }
+
+        return instance;
+    }
+
+}
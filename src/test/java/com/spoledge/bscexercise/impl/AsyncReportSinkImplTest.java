@@ -0,0 +1,208 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.ReportSink;
+
+
+public class AsyncReportSinkImplTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A target which can be blocked until released.
+     */
+    private static class MySink implements ReportSink {
+        final List<String> written = new ArrayList<String>();
+        final CountDownLatch entered = new CountDownLatch( 1 );
+        final CountDownLatch release;
+        boolean closed;
+
+        MySink( boolean blocked ) {
+            release = new CountDownLatch( blocked ? 1 : 0 );
+        }
+
+        public void write( String report ) {
+            entered.countDown();
+
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+            }
+
+            synchronized (this) {
+                written.add( report );
+            }
+        }
+
+        public void write( byte[] data, int offset, int length ) {
+            try {
+                write( new String( data, offset, length, "UTF-8" ));
+            }
+            catch (java.io.UnsupportedEncodingException e) {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        public synchronized void close() {
+            closed = true;
+        }
+
+        synchronized String getAll() {
+            StringBuilder sb = new StringBuilder();
+
+            for (String s : written) sb.append( s );
+
+            return sb.toString();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testCloseWritesAll() throws Exception {
+        MySink target = new MySink( false );
+        AsyncReportSinkImpl impl = new AsyncReportSinkImpl( target );
+
+        for (int i=0; i < 10; i++) impl.write( "r" + i + ";" );
+
+        impl.close();
+
+        assertEquals( "written", "r0;r1;r2;r3;r4;r5;r6;r7;r8;r9;", target.getAll());
+        assertTrue( "target closed", target.closed );
+        assertEquals( "dropped", 0, impl.getDroppedReports());
+    }
+
+
+    @Test
+    public void testDrop() throws Exception {
+        MySink target = new MySink( true );
+        AsyncReportSinkImpl impl = new AsyncReportSinkImpl( target, 2, AsyncReportSinkImpl.OverflowPolicy.DROP );
+
+        // the writer takes the first one and gets stuck:
+        impl.write( "r0;" );
+        target.entered.await();
+
+        long start = System.currentTimeMillis();
+
+        for (int i=1; i < 6; i++) impl.write( "r" + i + ";" );
+
+        assertTrue( "not blocked", System.currentTimeMillis() - start < 1000 );
+        assertEquals( "dropped", 3, impl.getDroppedReports());
+        assertEquals( "queued", 2, impl.getQueueSize());
+
+        target.release.countDown();
+        impl.close();
+
+        // the queued reports are written in one batch:
+        assertEquals( "writes", 2, target.written.size());
+        assertEquals( "written", "r0;r1;r2;", target.getAll());
+    }
+
+
+    @Test
+    public void testBlock() throws Exception {
+        final MySink target = new MySink( true );
+        AsyncReportSinkImpl impl = new AsyncReportSinkImpl( target, 1, AsyncReportSinkImpl.OverflowPolicy.BLOCK );
+
+        impl.write( "r0;" );
+        target.entered.await();
+        impl.write( "r1;" );
+
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep( 200 );
+                }
+                catch (InterruptedException e) {
+                }
+
+                target.release.countDown();
+            }
+        }.start();
+
+        long start = System.currentTimeMillis();
+
+        impl.write( "r2;" );
+
+        assertTrue( "blocked", System.currentTimeMillis() - start >= 150 );
+
+        impl.close();
+
+        assertEquals( "written", "r0;r1;r2;", target.getAll());
+        assertEquals( "dropped", 0, impl.getDroppedReports());
+    }
+
+
+    @Test
+    public void testConcurrentClose() throws Exception {
+        final MySink target = new MySink( false );
+        final AsyncReportSinkImpl impl = new AsyncReportSinkImpl( target, 1000, AsyncReportSinkImpl.OverflowPolicy.BLOCK );
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[ 4 ];
+
+        for (int i=0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            impl.write( "r;" );
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    catch (java.io.IOException e) {
+                        // closed
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        Thread.sleep( 50 );
+
+        Thread closer = new Thread() {
+            public void run() {
+                try {
+                    impl.close();
+                }
+                catch (java.io.IOException e) {
+                }
+            }
+        };
+        closer.start();
+        impl.close();
+        closer.join();
+
+        for (Thread thread : threads) thread.join();
+
+        // every accepted report was written:
+        assertEquals( "written", accepted.get() * 2, target.getAll().length());
+    }
+
+
+    @Test
+    public void testClosed() throws Exception {
+        AsyncReportSinkImpl impl = new AsyncReportSinkImpl( new MySink( false ));
+        impl.close();
+
+        try {
+            impl.write( "report" );
+            fail( "IOException expected" );
+        }
+        catch (java.io.IOException e) {
+        }
+    }
+
+}
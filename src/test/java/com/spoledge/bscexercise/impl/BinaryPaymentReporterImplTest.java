@@ -0,0 +1,92 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.ReportSink;
+import com.spoledge.bscexercise.model.Curr;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class BinaryPaymentReporterImplTest {
+
+    @Test
+    public void testGeneratePaymentReport() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MemoryPaymentProcessorImpl pp = new MemoryPaymentProcessorImpl();
+        FileCurrencyConverterImpl cc = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+
+        BinaryPaymentReporterImpl impl = new BinaryPaymentReporterImpl( new ReportSink() {
+            public void write( String report ) {
+                throw new UnsupportedOperationException();
+            }
+
+            public void write( byte[] data, int offset, int length ) {
+                bytes.write( data, offset, length );
+            }
+
+            public void close() {
+            }
+        });
+
+        rates.put( eur(), new BigDecimal( "1.25" ));
+        cc.setRates( rates );
+
+        impl.setPaymentProcessor( pp );
+        impl.setCurrencyConverter( cc );
+        impl.setTotalCurrencies( Arrays.asList( usd()));
+
+        pp.registerPayment( eur( "8" ));
+        pp.registerPayment( money( "GBP", "1" ));
+        impl.generatePaymentReport();
+        impl.generatePaymentReport();
+
+        ByteBuffer buf = ByteBuffer.wrap( bytes.toByteArray());
+
+        for (int frame=0; frame < 2; frame++) {
+            assertEquals( "magic", BinaryPaymentReporterImpl.MAGIC, buf.getInt());
+
+            int length = buf.getInt();
+            int start = buf.position();
+
+            assertEquals( "tx", 2, buf.getInt());
+            assertEquals( "balances", 2, buf.getShort());
+
+            assertMoney( "EUR", eur(), 8, 0, buf );
+            assertEquals( "EUR converted", 1, buf.get());
+            assertMoney( "EUR in USD", usd(), 1000, 2, buf );
+
+            assertMoney( "GBP", curr( "GBP" ), 1, 0, buf );
+            assertEquals( "GBP not converted", 0, buf.get());
+
+            assertEquals( "totals", 1, buf.getShort());
+            assertMoney( "total", usd(), 1000, 2, buf );
+            assertEquals( "missing", 1, buf.getInt());
+
+            assertEquals( "frame length", length, buf.position() - start );
+        }
+
+        assertFalse( "all read", buf.hasRemaining());
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void assertMoney( String msg, Curr curr, long unscaled, int scale, ByteBuffer buf ) {
+        assertEquals( msg + " currency", curr.getIndex(), buf.getShort());
+        assertEquals( msg + " compact", 0, buf.get());
+        assertEquals( msg + " scale", scale, buf.getInt());
+        assertEquals( msg + " amount", unscaled, buf.getLong());
+    }
+
+}
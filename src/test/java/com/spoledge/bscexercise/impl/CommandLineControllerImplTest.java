@@ -1,5 +1,13 @@
 package com.spoledge.bscexercise.impl;
 
+import java.io.File;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -25,12 +33,165 @@ public class CommandLineControllerImplTest {
     }
 
 
+    @Test
+    public void testPipedInput() throws Exception {
+        StringWriter out = new StringWriter();
+        CommandLineControllerImpl ctrl = ctrl( new StringReader( "USD 10\nEUR 5\n  USD 1  \n" ), out );
+
+        long start = System.currentTimeMillis();
+        ctrl.start();
+        waitFor( out, "Bye!" );
+
+        assertTrue( "no polling delay", System.currentTimeMillis() - start < 1000 );
+        assertEquals( "registered", 3, ctrl.getPaymentProcessor().getBalance().getLastTransationId());
+    }
+
+
+    @Test
+    public void testStopWhileWaiting() throws Exception {
+        StringWriter out = new StringWriter();
+        PipedWriter input = new PipedWriter();
+        CommandLineControllerImpl ctrl = ctrl( new PipedReader( input ), out );
+
+        ctrl.start();
+
+        input.write( "USD 10\n" );
+        input.flush();
+        waitFor( out, "tx[1]" );
+
+        long start = System.currentTimeMillis();
+        ctrl.stop();
+        waitFor( out, "Bye!" );
+
+        assertTrue( "stopped promptly", System.currentTimeMillis() - start < 1000 );
+
+        input.close();
+    }
+
+
+    @Test
+    public void testBatchMode() throws Exception {
+        StringBuilder sb = new StringBuilder( "help\n" );
+
+        for (int i=0; i < 1000; i++) sb.append( i % 2 == 0 ? "USD 1\n" : "  EUR   2 \n" );
+
+        sb.append( "USD 1.xx\n\nhelp\nUSD\t1\nCZK 10\n" );
+
+        StringWriter out = new StringWriter();
+        CommandLineControllerImpl ctrl = init( new CommandLineControllerImpl(
+                                                    new StringReader( sb.toString()), new PrintWriter( out )) {
+            private boolean first = true;
+
+            protected void processCmdHelp( String[] args ) {
+                // let the reader queue all lines before the payments are processed:
+                if (first) try { Thread.sleep( 200 ); } catch (InterruptedException e) {}
+
+                first = false;
+                super.processCmdHelp( args );
+            }
+        });
+        ctrl.setBatchSize( 100 );
+        ctrl.start();
+        waitFor( out, "Bye!" );
+
+        String output = out.toString();
+
+        // the line with a tab is processed as a command line - it is a valid payment too:
+        assertEquals( "registered", 1002, ctrl.getPaymentProcessor().getBalance().getLastTransationId());
+        assertEquals( "balance", "[CZK 10, EUR 1000, USD 501]",
+                        ctrl.getPaymentProcessor().getBalance().getAllMoney().toString());
+
+        assertTrue( output, output.contains( "ERROR - invalid payment format" ));
+        assertTrue( output, output.contains( "Please enter a payment" ));
+        assertTrue( output, output.contains( "Registered payment USD 1 as tx[1001]" ));
+        assertTrue( output, output.contains( "as tx[1002]" ));
+        assertFalse( output, output.contains( "unknown command" ));
+
+        // the payments are acknowledged per batch:
+        assertTrue( output, output.split( "Registered" ).length - 1 <= 1000 / 100 + 10 );
+    }
+
+
+    @Test
+    public void testBatchMode_quit() throws Exception {
+        for (int batchSize : new int[] { 0, 100 }) {
+            StringWriter out = new StringWriter();
+            CommandLineControllerImpl ctrl = ctrl( new StringReader( "USD 1\nquit\nUSD 2\nEUR 3\n" ), out );
+            ctrl.setBatchSize( batchSize );
+            ctrl.start();
+            waitFor( out, "Bye!" );
+
+            // the lines after quit are not processed:
+            assertEquals( "registered " + batchSize, 1, ctrl.getPaymentProcessor().getBalance().getLastTransationId());
+            assertEquals( "balance " + batchSize, "[USD 1]",
+                            ctrl.getPaymentProcessor().getBalance().getAllMoney().toString());
+        }
+    }
+
+
+    @Test
+    public void testStopFullQueue() throws Exception {
+        StringBuilder sb = new StringBuilder( "quit\n" );
+
+        for (int i=0; i < 2000; i++) sb.append( "USD 1\n" );
+
+        StringWriter out = new StringWriter();
+        CommandLineControllerImpl ctrl = init( new CommandLineControllerImpl(
+                                                    new StringReader( sb.toString()), new PrintWriter( out )) {
+            protected void processCmdQuit( String[] args ) {
+                // let the reader fill the queue:
+                try { Thread.sleep( 200 ); } catch (InterruptedException e) {}
+
+                super.processCmdQuit( args );
+            }
+        });
+
+        ctrl.start();
+        waitFor( out, "Bye!" );
+        assertEquals( "stopped", 0, ctrl.getPaymentProcessor().getLastTransationId());
+
+        // the queued lines were not discarded by the stop:
+        ctrl.start();
+
+        for (int i=0; i < 500 && ctrl.getPaymentProcessor().getLastTransationId() < 2000; i++) Thread.sleep( 10 );
+
+        assertEquals( "registered", 2000, ctrl.getPaymentProcessor().getLastTransationId());
+    }
+
+
+    @Test
+    public void testLoadFile() {
+        CommandLineControllerImpl ctrl = ctrl();
+
+        ctrl.loadFile( sample( "example.txt" ));
+        assertEquals( "loaded", 5, ctrl.getPaymentProcessor().getBalance().getLastTransationId());
+
+        ctrl.loadFile( sample( "wrong.txt" ));
+        assertEquals( "nothing loaded", 5, ctrl.getPaymentProcessor().getBalance().getLastTransationId());
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Private
     ////////////////////////////////////////////////////////////////////////////
 
+    private File sample( String name ) {
+        return new File( System.getProperty( "testSampleDir" ), name );
+    }
+
+
+
     private CommandLineControllerImpl ctrl() {
-        CommandLineControllerImpl ctrl = new CommandLineControllerImpl();
+        return init( new CommandLineControllerImpl());
+    }
+
+
+    private CommandLineControllerImpl ctrl( Reader in, StringWriter out ) {
+        return init( new CommandLineControllerImpl( in, new PrintWriter( out )));
+    }
+
+
+    private CommandLineControllerImpl init( CommandLineControllerImpl ctrl ) {
         ctrl.setPaymentProcessor( new MemoryPaymentProcessorImpl());
         ctrl.setPaymentReporter( new SimplePaymentReporterImpl());
         ctrl.setMoneyParser( new MoneyParserImpl());
@@ -38,4 +199,18 @@ public class CommandLineControllerImplTest {
         return ctrl;
     }
 
+
+    /**
+     * Waits until the output contains the text - fails after 5 seconds.
+     */
+    private void waitFor( StringWriter out, String text ) throws InterruptedException {
+        for (int i=0; i < 500; i++) {
+            if (out.toString().contains( text )) return;
+
+            Thread.sleep( 10 );
+        }
+
+        fail( "Missing '" + text + "' in " + out );
+    }
+
 }
@@ -0,0 +1,229 @@
+package com.spoledge.bscexercise.impl;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class ConcurrentPaymentProcessorImplTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testNewEmpty() {
+        ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl( 34 );
+
+        Balance balance = impl.getBalance();
+
+        assertNotNull( "balance", balance );
+        assertEquals( "last tx id", 34, balance.getLastTransationId());
+        assertEquals( "processor last tx id", 34, impl.getLastTransationId());
+        assertNotNull( "list of money", balance.getAllMoney());
+        assertTrue( "list of money empty", balance.getAllMoney().isEmpty());
+    }
+
+
+    @Test
+    public void testPayments() {
+        ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl();
+
+        assertEquals( "payment #", 1, impl.registerPayment( usd( "10" )));
+        assertEquals( "payment #", 2, impl.registerPayment( usd( "30" )));
+        assertEquals( "payment #", 3, impl.registerPayment( usd( "-0.01" )));
+        assertEquals( "payment #", 4, impl.registerPayment( eur( "-1" )));
+        assertEquals( "payment #", 5, impl.registerPayment( eur( "-0.50" )));
+
+        Balance balance = impl.getBalance();
+
+        assertEquals( "last tx id", 5, balance.getLastTransationId());
+        assertEquals( "size of list of money", 2, balance.getAllMoney().size());
+        assertEquals( "USD balance", new BigDecimal( "39.99" ), ofCurrencyAmount( balance.getAllMoney(), usd()));
+        assertEquals( "EUR balance", new BigDecimal( "-1.50" ), ofCurrencyAmount( balance.getAllMoney(), eur()));
+    }
+
+
+    @Test
+    public void testConcurrentPayments() throws Exception {
+        final ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl();
+        final String[] codes = { "USD", "EUR", "USD", "CZK" };
+        final int count = 10000;
+
+        Thread[] threads = new Thread[ codes.length ];
+
+        for (int i=0; i < threads.length; i++) {
+            final Money payment = money( codes[i], "0.01" );
+
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j=0; j < count; j++) impl.registerPayment( payment );
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        Balance balance = impl.getBalance();
+
+        assertEquals( "last tx id", codes.length * count, balance.getLastTransationId());
+        assertEquals( "processor last tx id", codes.length * count, impl.getLastTransationId());
+        assertEquals( "size of list of money", 3, balance.getAllMoney().size());
+        assertEquals( "USD balance", new BigDecimal( "200.00" ), ofCurrencyAmount( balance.getAllMoney(), usd()));
+        assertEquals( "EUR balance", new BigDecimal( "100.00" ), ofCurrencyAmount( balance.getAllMoney(), eur()));
+    }
+
+
+    @Test
+    public void testConcurrentFirstUse() throws Exception {
+        final ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl();
+        final Money[] payments = new Money[ 26 * 26 ];
+
+        for (int i=0; i < payments.length; i++) {
+            payments[i] = money( "Q" + (char)('A' + i / 26) + (char)('A' + i % 26), "1" );
+        }
+
+        // all feeders use the same new currencies at the same time:
+        Thread[] threads = new Thread[ 4 ];
+
+        for (int i=0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (Money payment : payments) impl.registerPayment( payment );
+                }
+            };
+        }
+
+        for (Thread thread : threads) thread.start();
+
+        boolean running = true;
+
+        while (running) {
+            running = false;
+
+            for (Thread thread : threads) running |= thread.isAlive();
+
+            Balance balance = impl.getBalance();
+            BigDecimal sum = BigDecimal.ZERO;
+
+            for (Money money : balance.getAllMoney()) sum = sum.add( money.getAmount());
+
+            // each payment is 1 - the balance contains all payments up to its transaction id:
+            assertTrue( "all payments up to tx " + balance.getLastTransationId() + ", but only " + sum,
+                sum.compareTo( BigDecimal.valueOf( balance.getLastTransationId())) >= 0 );
+        }
+
+        assertEquals( "currencies", payments.length, impl.getBalance().getAllMoney().size());
+    }
+
+
+    @Test
+    public void testRegisterPayments() {
+        ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl();
+
+        assertEquals( "payment #", 1, impl.registerPayment( usd( "10" )));
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( usd( "1.01" ));
+        batch.add( eur( "2" ));
+        batch.add( usd( "-0.01" ));
+
+        assertEquals( "first batch tx", 2, impl.registerPayments( batch ));
+        assertEquals( "next payment #", 5, impl.registerPayment( eur( "1" )));
+        assertEquals( "empty batch", 6, impl.registerPayments( new PaymentBatch()));
+
+        Balance balance = impl.getBalance();
+
+        assertEquals( "last tx id", 5, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "11.00" ), ofCurrency( balance.getAllMoney(), usd()).getAmount());
+        assertEquals( "EUR balance", 0, new BigDecimal( "3" ).compareTo( ofCurrency( balance.getAllMoney(), eur()).getAmount()));
+    }
+
+
+    @Test
+    public void testVersions() {
+        ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl();
+
+        impl.registerPayment( usd( "10" ));
+        impl.registerPayment( eur( "1" ));
+
+        Balance balance = impl.getBalance();
+        long usdVersion = versionOf( balance, usd());
+        long eurVersion = versionOf( balance, eur());
+
+        assertTrue( "USD version known", usdVersion != -1 );
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( eur( "2" ));
+        impl.registerPayments( batch );
+
+        balance = impl.getBalance();
+
+        assertEquals( "USD version unchanged", usdVersion, versionOf( balance, usd()));
+        assertTrue( "EUR version changed", eurVersion != versionOf( balance, eur()));
+    }
+
+
+    @Test
+    public void testSortedBalance() {
+        ConcurrentPaymentProcessorImpl impl = new ConcurrentPaymentProcessorImpl();
+
+        impl.registerPayment( usd( "1" ));
+        impl.registerPayment( money( "CZK", "1" ));
+        impl.registerPayment( eur( "1" ));
+        impl.registerPayment( money( "AUD", "1" ));
+        impl.registerPayment( usd( "1" ));
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( money( "ZAR", "1" ));
+        batch.add( money( "GBP", "1" ));
+        impl.registerPayments( batch );
+
+        assertEquals( "sorted", "[AUD 1.00, CZK 1.00, EUR 1.00, GBP 1.00, USD 2.00, ZAR 1.00]",
+            impl.getBalance().getAllMoney().toString());
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private BigDecimal ofCurrencyAmount( List<Money> list, Curr curr ) {
+        return ofCurrency( list, curr ).getAmount();
+    }
+
+
+    private long versionOf( Balance balance, Curr curr ) {
+        List<Money> list = balance.getAllMoney();
+
+        for (int i=0; i < list.size(); i++) {
+            if (curr == list.get( i ).getCurrency()) return balance.getVersion( i );
+        }
+
+        fail( "Missing currency " + curr + " in the balancies list" );
+
+        return -1;
+    }
+
+
+    private Money ofCurrency( List<Money> list, Curr curr ) {
+        for (Money money : list) {
+            if (curr == money.getCurrency()) return money;
+        }
+
+        fail( "Missing currency " + curr + " in the balancies list" );
+
+        return null;
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Curr;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class CsvPaymentReporterImplTest {
+
+    @Test
+    public void testGeneratePaymentReport() {
+        StringWriter sw = new StringWriter();
+        MemoryPaymentProcessorImpl pp = new MemoryPaymentProcessorImpl();
+        CsvPaymentReporterImpl impl = new CsvPaymentReporterImpl( new WriterReportSinkImpl( new PrintWriter( sw )));
+
+        impl.setPaymentProcessor( pp );
+
+        pp.registerPayment( usd( "10" ));
+        pp.registerPayment( eur( "-0.50" ));
+        pp.registerPayment( money( "CZK", "0" ));
+        impl.generatePaymentReport();
+
+        assertEquals( "without converter", "balance,3,EUR,-0.50,,\nbalance,3,USD,10,,\n", sw.toString());
+
+        FileCurrencyConverterImpl cc = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+        rates.put( eur(), new BigDecimal( "1.25" ));
+        cc.setRates( rates );
+
+        impl.setCurrencyConverter( cc );
+        impl.setTotalCurrencies( Arrays.asList( usd()));
+        pp.registerPayment( money( "GBP", "1" ));
+
+        sw.getBuffer().setLength( 0 );
+        impl.generatePaymentReport();
+
+        // the zero CZK balance is not listed, but it is counted as missing (no rate):
+        assertEquals( "with converter",
+            "balance,4,EUR,-0.50,USD,-0.62\n"
+            + "balance,4,GBP,1,USD,\n"
+            + "balance,4,USD,10,USD,10\n"
+            + "total,4,USD,9.38,2\n", sw.toString());
+    }
+
+}
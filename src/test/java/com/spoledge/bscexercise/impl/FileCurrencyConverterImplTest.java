@@ -1,13 +1,20 @@
 package com.spoledge.bscexercise.impl;
 
 import java.io.File;
+import java.io.FileWriter;
 
 import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+
 import static com.spoledge.bscexercise.TestUtils.*;
 
 
@@ -28,6 +35,207 @@ public class FileCurrencyConverterImplTest {
     }
 
 
+    @Test
+    public void testCrossRates() throws Exception {
+        FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+        impl.loadFile( sample( "rates.txt" ));
+
+        assertEquals( "EUR 100 in GBP", new BigDecimal( "71.81" ), impl.convertMoney( eur( "100" ), curr( "GBP" )).getAmount());
+        assertEquals( "EUR 100 in GBP", curr( "GBP" ), impl.convertMoney( eur( "100" ), curr( "GBP" )).getCurrency());
+        assertEquals( "USD 1 in EUR", new BigDecimal( "0.94" ), impl.convertMoney( usd( "1" ), eur()).getAmount());
+        assertNull( "EUR 1 in CZK", impl.convertMoney( eur( "1" ), curr( "CZK" )));
+        assertEquals( "table", 6, impl.getRateTable().getCurrencies().size());
+    }
+
+
+    @Test
+    public void testRound() throws Exception {
+        FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+
+        // no rates are needed:
+        assertEquals( "USD 1.005", new BigDecimal( "1.00" ), impl.round( usd( "1.005" )).getAmount());
+        assertEquals( "USD 1", new BigDecimal( "1.00" ), impl.round( usd( "1" )).getAmount());
+        assertEquals( "EUR -1.015", new BigDecimal( "-1.02" ), impl.asOf( new Date()).round( eur( "-1.015" )).getAmount());
+        assertEquals( "EUR", eur(), impl.round( eur( "1" )).getCurrency());
+    }
+
+
+    @Test
+    public void testAsOf() throws Exception {
+        FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+
+        rates.put( eur(), new BigDecimal( "1.1" ));
+        impl.setRates( rates, 1000 );
+        rates.put( eur(), new BigDecimal( "1.2" ));
+        impl.setRates( rates, 2000 );
+
+        assertNull( "before", impl.convertMoney( eur( "1" ), usd(), new Date( 999 )));
+        assertEquals( "1000", new BigDecimal( "1.10" ), impl.convertMoney( eur( "1" ), usd(), new Date( 1999 )).getAmount());
+        assertEquals( "2000", new BigDecimal( "1.20" ), impl.asOf( new Date( 2000 )).convertMoney( eur( "1" )).getAmount());
+        assertEquals( "now", new BigDecimal( "1.20" ), impl.convertMoney( eur( "1" )).getAmount());
+
+        impl.loadFile( sample( "rates.txt" ));
+
+        assertEquals( "loaded", new BigDecimal( "1.06" ), impl.convertMoney( eur( "1" )).getAmount());
+        assertEquals( "history", new BigDecimal( "1.20" ), impl.convertMoney( eur( "1" ), usd(), new Date( 5000 )).getAmount());
+        assertEquals( "versions", 3, impl.getRateHistory().size());
+    }
+
+
+    @Test
+    public void testCurrentRates() throws Exception {
+        FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+        long now = System.currentTimeMillis();
+
+        rates.put( eur(), new BigDecimal( "1.1" ));
+        impl.setRates( rates );
+        long version = impl.getRatesVersion();
+
+        // future and older rates go only to the history:
+        rates.put( eur(), new BigDecimal( "1.2" ));
+        impl.setRates( rates, now + 3600000L );
+        rates.put( eur(), new BigDecimal( "1.3" ));
+        impl.setRates( rates, now - 3600000L );
+
+        assertEquals( "current", new BigDecimal( "1.10" ), impl.convertMoney( eur( "1" )).getAmount());
+        assertEquals( "version", version, impl.getRatesVersion());
+        assertEquals( "future", new BigDecimal( "1.20" ),
+            impl.convertMoney( eur( "1" ), usd(), new Date( now + 3600000L )).getAmount());
+        assertEquals( "older", new BigDecimal( "1.30" ),
+            impl.convertMoney( eur( "1" ), usd(), new Date( now - 1 )).getAmount());
+    }
+
+
+    @Test
+    public void testCurrentRates_clockStepBack() throws Exception {
+        final long[] clock = { System.currentTimeMillis() };
+        FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 ) {
+            long currentTimeMillis() {
+                return clock[0];
+            }
+        };
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+
+        rates.put( eur(), new BigDecimal( "1.1" ));
+        impl.setRates( rates );
+
+        // the wall clock steps back - the reloaded rates are current anyway:
+        clock[0] -= 3600000L;
+        rates.put( eur(), new BigDecimal( "1.2" ));
+        impl.setRates( rates );
+
+        assertEquals( "reloaded", new BigDecimal( "1.20" ), impl.convertMoney( eur( "1" )).getAmount());
+
+        // but back-dated rates still go only to the history:
+        rates.put( eur(), new BigDecimal( "1.3" ));
+        impl.setRates( rates, clock[0] - 1000 );
+
+        assertEquals( "back-dated", new BigDecimal( "1.20" ), impl.convertMoney( eur( "1" )).getAmount());
+    }
+
+
+    @Test
+    public void testConcurrentSetRates() throws Exception {
+        final FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+        final HashMap<Curr, BigDecimal> rates1 = new HashMap<Curr, BigDecimal>();
+        final HashMap<Curr, BigDecimal> rates2 = new HashMap<Curr, BigDecimal>();
+        final AtomicInteger wrong = new AtomicInteger();
+
+        rates1.put( eur(), new BigDecimal( "1" ));
+        rates1.put( curr( "CZK" ), new BigDecimal( "1" ));
+        rates2.put( eur(), new BigDecimal( "2" ));
+        rates2.put( curr( "CZK" ), new BigDecimal( "2" ));
+        impl.setRates( rates1 );
+
+        Thread[] threads = new Thread[ 4 ];
+
+        for (int i=0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    Money one = eur( "1" );
+
+                    for (int j=0; j < 20000; j++) {
+                        BigDecimal amount = impl.convertMoney( one ).getAmount();
+
+                        if (amount.compareTo( BigDecimal.ONE ) != 0 && amount.compareTo( new BigDecimal( 2 )) != 0) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int j=0; j < 1000; j++) impl.setRates( j % 2 == 0 ? rates2 : rates1 );
+
+        for (Thread thread : threads) thread.join();
+
+        assertEquals( "wrong conversions", 0, wrong.get());
+    }
+
+
+    @Test
+    public void testCheckFile() throws Exception {
+        File file = File.createTempFile( "rates", ".txt" );
+
+        try {
+            write( file, "EUR 1.5\nCHF 2\n", 1000000000L );
+
+            FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+            impl.loadFile( file );
+
+            assertFalse( "not changed", impl.checkFile());
+
+            write( file, "EUR 1.25\n", 2000000000L );
+
+            assertTrue( "changed", impl.checkFile());
+            assertEquals( "reloads", 1, impl.getReloadCount());
+            assertEquals( "EUR 1", new BigDecimal( "1.25" ), impl.convertMoney( eur( "1" )).getAmount());
+            assertNull( "CHF removed", impl.convertMoney( money( "CHF", "1" )));
+
+            write( file, "EUR -1\n", 3000000000L );
+
+            assertFalse( "invalid rate", impl.checkFile());
+
+            write( file, "EUR 1.x\n", 4000000000L );
+
+            assertFalse( "invalid line", impl.checkFile());
+            assertEquals( "failures", 2, impl.getFailedReloadCount());
+            assertEquals( "EUR 1 kept", new BigDecimal( "1.25" ), impl.convertMoney( eur( "1" )).getAmount());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+
+    @Test
+    public void testWatching() throws Exception {
+        File file = File.createTempFile( "rates", ".txt" );
+        FileCurrencyConverterImpl impl = new FileCurrencyConverterImpl( usd(), 2 );
+
+        try {
+            write( file, "EUR 1.5\n", 1000000000L );
+
+            impl.loadFile( file );
+            impl.startWatching( 20 );
+
+            write( file, "EUR 1.75\n", 2000000000L );
+
+            for (int i=0; i < 100 && impl.getReloadCount() == 0; i++) Thread.sleep( 20 );
+
+            assertEquals( "reloads", 1, impl.getReloadCount());
+            assertEquals( "EUR 1", new BigDecimal( "1.75" ), impl.convertMoney( eur( "1" )).getAmount());
+        }
+        finally {
+            impl.stopWatching();
+            file.delete();
+        }
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Private
     ////////////////////////////////////////////////////////////////////////////
@@ -35,4 +243,14 @@ public class FileCurrencyConverterImplTest {
     private File sample( String name ) {
         return new File( System.getProperty( "testSampleDir" ), name );
     }
+
+
+    private void write( File file, String content, long modified ) throws Exception {
+        FileWriter writer = new FileWriter( file );
+        writer.write( content );
+        writer.close();
+
+        file.setLastModified( modified );
+    }
+
 }
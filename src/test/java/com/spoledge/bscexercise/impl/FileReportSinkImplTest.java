@@ -0,0 +1,110 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class FileReportSinkImplTest {
+
+    private File file;
+    private FileReportSinkImpl impl;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Junit
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile( "reports", ".txt" );
+        file.delete();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (impl != null) {
+            impl.close();
+
+            for (int i=1; i <= impl.getMaxFiles(); i++) impl.getRolledFile( i ).delete();
+        }
+
+        file.delete();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testAppend() throws Exception {
+        impl = new FileReportSinkImpl( file );
+        impl.write( "report 1\n" );
+        impl.close();
+
+        impl = new FileReportSinkImpl( file );
+        impl.write( "report 2\n" );
+
+        assertEquals( "content", "report 1\nreport 2\n", read( file ));
+    }
+
+
+    @Test
+    public void testRolling() throws Exception {
+        impl = new FileReportSinkImpl( file, 20, 2 );
+
+        impl.write( "report 1\n" );
+        impl.write( "report 2\n" );
+        impl.write( "report 3\n" );
+        impl.write( "report 4\n" );
+        impl.write( "report 5\n" );
+        impl.write( "report 6 is too long\n" );
+
+        assertEquals( "current", "report 6 is too long\n", read( file ));
+        assertEquals( "rolled 1", "report 5\n", read( impl.getRolledFile( 1 )));
+        assertEquals( "rolled 2", "report 3\nreport 4\n", read( impl.getRolledFile( 2 )));
+        assertFalse( "rolled 3", impl.getRolledFile( 3 ).exists());
+    }
+
+
+    @Test
+    public void testClosed() throws Exception {
+        impl = new FileReportSinkImpl( file );
+        impl.close();
+
+        try {
+            impl.write( "report" );
+            fail( "IOException expected" );
+        }
+        catch (java.io.IOException e) {
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private String read( File f ) throws Exception {
+        FileInputStream in = new FileInputStream( f );
+
+        try {
+            byte[] buf = new byte[ (int) f.length() ];
+            int n = 0;
+
+            while (n < buf.length) n += in.read( buf, n, buf.length - n );
+
+            return new String( buf, "UTF-8" );
+        }
+        finally {
+            in.close();
+        }
+    }
+
+}
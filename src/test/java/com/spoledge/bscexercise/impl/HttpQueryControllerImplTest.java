@@ -0,0 +1,216 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Curr;
+
+
+public class HttpQueryControllerImplTest {
+
+    private HttpQueryControllerImpl impl;
+    private MoneyParserImpl parser;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Setup
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Before
+    public void setUp() {
+        parser = new MoneyParserImpl( 2 );
+
+        impl = new HttpQueryControllerImpl( 0 );
+        impl.setPaymentProcessor( new ConcurrentPaymentProcessorImpl());
+        impl.setMoneyParser( parser );
+        impl.start();
+    }
+
+
+    @After
+    public void tearDown() {
+        impl.stop();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testBalance() throws Exception {
+        assertEquals( "empty", "{\"tx\":0,\"balances\":[]}", get( "/balance", 200 ));
+
+        register( "USD 10", "EUR 1.5", "USD -3", "CZK 5", "CZK -5" );
+
+        assertEquals( "all", "{\"tx\":5,\"balances\":[{\"currency\":\"EUR\",\"amount\":1.50},"
+                                + "{\"currency\":\"USD\",\"amount\":7.00}]}", get( "/balance", 200 ));
+        assertEquals( "USD", "{\"tx\":5,\"currency\":\"USD\",\"amount\":7.00}", get( "/balance/USD", 200 ));
+        assertEquals( "CZK", "{\"tx\":5,\"currency\":\"CZK\",\"amount\":0.00}", get( "/balance/CZK", 200 ));
+        assertEquals( "GBP", "{\"tx\":5,\"currency\":\"GBP\",\"amount\":0}", get( "/balance/GBP", 200 ));
+
+        assertEquals( "{\"error\":\"Unknown currency usd\"}", get( "/balance/usd", 404 ));
+        assertEquals( "{\"error\":\"Not found\"}", get( "/balancex", 404 ));
+    }
+
+
+    @Test
+    public void testCache() throws Exception {
+        register( "USD 10" );
+
+        String body = get( "/balance", 200 );
+        long generated = impl.getGeneratedBodies();
+
+        assertEquals( "cached", body, get( "/balance", 200 ));
+        assertEquals( "cached", body, get( "/balance", 200 ));
+        assertEquals( "not generated", generated, impl.getGeneratedBodies());
+
+        get( "/balance/USD", 200 );
+        get( "/balance/USD", 200 );
+        assertEquals( "generated single", generated + 1, impl.getGeneratedBodies());
+
+        // a new payment invalidates the bodies:
+        register( "USD 1" );
+
+        assertEquals( "{\"tx\":2,\"balances\":[{\"currency\":\"USD\",\"amount\":11.00}]}", get( "/balance", 200 ));
+        assertEquals( "{\"tx\":2,\"currency\":\"USD\",\"amount\":11.00}", get( "/balance/USD", 200 ));
+        assertEquals( "regenerated", generated + 3, impl.getGeneratedBodies());
+    }
+
+
+    @Test
+    public void testCache_otherCurrency() throws Exception {
+        register( "USD 10" );
+
+        HttpURLConnection conn = open( "/balance/USD" );
+        assertEquals( 200, conn.getResponseCode());
+        String etag = conn.getHeaderField( "ETag" );
+        assertEquals( "{\"tx\":1,\"currency\":\"USD\",\"amount\":10.00}", read( conn ));
+
+        long generated = impl.getGeneratedBodies();
+
+        // the payments of other currencies do not change the body of USD:
+        register( "EUR 1", "CZK 2" );
+
+        conn = open( "/balance/USD" );
+        conn.setRequestProperty( "If-None-Match", etag );
+        assertEquals( "not modified", 304, conn.getResponseCode());
+        assertEquals( "not generated", generated, impl.getGeneratedBodies());
+
+        register( "USD 1" );
+
+        assertEquals( "{\"tx\":4,\"currency\":\"USD\",\"amount\":11.00}", get( "/balance/USD", 200 ));
+        assertEquals( "regenerated", generated + 1, impl.getGeneratedBodies());
+    }
+
+
+    @Test
+    public void testNotModified() throws Exception {
+        register( "USD 10" );
+
+        HttpURLConnection conn = open( "/balance" );
+        assertEquals( 200, conn.getResponseCode());
+        assertEquals( "application/json", conn.getHeaderField( "Content-Type" ));
+
+        String etag = conn.getHeaderField( "ETag" );
+        assertNotNull( "etag", etag );
+        read( conn );
+
+        conn = open( "/balance" );
+        conn.setRequestProperty( "If-None-Match", etag );
+        assertEquals( "not modified", 304, conn.getResponseCode());
+        assertEquals( 1, impl.getNotModified());
+
+        register( "USD 1" );
+
+        conn = open( "/balance" );
+        conn.setRequestProperty( "If-None-Match", etag );
+        assertEquals( "modified", 200, conn.getResponseCode());
+        assertFalse( "new etag", etag.equals( conn.getHeaderField( "ETag" )));
+        read( conn );
+    }
+
+
+    @Test
+    public void testForex() throws Exception {
+        assertEquals( "{\"error\":\"No exchange rates loaded\"}", get( "/forex?currency=EUR&amount=10", 503 ));
+
+        FileCurrencyConverterImpl converter = new FileCurrencyConverterImpl( Curr.getInstance( "USD" ), 2 );
+        converter.loadFile( new File( System.getProperty( "testSampleDir" ), "rates.txt" ));
+        impl.setCurrencyConverter( converter );
+
+        assertEquals( "{\"currency\":\"EUR\",\"amount\":100.00,\"converted\":{\"currency\":\"USD\",\"amount\":105.93}}",
+                        get( "/forex?currency=EUR&amount=100", 200 ));
+        assertEquals( "{\"currency\":\"EUR\",\"amount\":1.00,\"converted\":null}",
+                        get( "/forex?currency=EUR&amount=1&target=XYZ", 200 ));
+
+        assertTrue( get( "/forex?currency=EUR&amount=1.x", 400 ).startsWith( "{\"error\":" ));
+        assertTrue( get( "/forex?currency=EUR&amount=1&target=usd", 400 ).startsWith( "{\"error\":" ));
+        assertEquals( "{\"error\":\"Missing currency or amount\"}", get( "/forex?currency=EUR", 400 ));
+
+        // the balances are converted too:
+        register( "EUR 100", "XYZ 1" );
+
+        assertEquals( "{\"tx\":2,\"balances\":["
+                        + "{\"currency\":\"EUR\",\"amount\":100.00,\"converted\":{\"currency\":\"USD\",\"amount\":105.93}},"
+                        + "{\"currency\":\"XYZ\",\"amount\":1.00,\"converted\":null}]}", get( "/balance", 200 ));
+    }
+
+
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        HttpURLConnection conn = open( "/balance" );
+        conn.setRequestMethod( "POST" );
+        conn.setDoOutput( true );
+        conn.getOutputStream().close();
+
+        assertEquals( 405, conn.getResponseCode());
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void register( String... lines ) throws Exception {
+        for (String line : lines) impl.getPaymentProcessor().registerPayment( parser.parseMoney( line ));
+    }
+
+
+    private HttpURLConnection open( String path ) throws Exception {
+        return (HttpURLConnection) new URL( "http://localhost:" + impl.getLocalPort() + path ).openConnection();
+    }
+
+
+    private String get( String path, int code ) throws Exception {
+        HttpURLConnection conn = open( path );
+
+        assertEquals( path, code, conn.getResponseCode());
+        assertEquals( path, "application/json", conn.getHeaderField( "Content-Type" ));
+
+        return read( conn );
+    }
+
+
+    private String read( HttpURLConnection conn ) throws Exception {
+        InputStream is = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[ 1024 ];
+        int n;
+
+        while ((n = is.read( buf )) != -1) out.write( buf, 0, n );
+
+        is.close();
+
+        return out.toString( "UTF-8" );
+    }
+
+}
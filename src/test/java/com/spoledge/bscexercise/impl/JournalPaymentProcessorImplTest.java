@@ -0,0 +1,359 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Curr;
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
+import com.spoledge.bscexercise.util.BalanceSnapshot;
+import com.spoledge.bscexercise.util.PaymentJournal;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class JournalPaymentProcessorImplTest {
+
+    private File file;
+    private File snapshotFile;
+    private JournalPaymentProcessorImpl impl;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Junit
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile( "journal", ".bin" );
+        file.delete();
+        snapshotFile = new File( file.getPath() + ".snapshot" );
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (impl != null) impl.close();
+        file.delete();
+        snapshotFile.delete();
+        new File( snapshotFile.getPath() + ".bak" ).delete();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testNewEmpty() throws Exception {
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 0, balance.getLastTransationId());
+        assertTrue( "list of money empty", balance.getAllMoney().isEmpty());
+        assertTrue( "journal created", file.exists());
+    }
+
+
+    @Test
+    public void testNotOpened() {
+        impl = new JournalPaymentProcessorImpl( file );
+
+        try {
+            impl.registerPayment( usd( "1" ));
+            fail( "IllegalStateException expected" );
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+
+    @Test
+    public void testRecovery() throws Exception {
+        reopen();
+
+        assertEquals( "payment #", 1, impl.registerPayment( usd( "10" )));
+        assertEquals( "payment #", 2, impl.registerPayment( eur( "-0.50" )));
+        assertEquals( "payment #", 3, impl.registerPayment( usd( "0.01" )));
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( usd( "1" ));
+        batch.add( money( "CZK", "100" ));
+
+        assertEquals( "first batch tx", 4, impl.registerPayments( batch ));
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 5, balance.getLastTransationId());
+        assertEquals( "size of list of money", 3, balance.getAllMoney().size());
+        assertEquals( "USD balance", new BigDecimal( "11.01" ), ofCurrency( balance.getAllMoney(), usd()));
+        assertEquals( "EUR balance", new BigDecimal( "-0.50" ), ofCurrency( balance.getAllMoney(), eur()));
+        assertEquals( "CZK balance", new BigDecimal( "100" ), ofCurrency( balance.getAllMoney(), curr( "CZK" )));
+
+        assertEquals( "next payment #", 6, impl.registerPayment( eur( "1" )));
+    }
+
+
+    @Test
+    public void testRecovery_decimal() throws Exception {
+        BigDecimal big = new BigDecimal( "123456789012345678901234567890.12" );
+
+        reopen();
+        impl.registerPayment( usd( big ));
+        impl.registerPayment( usd( big ));
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "USD balance", big.add( big ), ofCurrency( balance.getAllMoney(), usd()));
+    }
+
+
+    @Test
+    public void testRecovery_torn() throws Exception {
+        reopen();
+        impl.registerPayment( usd( "10" ));
+        impl.registerPayment( usd( "20" ));
+        impl.close();
+        impl = null;
+
+        // simulate a crash in the middle of the last record:
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( raf.length() - 3 );
+        raf.close();
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 1, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "10" ), ofCurrency( balance.getAllMoney(), usd()));
+        assertEquals( "payment after torn", 2, impl.registerPayment( usd( "5" )));
+
+        balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 2, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "15" ), ofCurrency( balance.getAllMoney(), usd()));
+    }
+
+
+    @Test
+    public void testRecovery_corrupted() throws Exception {
+        reopen();
+        impl.registerPayment( usd( "10" ));
+        impl.registerPayment( usd( "20" ));
+        impl.registerPayment( usd( "30" ));
+        impl.close();
+        impl = null;
+
+        // damage the first record - the following records are committed:
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        long length = raf.length();
+        raf.seek( PaymentJournal.HEADER_SIZE + 6 );
+        int b = raf.read();
+        raf.seek( PaymentJournal.HEADER_SIZE + 6 );
+        raf.write( b ^ 0xff );
+        raf.close();
+
+        try {
+            reopen();
+            fail( "IOException expected" );
+        }
+        catch (IOException e) {
+        }
+
+        impl = null;
+        assertEquals( "file untouched", length, file.length());
+    }
+
+
+    @Test
+    public void testSnapshot() throws Exception {
+        reopen();
+        impl.setSnapshotInterval( 3 );
+
+        for (int i=0; i < 7; i++) impl.registerPayment( usd( "1.5" ));
+
+        assertTrue( "snapshot created", snapshotFile.exists());
+        assertEquals( "snapshot tx id", 6, new BalanceSnapshot( snapshotFile ).read().getLastTransationId());
+
+        assertTrue( "journal after snapshot", impl.getJournal().getSize() > PaymentJournal.HEADER_SIZE );
+
+        impl.registerPayment( usd( "1.5" ));
+        impl.registerPayment( eur( "2" ));
+
+        assertEquals( "journal truncated", PaymentJournal.HEADER_SIZE, impl.getJournal().getSize());
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 9, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "12.0" ), ofCurrency( balance.getAllMoney(), usd()));
+        assertEquals( "EUR balance", new BigDecimal( "2" ), ofCurrency( balance.getAllMoney(), eur()));
+    }
+
+
+    @Test
+    public void testSnapshot_missingPrimary() throws Exception {
+        reopen();
+        impl.setSnapshotInterval( 2 );
+
+        for (int i=0; i < 5; i++) impl.registerPayment( usd( "1" ));
+
+        // simulate a crash while the snapshot file is replaced - only the previous one exists as the backup:
+        impl.close();
+        impl = null;
+        assertTrue( "renamed", snapshotFile.renameTo( new BalanceSnapshot( snapshotFile ).getBackupFile()));
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 5, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "5" ), ofCurrency( balance.getAllMoney(), usd()));
+    }
+
+
+    @Test
+    public void testSnapshot_notTruncated() throws Exception {
+        reopen();
+        impl.registerPayment( usd( "10" ));
+        impl.registerPayment( usd( "20" ));
+
+        // simulate a crash after the snapshot was written, but before the journal was truncated:
+        new BalanceSnapshot( snapshotFile ).write( impl.getBalance());
+
+        impl.registerPayment( usd( "30" ));
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", 3, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "60" ), ofCurrency( balance.getAllMoney(), usd()));
+    }
+
+
+    @Test
+    public void testConcurrentPayments() throws Exception {
+        reopen();
+        impl.setSnapshotInterval( 50 );
+
+        final String[] codes = { "USD", "EUR", "USD", "CZK" };
+        final int count = 200;
+
+        Thread[] threads = new Thread[ codes.length ];
+
+        for (int i=0; i < threads.length; i++) {
+            final Money payment = money( codes[i], "0.01" );
+
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j=0; j < count; j++) impl.registerPayment( payment );
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", codes.length * count, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "4.00" ), ofCurrency( balance.getAllMoney(), usd()));
+        assertEquals( "EUR balance", new BigDecimal( "2.00" ), ofCurrency( balance.getAllMoney(), eur()));
+    }
+
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        reopen();
+        impl.setGroupCommitDelay( 2 );
+
+        final int count = 25;
+        Thread[] threads = new Thread[ 4 ];
+
+        for (int i=0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j=0; j < count; j++) impl.registerPayment( usd( "0.01" ));
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        Balance balance = reopen().getBalance();
+
+        assertEquals( "last tx id", threads.length * count, balance.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "1.00" ), ofCurrency( balance.getAllMoney(), usd()));
+    }
+
+
+    @Test
+    public void testSyncFailed() throws Exception {
+        final boolean[] fail = new boolean[ 1 ];
+
+        PaymentJournal journal = new PaymentJournal( file ) {
+            public void sync( long position ) throws IOException {
+                if (fail[0]) throw new IOException( "Simulated failure" );
+
+                super.sync( position );
+            }
+        };
+
+        impl = new JournalPaymentProcessorImpl( journal, new BalanceSnapshot( snapshotFile ));
+        impl.open();
+        impl.registerPayment( usd( "10" ));
+
+        fail[0] = true;
+
+        try {
+            impl.registerPayment( usd( "20" ));
+            fail( "IllegalStateException expected" );
+        }
+        catch (IllegalStateException e) {
+        }
+
+        // the unconfirmed payment is not visible:
+        Balance balance = impl.getBalance();
+
+        assertEquals( "last tx id", 1, balance.getLastTransationId());
+        assertEquals( "last tx id", 1, impl.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "10" ), ofCurrency( balance.getAllMoney(), usd()));
+
+        try {
+            impl.registerPayment( usd( "30" ));
+            fail( "IllegalStateException expected" );
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private JournalPaymentProcessorImpl reopen() throws Exception {
+        if (impl != null) impl.close();
+
+        impl = new JournalPaymentProcessorImpl( file );
+        impl.open();
+
+        return impl;
+    }
+
+
+    private BigDecimal ofCurrency( List<Money> list, Curr curr ) {
+        for (Money money : list) {
+            if (curr == money.getCurrency()) return money.getAmount();
+        }
+
+        fail( "Missing currency " + curr + " in the balancies list" );
+
+        return null;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.File;
+
+import com.spoledge.bscexercise.PaymentProcessor;
+import com.spoledge.bscexercise.model.Money;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+/**
+ * Measures the throughput of the journal processor - not a unit test (real fsyncs are slow).
+ * Run it after "mvn test-compile":
+ * <pre>
+ *  java -cp target/classes:target/test-classes:... com.spoledge.bscexercise.impl.JournalThroughput [COUNT]
+ * </pre>
+ */
+public class JournalThroughput {
+
+    public static void main( String[] args ) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 20000;
+        File file = File.createTempFile( "journal", ".bin" );
+        File snapshotFile = new File( file.getPath() + ".snapshot" );
+
+        try {
+            long memory = measure( new MemoryPaymentProcessorImpl(), 1, count );
+
+            JournalPaymentProcessorImpl impl = open( file );
+            impl.setSyncEnabled( false );
+            long nosync = measure( impl, 1, count );
+            impl.close();
+
+            impl = open( file );
+            long sync = measure( impl, 1, count / 20 );
+            impl.close();
+
+            impl = open( file );
+            long group = measure( impl, 8, count / 20 );
+            impl.close();
+
+            System.out.println( "Throughput (payments/s): memory=" + memory + ", journal without fsync=" + nosync
+                + ", journal with fsync=" + sync + ", journal with group commit of 8 threads=" + group );
+        }
+        finally {
+            file.delete();
+            snapshotFile.delete();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private static JournalPaymentProcessorImpl open( File file ) throws Exception {
+        JournalPaymentProcessorImpl ret = new JournalPaymentProcessorImpl( file );
+        ret.open();
+
+        return ret;
+    }
+
+
+    /**
+     * Returns the number of payments per second.
+     */
+    private static long measure( final PaymentProcessor processor, int threadCount, int count ) throws Exception {
+        final Money payment = usd( "0.01" );
+        final int perThread = count / threadCount;
+
+        Thread[] threads = new Thread[ threadCount ];
+        long start = System.nanoTime();
+
+        for (int i=0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j=0; j < perThread; j++) processor.registerPayment( payment );
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        long nanos = Math.max( 1, System.nanoTime() - start );
+
+        return perThread * threadCount * 1000000000L / nanos;
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Curr;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class JsonPaymentReporterImplTest {
+
+    @Test
+    public void testGeneratePaymentReport() {
+        StringWriter sw = new StringWriter();
+        MemoryPaymentProcessorImpl pp = new MemoryPaymentProcessorImpl();
+        JsonPaymentReporterImpl impl = new JsonPaymentReporterImpl( new WriterReportSinkImpl( new PrintWriter( sw )));
+
+        impl.setPaymentProcessor( pp );
+        impl.generatePaymentReport();
+
+        assertEquals( "empty", "{\"tx\":0,\"balances\":[],\"totals\":[]}\n", sw.toString());
+
+        FileCurrencyConverterImpl cc = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+        rates.put( eur(), new BigDecimal( "1.25" ));
+        cc.setRates( rates );
+
+        impl.setCurrencyConverter( cc );
+        impl.setTotalCurrencies( Arrays.asList( usd(), eur()));
+
+        pp.registerPayment( usd( "10" ));
+        pp.registerPayment( eur( "8" ));
+        pp.registerPayment( money( "GBP", "1" ));
+
+        sw.getBuffer().setLength( 0 );
+        impl.generatePaymentReport();
+
+        assertEquals( "with converter", "{\"tx\":3,\"balances\":["
+            + "{\"currency\":\"EUR\",\"amount\":8,\"converted\":{\"currency\":\"USD\",\"amount\":10.00}},"
+            + "{\"currency\":\"GBP\",\"amount\":1,\"converted\":null},"
+            + "{\"currency\":\"USD\",\"amount\":10,\"converted\":{\"currency\":\"USD\",\"amount\":10}}],"
+            + "\"totals\":[{\"currency\":\"USD\",\"amount\":20.00,\"missing\":1},"
+            + "{\"currency\":\"EUR\",\"amount\":16.00,\"missing\":1}]}\n", sw.toString());
+    }
+
+}
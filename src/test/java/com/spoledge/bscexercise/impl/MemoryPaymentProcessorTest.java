@@ -10,6 +10,7 @@ import static org.junit.Assert.*;
 import com.spoledge.bscexercise.model.Balance;
 import com.spoledge.bscexercise.model.Curr;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
 
 import static com.spoledge.bscexercise.TestUtils.*;
 
@@ -41,6 +42,7 @@ public class MemoryPaymentProcessorTest {
 
         assertNotNull( "balance", balance );
         assertEquals( "last tx id", 34, balance.getLastTransationId());
+        assertEquals( "processor last tx id", 34, impl.getLastTransationId());
         assertNotNull( "list of money", balance.getAllMoney());
         assertTrue( "list of money empty", balance.getAllMoney().isEmpty());
     }
@@ -101,6 +103,74 @@ public class MemoryPaymentProcessorTest {
     }
 
 
+    @Test
+    public void testRegisterPayments() {
+        MemoryPaymentProcessorImpl impl = new MemoryPaymentProcessorImpl();
+
+        assertEquals( "payment #", 1, impl.registerPayment( usd( "10" )));
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( usd( "1.01" ));
+        batch.add( eur( "2" ));
+        batch.add( usd( "-0.01" ));
+
+        assertEquals( "first batch tx", 2, impl.registerPayments( batch ));
+        assertEquals( "next payment #", 5, impl.registerPayment( eur( "1" )));
+        assertEquals( "empty batch", 6, impl.registerPayments( new PaymentBatch()));
+
+        Balance balance = impl.getBalance();
+
+        assertEquals( "last tx id", 5, balance.getLastTransationId());
+        assertEquals( "processor last tx id", 5, impl.getLastTransationId());
+        assertEquals( "USD balance", new BigDecimal( "11.00" ), ofCurrency( balance.getAllMoney(), usd()).getAmount());
+        assertEquals( "EUR balance", 0, new BigDecimal( "3" ).compareTo( ofCurrency( balance.getAllMoney(), eur()).getAmount()));
+    }
+
+
+    @Test
+    public void testVersions() {
+        MemoryPaymentProcessorImpl impl = new MemoryPaymentProcessorImpl();
+
+        impl.registerPayment( usd( "10" ));
+        impl.registerPayment( eur( "1" ));
+
+        Balance balance = impl.getBalance();
+        long usdVersion = versionOf( balance, usd());
+        long eurVersion = versionOf( balance, eur());
+
+        assertTrue( "USD version known", usdVersion != -1 );
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( eur( "2" ));
+        impl.registerPayments( batch );
+
+        balance = impl.getBalance();
+
+        assertEquals( "USD version unchanged", usdVersion, versionOf( balance, usd()));
+        assertTrue( "EUR version changed", eurVersion != versionOf( balance, eur()));
+    }
+
+
+    @Test
+    public void testSortedBalance() {
+        MemoryPaymentProcessorImpl impl = new MemoryPaymentProcessorImpl();
+
+        impl.registerPayment( usd( "1" ));
+        impl.registerPayment( money( "CZK", "1" ));
+        impl.registerPayment( eur( "1" ));
+        impl.registerPayment( money( "AUD", "1" ));
+        impl.registerPayment( usd( "1" ));
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( money( "ZAR", "1" ));
+        batch.add( money( "GBP", "1" ));
+        impl.registerPayments( batch );
+
+        assertEquals( "sorted", "[AUD 1, CZK 1, EUR 1, GBP 1, USD 2, ZAR 1]",
+            impl.getBalance().getAllMoney().toString());
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Private
     ////////////////////////////////////////////////////////////////////////////
@@ -110,6 +180,19 @@ public class MemoryPaymentProcessorTest {
     }
 
 
+    private long versionOf( Balance balance, Curr curr ) {
+        List<Money> list = balance.getAllMoney();
+
+        for (int i=0; i < list.size(); i++) {
+            if (curr == list.get( i ).getCurrency()) return balance.getVersion( i );
+        }
+
+        fail( "Missing currency " + curr + " in the balancies list" );
+
+        return -1;
+    }
+
+
     private Money ofCurrency( List<Money> list, Curr curr ) {
         for (Money money : list) {
             if (curr == money.getCurrency()) return money;
@@ -81,4 +81,66 @@ public class MoneyParserImplTest {
         impl.canonizeDecimalPoints( "1.321", -1 );
     }
 
+
+    @Test
+    public void testParseMoney_sequence() throws Exception {
+        MoneyParserImpl impl = new MoneyParserImpl( 2 );
+        String[] lines = {
+            "USD 100", "USD -100.2", "EUR .81000", " HKD 0.700 ", "CZK -.5", "JPY 5.",
+            "USD -", "USD .", "USD +5", "USD 1e5", "USD 1.001", "USD 1.2.3", "USD",
+            "USSR 10", "usd 10", "USD 12345678901234567890123", " USD 10"
+        };
+
+        for (String line : lines) {
+            String s = "xx" + line + "yy";
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap( s.getBytes( "ISO-8859-1" ));
+
+            String expected;
+
+            try {
+                expected = impl.parseMoney0( line, 7 ).toString();
+            }
+            catch (MoneyParseException e) {
+                expected = e.getMessage();
+            }
+
+            assertEquals( "string '" + line + "'", expected, parse( impl, line, 7 ));
+
+            assertEquals( "line '" + line + "'", expected,
+                parse( impl, s, 2, s.length() - 2, 7 ));
+
+            assertEquals( "bytes '" + line + "'", expected,
+                parse( impl, new com.spoledge.bscexercise.util.ByteCharSequence( buf, 2, s.length() - 2 ), 0,
+                    s.length() - 4, 7 ));
+        }
+
+        assertEquals( "canonized", "USD 100.00", parse( impl, "USD 100", 7 ));
+        assertEquals( "stripped", "EUR 0.81", parse( impl, "EUR .81000", 7 ));
+        assertEquals( "error", "Too many decimal points: 1.001 at line 7", parse( impl, "USD 1.001", 7 ));
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private String parse( MoneyParserImpl impl, String line, int lineNumber ) {
+        try {
+            return impl.parseMoney( line, lineNumber ).toString();
+        }
+        catch (MoneyParseException e) {
+            return e.getMessage();
+        }
+    }
+
+
+    private String parse( MoneyParserImpl impl, CharSequence line, int start, int end, int lineNumber ) {
+        try {
+            return impl.parseMoney( line, start, end, lineNumber ).toString();
+        }
+        catch (MoneyParseException e) {
+            return e.getMessage();
+        }
+    }
+
 }
@@ -0,0 +1,67 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.PaymentListener;
+
+import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class NotifyingPaymentProcessorImplTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    private static class MyListener implements PaymentListener {
+        final List<String> events = new ArrayList<String>();
+
+        public void paymentRegistered( Money payment, int transactionId ) {
+            events.add( payment + "@" + transactionId );
+        }
+
+        public void paymentsRegistered( PaymentBatch batch, int firstTransactionId ) {
+            events.add( batch.getCount() + "x@" + firstTransactionId );
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testNotify() {
+        MemoryPaymentProcessorImpl memory = new MemoryPaymentProcessorImpl();
+        NotifyingPaymentProcessorImpl impl = new NotifyingPaymentProcessorImpl( memory );
+        MyListener listener = new MyListener();
+
+        impl.addPaymentListener( listener );
+
+        assertEquals( "tx", 1, impl.registerPayment( usd( "10" )));
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( usd( "1" ));
+        batch.add( eur( "2" ));
+
+        assertEquals( "tx", 2, impl.registerPayments( batch ));
+
+        // the empty batch is not notified:
+        impl.registerPayments( new PaymentBatch());
+
+        impl.removePaymentListener( listener );
+        impl.registerPayment( usd( "1" ));
+
+        assertEquals( "events", "[USD 10@1, 2x@2]", listener.events.toString());
+        assertEquals( "balance", 4, impl.getBalance().getLastTransationId());
+        assertEquals( "delegated", 4, memory.getBalance().getLastTransationId());
+    }
+
+}
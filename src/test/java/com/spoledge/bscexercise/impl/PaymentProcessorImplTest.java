@@ -77,15 +77,114 @@ public class PaymentProcessorImplTest {
     }
 
 
+    @Test
+    public void testTimer_slowSkip() throws Exception {
+        impl.sleep = 250;
+        impl.setPeriod( 100 );
+        impl.startPaymentReporting();
+
+        // runs at 100, 400, 700 - each takes 250 ms:
+        Thread.sleep( 900 );
+
+        impl.stopPaymentReporting();
+        int count = impl.count();
+
+        assertTrue( ">= 2", count >= 2 );
+        assertTrue( "<= 3", count <= 3 );
+        assertEquals( "max running", 1, impl.maxRunning );
+
+        // each finished report skips at least 2 regular times:
+        assertTrue( "skipped", impl.getSkippedReports() >= 2 * (count - 1));
+    }
+
+
+    @Test
+    public void testTimer_slowCoalesce() throws Exception {
+        impl.sleep = 250;
+        impl.setPeriod( 100 );
+        impl.setCatchUpPolicy( AbstractPaymentReporterImpl.CatchUpPolicy.COALESCE );
+        impl.startPaymentReporting();
+
+        // runs at 100, 350, 600, 850 - each takes 250 ms:
+        Thread.sleep( 950 );
+
+        impl.stopPaymentReporting();
+        int count = impl.count();
+
+        // the coalesced reports run immediately, so more of them than with the skip policy:
+        assertTrue( ">= 3", count >= 3 );
+        assertTrue( "<= 4", count <= 4 );
+        assertEquals( "max running", 1, impl.maxRunning );
+        assertTrue( "skipped", impl.getSkippedReports() >= count - 1 );
+    }
+
+
+    @Test
+    public void testTimer_stopWhileRunning() throws Exception {
+        impl.sleep = 300;
+        impl.setPeriod( 100 );
+        impl.startPaymentReporting();
+
+        // the report runs from 100 to 400:
+        Thread.sleep( 200 );
+        impl.stopPaymentReporting();
+        Thread.sleep( 400 );
+
+        assertEquals( "count", 1, impl.count());
+        assertEquals( "skipped", 0, impl.getSkippedReports());
+    }
+
+
+    @Test
+    public void testTimer_slowTrigger() throws Exception {
+        NotifyingPaymentProcessorImpl processor = new NotifyingPaymentProcessorImpl( new MemoryPaymentProcessorImpl());
+        processor.addPaymentListener( impl );
+
+        impl.sleep = 300;
+        impl.setPeriod( 100 );
+        impl.setReportEvery( 1 );
+        impl.startPaymentReporting();
+
+        // the timer report runs from 100 to 400 - trigger and request a report meanwhile:
+        Thread.sleep( 200 );
+        processor.registerPayment( usd( "1" ));
+        impl.generatePaymentReport();
+
+        for (int i=0; i < 100 && impl.getTriggeredReports() == 0; i++) Thread.sleep( 50 );
+
+        impl.stopPaymentReporting();
+
+        assertEquals( "triggered", 1, impl.getTriggeredReports());
+        assertEquals( "max running", 1, impl.maxRunning );
+    }
+
+
     ////////////////////////////////////////////////////////////////////////////
     // Inner
     ////////////////////////////////////////////////////////////////////////////
 
     class MyImpl extends AbstractPaymentReporterImpl  {
         int count;
-
-        public synchronized void generatePaymentReport() {
-            count++;
+        long sleep;
+        int running;
+        volatile int maxRunning;
+
+        protected void writePaymentReport() {
+            synchronized( this ) {
+                count++;
+                running++;
+                maxRunning = Math.max( maxRunning, running );
+            }
+
+            try {
+                if (sleep > 0) Thread.sleep( sleep );
+            }
+            catch (InterruptedException e) {
+            }
+
+            synchronized( this ) {
+                running--;
+            }
         }
 
         synchronized int count() {
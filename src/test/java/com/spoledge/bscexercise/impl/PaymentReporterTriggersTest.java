@@ -0,0 +1,241 @@
+package com.spoledge.bscexercise.impl;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.PaymentBatch;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class PaymentReporterTriggersTest {
+
+    private ScheduledExecutorService executor;
+    private MyReporter reporter;
+    private NotifyingPaymentProcessorImpl processor;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A reporter which counts the reports and can be blocked.
+     */
+    private static class MyReporter extends AbstractPaymentReporterImpl {
+        final AtomicInteger reports = new AtomicInteger();
+        volatile CountDownLatch entered = new CountDownLatch( 1 );
+        volatile CountDownLatch release = new CountDownLatch( 0 );
+
+        protected void writePaymentReport() {
+            entered.countDown();
+
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+            }
+
+            reports.incrementAndGet();
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Setup
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+
+        reporter = new MyReporter();
+        reporter.setExecutor( executor );
+        reporter.setPeriod( 0 );
+
+        processor = new NotifyingPaymentProcessorImpl( new MemoryPaymentProcessorImpl());
+        processor.addPaymentListener( reporter );
+        reporter.setPaymentProcessor( processor );
+    }
+
+
+    @After
+    public void tearDown() {
+        reporter.stopPaymentReporting();
+        executor.shutdownNow();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testReportEvery() throws Exception {
+        reporter.setReportEvery( 3 );
+
+        // not started - no trigger:
+        for (int i=0; i < 5; i++) processor.registerPayment( usd( "1" ));
+
+        reporter.startPaymentReporting();
+
+        processor.registerPayment( usd( "1" ));
+        processor.registerPayment( usd( "1" ));
+        waitIdle();
+        assertEquals( "reports", 0, reporter.reports.get());
+
+        processor.registerPayment( usd( "1" ));
+        waitIdle();
+        assertEquals( "reports", 1, reporter.reports.get());
+
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( usd( "1" ), 3 );
+        processor.registerPayments( batch );
+        waitIdle();
+
+        assertEquals( "reports", 2, reporter.reports.get());
+        assertEquals( "triggered", 2, reporter.getTriggeredReports());
+    }
+
+
+    @Test
+    public void testReportThreshold() throws Exception {
+        reporter.setReportThreshold( new BigDecimal( "100" ));
+        reporter.startPaymentReporting();
+
+        processor.registerPayment( usd( "60" ));
+        processor.registerPayment( eur( "60" ));
+        processor.registerPayment( usd( "-10" ));
+        waitIdle();
+        assertEquals( "reports", 0, reporter.reports.get());
+
+        processor.registerPayment( eur( "-200" ));
+        waitIdle();
+        assertEquals( "reports", 1, reporter.reports.get());
+
+        // the moves were reset by the report:
+        processor.registerPayment( usd( "60" ));
+        waitIdle();
+        assertEquals( "reports", 1, reporter.reports.get());
+    }
+
+
+    @Test
+    public void testReportThreshold_exact() throws Exception {
+        reporter.setReportThreshold( new BigDecimal( "100.0000000001" ));
+        reporter.startPaymentReporting();
+
+        // a finer scale than the compact moves:
+        processor.registerPayment( usd( "100.00000000005" ));
+        processor.registerPayment( usd( "0.00000000005" ));
+        waitIdle();
+        assertEquals( "reports", 0, reporter.reports.get());
+
+        processor.registerPayment( usd( "0.00000000001" ));
+        waitIdle();
+        assertEquals( "reports", 1, reporter.reports.get());
+
+        // overflow of the compact moves:
+        reporter.setReportThreshold( new BigDecimal( "20000000000000" ));
+        processor.registerPayment( eur( "9000000000000" ));
+        processor.registerPayment( eur( "9000000000000" ));
+        processor.registerPayment( eur( "-9000000000000" ));
+        waitIdle();
+        assertEquals( "reports", 1, reporter.reports.get());
+
+        processor.registerPayment( eur( "11000000000000.01" ));
+        waitIdle();
+        assertEquals( "reports", 2, reporter.reports.get());
+    }
+
+
+    @Test
+    public void testCoalesce() throws Exception {
+        reporter.setReportEvery( 1 );
+        reporter.release = new CountDownLatch( 1 );
+        reporter.startPaymentReporting();
+
+        processor.registerPayment( usd( "1" ));
+        assertTrue( "running", reporter.entered.await( 5, TimeUnit.SECONDS ));
+
+        // a flood of triggers while the report runs:
+        for (int i=0; i < 100; i++) processor.registerPayment( usd( "1" ));
+
+        reporter.release.countDown();
+        waitIdle();
+
+        assertEquals( "reports", 2, reporter.reports.get());
+        assertEquals( "coalesced", 99, reporter.getCoalescedTriggers());
+    }
+
+
+    @Test
+    public void testCoalesce_runningReport() throws Exception {
+        reporter.setReportEvery( 1 );
+        reporter.release = new CountDownLatch( 1 );
+        reporter.startPaymentReporting();
+
+        Thread explicit = new Thread() {
+            public void run() {
+                reporter.generatePaymentReport();
+            }
+        };
+        explicit.start();
+        assertTrue( "running", reporter.entered.await( 5, TimeUnit.SECONDS ));
+
+        // the triggers do not wait for the running report - the executor stays free:
+        for (int i=0; i < 10; i++) processor.registerPayment( usd( "1" ));
+        waitIdle();
+        assertEquals( "reports", 0, reporter.reports.get());
+
+        reporter.release.countDown();
+        explicit.join( 5000 );
+        waitIdle();
+
+        assertEquals( "reports", 2, reporter.reports.get());
+        assertEquals( "triggered", 1, reporter.getTriggeredReports());
+        assertEquals( "coalesced", 9, reporter.getCoalescedTriggers());
+    }
+
+
+    @Test
+    public void testStop() throws Exception {
+        reporter.setReportEvery( 1 );
+        reporter.startPaymentReporting();
+        reporter.stopPaymentReporting();
+
+        processor.registerPayment( usd( "1" ));
+        waitIdle();
+
+        assertEquals( "reports", 0, reporter.reports.get());
+
+        // can be started again:
+        reporter.startPaymentReporting();
+        processor.registerPayment( usd( "1" ));
+        waitIdle();
+
+        assertEquals( "reports", 1, reporter.reports.get());
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Waits until the tasks submitted so far are finished - the executor has one thread.
+     */
+    private void waitIdle() throws Exception {
+        executor.submit( new Runnable() { public void run() {} }).get( 5, TimeUnit.SECONDS );
+    }
+
+}
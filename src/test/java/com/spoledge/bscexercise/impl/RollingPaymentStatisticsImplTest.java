@@ -0,0 +1,162 @@
+package com.spoledge.bscexercise.impl;
+
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.PaymentBatch;
+import com.spoledge.bscexercise.model.PaymentFlow;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class RollingPaymentStatisticsImplTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Inner
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The statistics with a manual clock.
+     */
+    private static class MyStatistics extends RollingPaymentStatisticsImpl {
+        long second = 1000;
+
+        MyStatistics( int maxSeconds ) {
+            super( maxSeconds, 2 );
+        }
+
+        @Override
+        protected long currentSecond() {
+            return second;
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testFlow() {
+        MyStatistics impl = new MyStatistics( 10 );
+
+        impl.paymentRegistered( usd( "10" ), 1 );
+        impl.paymentRegistered( usd( "-2.50" ), 2 );
+        impl.second++;
+        impl.paymentRegistered( usd( "1.005" ), 3 );
+
+        PaymentFlow flow = impl.getFlow( usd(), 10 );
+
+        assertEquals( "count", 3, flow.getCount());
+        assertEquals( "inflow", "USD 11.01", flow.getInflow().toString());
+        assertEquals( "outflow", "USD -2.50", flow.getOutflow().toString());
+
+        // the last second only:
+        assertEquals( "flow", "USD 1 payments, in 1.01, out 0.00", impl.getFlow( usd(), 1 ).toString());
+
+        assertTrue( "unknown empty", impl.getFlow( eur(), 10 ).isEmpty());
+    }
+
+
+    @Test
+    public void testRolling() {
+        MyStatistics impl = new MyStatistics( 5 );
+
+        for (int i=0; i < 20; i++) {
+            impl.paymentRegistered( usd( "1" ), i + 1 );
+            impl.second++;
+        }
+
+        // the current second is empty and the ring keeps only 5 seconds:
+        assertEquals( "5s", 4, impl.getFlow( usd(), 5 ).getCount());
+        assertEquals( "2s", 1, impl.getFlow( usd(), 2 ).getCount());
+
+        impl.second += 100;
+
+        assertTrue( "expired", impl.getFlow( usd(), 5 ).isEmpty());
+        assertTrue( "no flows", impl.getFlows( 5 ).isEmpty());
+    }
+
+
+    @Test
+    public void testBatch() {
+        MyStatistics impl = new MyStatistics( 60 );
+        PaymentBatch batch = new PaymentBatch();
+
+        batch.add( usd( "10" ));
+        batch.add( usd( "-3" ));
+        batch.add( eur( "-1" ));
+
+        impl.paymentsRegistered( batch, 1 );
+        impl.paymentRegistered( money( "CZK", "100" ), 4 );
+
+        List<PaymentFlow> flows = impl.getFlows( 60 );
+
+        // sorted by the currency code, the batch counts the net sums:
+        assertEquals( "flows", "[CZK 1 payments, in 100.00, out 0.00, EUR 1 payments, in 0.00, out -1.00, "
+                                + "USD 2 payments, in 7.00, out 0.00]", flows.toString());
+    }
+
+
+    @Test
+    public void testSaturated() {
+        MyStatistics impl = new MyStatistics( 10 );
+
+        for (int i=0; i < 2; i++) {
+            impl.paymentRegistered( usd( "90000000000000000" ), 2 * i + 1 );
+            impl.paymentRegistered( usd( "-90000000000000000" ), 2 * i + 2 );
+            impl.second++;
+        }
+
+        // the sums do not overflow neither in a bucket nor across the buckets:
+        assertEquals( "2s", "USD 2 payments, in 90000000000000000.00, out -90000000000000000.00",
+                        impl.getFlow( usd(), 2 ).toString());
+        assertEquals( "10s", "USD 4 payments, in 92233720368547758.07, out -92233720368547758.07",
+                        impl.getFlow( usd(), 10 ).toString());
+
+        impl.paymentRegistered( usd( "90000000000000000" ), 5 );
+        impl.paymentRegistered( usd( "90000000000000000" ), 6 );
+
+        assertEquals( "bucket", "USD 2 payments, in 92233720368547758.07, out 0.00",
+                        impl.getFlow( usd(), 1 ).toString());
+    }
+
+
+    @Test
+    public void testInvalidWindow() {
+        MyStatistics impl = new MyStatistics( 60 );
+
+        try {
+            impl.getFlows( 61 );
+            fail( "IllegalArgumentException expected" );
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final RollingPaymentStatisticsImpl impl = new RollingPaymentStatisticsImpl();
+        Thread[] threads = new Thread[ 4 ];
+
+        for (int t=0; t < threads.length; t++) {
+            threads[ t ] = new Thread() {
+                public void run() {
+                    for (int i=0; i < 10000; i++) impl.paymentRegistered( usd( "1" ), i );
+                }
+            };
+            threads[ t ].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        PaymentFlow flow = impl.getFlow( usd(), 60 );
+
+        assertEquals( "count", 40000, flow.getCount());
+        assertEquals( "inflow", "USD 40000.00", flow.getInflow().toString());
+    }
+
+}
@@ -1,9 +1,18 @@
 package com.spoledge.bscexercise.impl;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Curr;
+
 import static com.spoledge.bscexercise.TestUtils.*;
 
 
@@ -25,4 +34,152 @@ public class SimplePaymentReporterImplTest {
         impl.generatePaymentReport();
     }
 
+
+    @Test
+    public void testTotals() {
+        StringWriter sw = new StringWriter();
+        MemoryPaymentProcessorImpl pp = new MemoryPaymentProcessorImpl();
+        SimplePaymentReporterImpl impl = new SimplePaymentReporterImpl( new PrintWriter( sw ));
+        FileCurrencyConverterImpl cc = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+
+        rates.put( eur(), new BigDecimal( "1.25" ));
+        cc.setRates( rates );
+
+        impl.setPaymentProcessor( pp );
+        impl.setCurrencyConverter( cc );
+        impl.setTotalCurrencies( Arrays.asList( usd(), eur()));
+
+        pp.registerPayment( usd( "10" ));
+        pp.registerPayment( eur( "8" ));
+        impl.generatePaymentReport();
+
+        String report = sw.toString();
+
+        assertTrue( report, report.contains( "EUR 8 (USD 10.00)" ));
+        assertTrue( report, report.contains( "Total USD 20.00" ));
+        assertTrue( report, report.contains( "Total EUR 16.00" ));
+
+        pp.registerPayment( money( "CZK", "100" ));
+        impl.generatePaymentReport();
+
+        report = sw.toString();
+
+        assertTrue( report, report.contains( "CZK 100 (USD ???)" ));
+        assertTrue( report, report.contains( "Total USD 20.00 (without 1 unknown currencies)" ));
+    }
+
+
+    @Test
+    public void testIncremental() {
+        StringWriter sw = new StringWriter();
+        MemoryPaymentProcessorImpl pp = new MemoryPaymentProcessorImpl();
+        SimplePaymentReporterImpl impl = new SimplePaymentReporterImpl( new PrintWriter( sw ));
+        FileCurrencyConverterImpl cc = new FileCurrencyConverterImpl( usd(), 2 );
+        HashMap<Curr, BigDecimal> rates = new HashMap<Curr, BigDecimal>();
+
+        rates.put( eur(), new BigDecimal( "1.25" ));
+        rates.put( curr( "CZK" ), new BigDecimal( "0.04" ));
+        cc.setRates( rates );
+
+        impl.setPaymentProcessor( pp );
+        impl.setCurrencyConverter( cc );
+        impl.setTotalCurrencies( Arrays.asList( usd()));
+
+        pp.registerPayment( usd( "10" ));
+        pp.registerPayment( eur( "8" ));
+        pp.registerPayment( money( "CZK", "100" ));
+        impl.generatePaymentReport();
+
+        assertEquals( "recomputed lines", 3, impl.getRecomputedLines());
+
+        impl.generatePaymentReport();
+
+        assertEquals( "nothing changed", 3, impl.getRecomputedLines());
+
+        pp.registerPayment( eur( "2" ));
+        sw.getBuffer().setLength( 0 );
+        impl.generatePaymentReport();
+
+        String report = sw.toString();
+
+        assertEquals( "only EUR recomputed", 4, impl.getRecomputedLines());
+        assertTrue( report, report.contains( "EUR 10 (USD 12.50)" ));
+        assertTrue( report, report.contains( "CZK 100 (USD 4.00)" ));
+        assertTrue( report, report.contains( "Total USD 26.50" ));
+        assertTrue( report, report.indexOf( "CZK" ) < report.indexOf( "EUR" ));
+
+        rates.put( eur(), new BigDecimal( "1.5" ));
+        cc.setRates( rates );
+        sw.getBuffer().setLength( 0 );
+        impl.generatePaymentReport();
+
+        report = sw.toString();
+
+        assertEquals( "all recomputed after rates changed", 7, impl.getRecomputedLines());
+        assertTrue( report, report.contains( "EUR 10 (USD 15.00)" ));
+        assertTrue( report, report.contains( "Total USD 29.00" ));
+    }
+
+
+    @Test
+    public void testUnchanged() {
+        StringWriter sw = new StringWriter();
+        final int[] balances = new int[ 1 ];
+        MemoryPaymentProcessorImpl pp = new MemoryPaymentProcessorImpl() {
+            public Balance getBalance() {
+                balances[ 0 ]++;
+                return super.getBalance();
+            }
+        };
+        SimplePaymentReporterImpl impl = new SimplePaymentReporterImpl( new PrintWriter( sw ));
+        impl.setPaymentProcessor( pp );
+
+        pp.registerPayment( usd( "10" ));
+        pp.registerPayment( eur( "8" ));
+        impl.generatePaymentReport();
+
+        String report = sw.toString();
+        sw.getBuffer().setLength( 0 );
+        impl.generatePaymentReport();
+
+        assertEquals( "same report", report, sw.toString());
+        assertEquals( "balance obtained once", 1, balances[ 0 ]);
+
+        // a zero balance disappears, a new currency is inserted in the order:
+        pp.registerPayment( eur( "-8" ));
+        pp.registerPayment( money( "CZK", "5" ));
+        sw.getBuffer().setLength( 0 );
+        impl.generatePaymentReport();
+
+        report = sw.toString();
+
+        assertEquals( "balance obtained again", 2, balances[ 0 ]);
+        assertFalse( report, report.contains( "EUR" ));
+        assertTrue( report, report.contains( "] ----" + SimplePaymentReporterImpl.NL + "CZK 5" + SimplePaymentReporterImpl.NL
+                                                + "USD 10" + SimplePaymentReporterImpl.NL + "----" ));
+    }
+
+
+    @Test
+    public void testFlows() {
+        StringWriter sw = new StringWriter();
+        RollingPaymentStatisticsImpl statistics = new RollingPaymentStatisticsImpl();
+        NotifyingPaymentProcessorImpl pp = new NotifyingPaymentProcessorImpl( new MemoryPaymentProcessorImpl());
+        SimplePaymentReporterImpl impl = new SimplePaymentReporterImpl( new PrintWriter( sw ));
+
+        pp.addPaymentListener( statistics );
+        impl.setPaymentProcessor( pp );
+        impl.setPaymentStatistics( statistics );
+
+        pp.registerPayment( usd( "10" ));
+        pp.registerPayment( usd( "-4" ));
+        impl.generatePaymentReport();
+
+        String report = sw.toString();
+
+        assertTrue( report, report.contains( "USD 6" ));
+        assertTrue( report, report.contains( "Flow 60s USD 2 payments, in 10.00, out -4.00" ));
+    }
+
 }
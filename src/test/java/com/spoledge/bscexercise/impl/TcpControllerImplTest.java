@@ -0,0 +1,267 @@
+package com.spoledge.bscexercise.impl;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.PaymentReporter;
+import com.spoledge.bscexercise.model.Money;
+
+
+public class TcpControllerImplTest {
+
+    private TcpControllerImpl impl;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Setup
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Before
+    public void setUp() {
+        impl = new TcpControllerImpl( 0 );
+        impl.setPaymentProcessor( new ConcurrentPaymentProcessorImpl());
+        impl.setMoneyParser( new MoneyParserImpl( 2 ));
+        impl.start();
+    }
+
+
+    @After
+    public void tearDown() {
+        impl.stop();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testPipelined() throws Exception {
+        Socket socket = connect();
+        BufferedReader in = reader( socket );
+
+        // all lines at once - the answers are pipelined:
+        write( socket, "USD 10\r\nEUR 1.5\n\nUSD x\nforex USD 1\nhelp\nbad command\n  USD -3  \n" );
+
+        assertEquals( ">> Registered payment USD 10.00 as tx[1]", in.readLine());
+        assertEquals( ">> Registered payment EUR 1.50 as tx[2]", in.readLine());
+        assertTrue( in.readLine().startsWith( ">> ERROR - invalid payment format" ));
+        assertEquals( ">> No exchange rates loaded.", in.readLine());
+        assertTrue( in.readLine().startsWith( ">> Commands:" ));
+        assertEquals( ">> ERROR - unknown command 'bad command'", in.readLine());
+        assertEquals( ">> Registered payment USD -3.00 as tx[3]", in.readLine());
+
+        // the last line does not need to be terminated:
+        write( socket, "CZK 100" );
+        socket.shutdownOutput();
+
+        assertEquals( ">> Registered payment CZK 100.00 as tx[4]", in.readLine());
+        assertNull( "closed", in.readLine());
+
+        socket.close();
+
+        assertEquals( "balance", "[CZK 100.00, EUR 1.50, USD 7.00]",
+                        impl.getPaymentProcessor().getBalance().getAllMoney().toString());
+    }
+
+
+    @Test
+    public void testConcurrentFeeders() throws Exception {
+        final int feeders = 4;
+        final int lines = 2000;
+        Thread[] threads = new Thread[ feeders ];
+        final Exception[] errors = new Exception[ feeders ];
+
+        for (int t=0; t < feeders; t++) {
+            final int id = t;
+
+            threads[ t ] = new Thread() {
+                public void run() {
+                    try {
+                        Socket socket = connect();
+                        BufferedReader in = reader( socket );
+                        StringBuilder sb = new StringBuilder();
+
+                        for (int i=0; i < lines; i++) sb.append( "USD 1\n" );
+
+                        write( socket, sb.toString());
+
+                        for (int i=0; i < lines; i++) {
+                            String line = in.readLine();
+                            if (!line.startsWith( ">> Registered" )) throw new IllegalStateException( line );
+                        }
+
+                        write( socket, "quit\n" );
+                        assertEquals( ">> Bye!", in.readLine());
+                        assertNull( in.readLine());
+                        socket.close();
+                    }
+                    catch (Exception e) {
+                        errors[ id ] = e;
+                    }
+                }
+            };
+            threads[ t ].start();
+        }
+
+        for (int t=0; t < feeders; t++) {
+            threads[ t ].join();
+            if (errors[ t ] != null) throw errors[ t ];
+        }
+
+        assertEquals( "tx", feeders * lines, impl.getPaymentProcessor().getBalance().getLastTransationId());
+    }
+
+
+    @Test
+    public void testLineTooLong() throws Exception {
+        impl.stop();
+        impl.setBufferSize( 16 );
+        impl.start();
+
+        Socket socket = connect();
+        BufferedReader in = reader( socket );
+
+        write( socket, "USD 1\nUSD 1000000000000000000000\n" );
+
+        assertEquals( ">> Registered payment USD 1.00 as tx[1]", in.readLine());
+        assertEquals( ">> ERROR - line too long", in.readLine());
+        assertNull( "closed", in.readLine());
+
+        socket.close();
+    }
+
+
+    @Test
+    public void testReport() throws Exception {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger reports = new AtomicInteger();
+
+        impl.setPaymentReporter( new PaymentReporter() {
+            public void startPaymentReporting() {}
+            public void stopPaymentReporting() {}
+            public void generatePaymentReport() {
+                try {
+                    release.await( 10, TimeUnit.SECONDS );
+                }
+                catch (InterruptedException e) {
+                }
+
+                reports.incrementAndGet();
+            }
+        });
+
+        Socket socket = connect();
+        BufferedReader in = reader( socket );
+
+        // the slow report does not block the other lines:
+        write( socket, "report\nreport\nUSD 1\n" );
+
+        assertEquals( ">> Report scheduled", in.readLine());
+        assertEquals( ">> Report scheduled", in.readLine());
+        assertEquals( ">> Registered payment USD 1.00 as tx[1]", in.readLine());
+        assertEquals( "not finished", 0, reports.get());
+
+        release.countDown();
+
+        for (int i=0; i < 500 && reports.get() == 0; i++) Thread.sleep( 10 );
+
+        assertTrue( "generated", reports.get() > 0 );
+
+        socket.close();
+    }
+
+
+    @Test
+    public void testProcessorFailed() throws Exception {
+        impl.stop();
+        impl.setPaymentProcessor( new ConcurrentPaymentProcessorImpl() {
+            public int registerPayment( Money payment ) {
+                if ("CZK".equals( payment.getCurrency().getCurrencyCode())) {
+                    throw new IllegalStateException( "Cannot sync journal" );
+                }
+
+                return super.registerPayment( payment );
+            }
+        });
+        impl.start();
+
+        Socket socket = connect();
+        BufferedReader in = reader( socket );
+
+        write( socket, "USD 1\nCZK 2\nUSD 3\n" );
+
+        assertEquals( ">> Registered payment USD 1.00 as tx[1]", in.readLine());
+        assertEquals( ">> ERROR - cannot register payment: Cannot sync journal", in.readLine());
+        assertEquals( ">> Registered payment USD 3.00 as tx[2]", in.readLine());
+
+        // the listener is still alive:
+        Socket other = connect();
+        BufferedReader otherIn = reader( other );
+
+        write( other, "quit\n" );
+        assertEquals( ">> Bye!", otherIn.readLine());
+        assertNull( "closed", otherIn.readLine());
+
+        other.close();
+        socket.close();
+
+        for (int i=0; i < 500 && impl.getConnectionCount() > 0; i++) Thread.sleep( 10 );
+
+        impl.stop();
+        assertEquals( "connections", 0, impl.getConnectionCount());
+    }
+
+
+    @Test
+    public void testStop() throws Exception {
+        Socket socket = connect();
+        BufferedReader in = reader( socket );
+
+        write( socket, "USD 1\n" );
+        assertEquals( ">> Registered payment USD 1.00 as tx[1]", in.readLine());
+
+        impl.stop();
+
+        assertNull( "closed", in.readLine());
+        assertEquals( "connections", 0, impl.getConnectionCount());
+
+        socket.close();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private Socket connect() throws Exception {
+        Socket ret = new Socket( InetAddress.getByName( null ), impl.getLocalPort());
+        ret.setSoTimeout( 10000 );
+
+        return ret;
+    }
+
+
+    private static BufferedReader reader( Socket socket ) throws Exception {
+        return new BufferedReader( new InputStreamReader( socket.getInputStream(), "US-ASCII" ));
+    }
+
+
+    private static void write( Socket socket, String s ) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        out.write( s.getBytes( "US-ASCII" ));
+        out.flush();
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.spoledge.bscexercise.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class ConvertedBalanceTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testItems() {
+        List<Money> list = new ArrayList<Money>();
+        list.add( money( "CZK", "100" ));
+        list.add( eur( "8" ));
+
+        Balance balance = new Balance( 2, list );
+        Money converted = usd( "10.00" );
+        ConvertedBalance cb = new ConvertedBalance( balance, usd(), new Money[] { null, converted }, converted );
+
+        assertTrue( "items", cb.hasItems());
+        assertNull( "CZK", cb.getConverted( 0 ));
+        assertSame( "EUR", converted, cb.getConverted( 1 ));
+        assertEquals( "missing", 1, cb.getMissingCount());
+        assertFalse( "complete", cb.isComplete());
+    }
+
+
+    @Test
+    public void testSummary() {
+        List<Money> list = new ArrayList<Money>();
+        list.add( money( "CZK", "100" ));
+        list.add( eur( "8" ));
+
+        Balance balance = new Balance( 2, list );
+        Money total = usd( "10.00" );
+        ConvertedBalance cb = new ConvertedBalance( balance, usd(), total, 1 );
+
+        assertFalse( "items", cb.hasItems());
+        assertSame( "balance", balance, cb.getBalance());
+        assertSame( "total", total, cb.getTotal());
+        assertEquals( "missing", 1, cb.getMissingCount());
+
+        try {
+            cb.getConverted( 0 );
+            fail( "IllegalStateException expected" );
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+}
@@ -35,6 +35,24 @@ public class CurrTest {
     }
 
 
+    @Test( expected = IllegalArgumentException.class )
+    public void testGetInstance_digit() {
+        Curr.getInstance( "US1" );
+    }
+
+
+    @Test
+    public void testIndex() {
+        assertEquals( "AAA", 0, Curr.getInstance( "AAA" ).getIndex());
+        assertEquals( "ZZZ", Curr.INDEX_COUNT - 1, Curr.getInstance( "ZZZ" ).getIndex());
+        assertTrue( "ordered", Curr.getInstance( "EUR" ).getIndex() < Curr.getInstance( "USD" ).getIndex());
+
+        assertSame( "by index", Curr.getInstance( "USD" ), Curr.getInstance( Curr.getInstance( "USD" ).getIndex()));
+        assertEquals( "code by index", "CZK", Curr.getInstance( Curr.index( 'C', 'Z', 'K' )).getCurrencyCode());
+        assertEquals( "invalid index", -1, Curr.index( 'C', 'z', 'K' ));
+    }
+
+
     @Test
     public void testToString() {
         assertEquals( "USD", Curr.getInstance( "USD" ).toString());;
@@ -0,0 +1,64 @@
+package com.spoledge.bscexercise.model;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class MoneySumTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testAdd_scales() {
+        MoneySum sum = new MoneySum( usd());
+
+        sum.add( usd( "10" ));
+        sum.add( usd( "30" ));
+        assertEquals( "scale 0", new BigDecimal( "40" ), sum.getAmount());
+
+        sum.add( usd( "-0.01" ));
+        assertEquals( "scale 2", new BigDecimal( "39.99" ), sum.getAmount());
+
+        sum.add( usd( "1" ));
+        assertEquals( "scale kept", new BigDecimal( "40.99" ), sum.getAmount());
+        assertTrue( "compact", sum.isCompact());
+    }
+
+
+    @Test
+    public void testAdd_overflow() {
+        MoneySum sum = new MoneySum( usd());
+
+        sum.add( Long.MAX_VALUE, 2 );
+        sum.add( 1, 2 );
+
+        assertFalse( "not compact", sum.isCompact());
+        assertEquals( "overflow", BigDecimal.valueOf( Long.MAX_VALUE, 2 ).add( new BigDecimal( "0.01" )),
+                        sum.getAmount());
+
+        sum.add( -1, 2 );
+        assertTrue( "compact again", sum.isCompact());
+        assertEquals( "back", BigDecimal.valueOf( Long.MAX_VALUE, 2 ), sum.toMoney().getAmount());
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testAdd_currency_mismatch() {
+        new MoneySum( usd()).add( eur( "1" ));
+    }
+
+
+    @Test
+    public void testRescale() {
+        assertEquals( "x100", 12300L, MoneySum.rescale( 123, 2 ));
+        assertEquals( "overflow", Long.MIN_VALUE, MoneySum.rescale( Long.MAX_VALUE / 10, 2 ));
+        assertEquals( "too many digits", Long.MIN_VALUE, MoneySum.rescale( 1, 19 ));
+    }
+
+}
@@ -81,6 +81,23 @@ public class MoneyTest {
     }
 
 
+    @Test
+    public void testCompact() {
+        Money m1 = new Money( curr( "USD" ), 1234, 2 );
+
+        assertTrue( "compact", m1.isCompact());
+        assertEquals( "amount", new BigDecimal( "12.34" ), m1.getAmount());
+        assertEquals( "same amount", m1.getAmount(), usd( "12.34" ).getAmount());
+        assertEquals( "unscaled", 1234L, usd( "12.34" ).getUnscaledAmount());
+
+        Money result = m1.add( usd( "-0.345" ));
+        assertTrue( "result compact", result.isCompact());
+        assertEquals( "amount calculated", new BigDecimal( "11.995" ), result.getAmount());
+
+        assertFalse( "big", usd( "123456789012345678901234567890" ).isCompact());
+    }
+
+
     @Test
     public void testToString() {
         assertEquals( "no dollars", "USD 0", usd( BigDecimal.ZERO ).toString());
@@ -0,0 +1,64 @@
+package com.spoledge.bscexercise.model;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class PaymentBatchTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testAdd() {
+        PaymentBatch batch = new PaymentBatch();
+
+        assertTrue( "empty", batch.isEmpty());
+
+        batch.add( usd( "10" ));
+        batch.add( eur( "1.50" ));
+        batch.add( usd( "-0.01" ));
+
+        assertEquals( "count", 3, batch.getCount());
+        assertEquals( "currencies", 2, batch.getCurrencyCount());
+        assertEquals( "sums", "[USD 9.99, EUR 1.50]", batch.getAllMoney().toString());
+        assertEquals( "USD count", 2, batch.getCount( 0 ));
+        assertEquals( "EUR count", 1, batch.getCount( 1 ));
+    }
+
+
+    @Test
+    public void testAddAll() {
+        PaymentBatch batch1 = new PaymentBatch();
+        batch1.add( usd( "10" ));
+
+        PaymentBatch batch2 = new PaymentBatch();
+        batch2.add( eur( "1" ));
+        batch2.add( usd( "5" ));
+
+        batch1.addAll( batch2 );
+
+        assertEquals( "count", 3, batch1.getCount());
+        assertEquals( "sums", "[USD 15, EUR 1]", batch1.getAllMoney().toString());
+        assertEquals( "USD count", 2, batch1.getCount( 0 ));
+    }
+
+
+    @Test
+    public void testClear() {
+        PaymentBatch batch = new PaymentBatch();
+        batch.add( usd( "10" ));
+        batch.clear();
+
+        assertTrue( "empty", batch.isEmpty());
+        assertEquals( "currencies", 0, batch.getCurrencyCount());
+
+        batch.add( usd( "1" ));
+        assertEquals( "sums", "[USD 1]", batch.getAllMoney().toString());
+        assertEquals( "USD count", 1, batch.getCount( 0 ));
+    }
+
+}
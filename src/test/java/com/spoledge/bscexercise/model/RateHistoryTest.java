@@ -0,0 +1,92 @@
+package com.spoledge.bscexercise.model;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class RateHistoryTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testGet() {
+        RateHistory history = new RateHistory();
+
+        assertNull( "empty", history.get( 100 ));
+        assertNull( "empty latest", history.getLatest());
+
+        RateTable t200 = table( "1.2" );
+        RateTable t100 = table( "1.1" );
+        RateTable t300 = table( "1.3" );
+
+        history.add( 200, t200 );
+        history.add( 100, t100 );
+        history.add( 300, t300 );
+
+        assertEquals( "size", 3, history.size());
+        assertNull( "before", history.get( 99 ));
+        assertSame( "100", t100, history.get( 100 ));
+        assertSame( "199", t100, history.get( 199 ));
+        assertSame( "200", t200, history.get( 200 ));
+        assertSame( "250", t200, history.get( 250 ));
+        assertSame( "after", t300, history.get( 1000 ));
+        assertSame( "latest", t300, history.getLatest());
+
+        RateTable t200b = table( "2" );
+        history.add( 200, t200b );
+
+        assertEquals( "size after replace", 3, history.size());
+        assertSame( "200 replaced", t200b, history.get( 200 ));
+    }
+
+
+    @Test
+    public void testMaxVersions() {
+        RateHistory history = new RateHistory( 2 );
+
+        history.add( 100, table( "1.1" ));
+        history.add( 200, table( "1.2" ));
+        history.add( 300, table( "1.3" ));
+
+        assertEquals( "size", 2, history.size());
+        assertNull( "evicted", history.get( 150 ));
+        assertEquals( "first", 200, history.getEffectiveTimes()[ 0 ]);
+    }
+
+
+    @Test
+    public void testEvict() {
+        RateHistory history = new RateHistory();
+
+        history.add( 100, table( "1.1" ));
+        history.add( 200, table( "1.2" ));
+        history.add( 300, table( "1.3" ));
+
+        assertEquals( "nothing to evict", 0, history.evict( 150 ));
+        assertEquals( "evicted", 1, history.evict( 250 ));
+        assertEquals( "size", 2, history.size());
+        assertNotNull( "still valid", history.get( 250 ));
+        assertEquals( "evicted all but last", 1, history.evict( 1000 ));
+        assertNotNull( "last valid", history.get( 1000 ));
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private RateTable table( String eurRate ) {
+        HashMap<Curr, BigDecimal> map = new HashMap<Curr, BigDecimal>();
+        map.put( eur(), new BigDecimal( eurRate ));
+
+        return new RateTable( usd(), map );
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.spoledge.bscexercise.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class RateTableTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testEmpty() {
+        RateTable table = new RateTable( usd(), new HashMap<Curr, BigDecimal>());
+
+        assertEquals( "currencies", 1, table.getCurrencies().size());
+        assertTrue( "base", table.contains( usd()));
+        assertFalse( "EUR", table.contains( eur()));
+        assertEquals( "USD/USD", BigDecimal.ONE, table.getRate( usd(), usd()));
+        assertNull( "EUR/USD", table.getRate( eur(), usd()));
+        assertNull( "EUR 1", table.convert( eur( "1" ), usd(), 2 ));
+    }
+
+
+    @Test
+    public void testCrossRates() {
+        RateTable table = new RateTable( usd(), rates());
+
+        assertEquals( "currencies", 3, table.getCurrencies().size());
+
+        // direct rates are exact:
+        assertEquals( "EUR/USD", new BigDecimal( "1.25" ), table.getRate( eur(), usd()));
+        assertEquals( "CZK/USD", new BigDecimal( "0.05" ), table.getRate( curr( "CZK" ), usd()));
+
+        assertEquals( "USD/EUR", new BigDecimal( "0.8" ), table.getRate( usd(), eur()));
+        assertEquals( "EUR/CZK", new BigDecimal( "25" ), table.getRate( eur(), curr( "CZK" )));
+        assertEquals( "CZK/EUR", new BigDecimal( "0.04" ), table.getRate( curr( "CZK" ), eur()));
+        assertNull( "GBP/EUR", table.getRate( curr( "GBP" ), eur()));
+    }
+
+
+    @Test
+    public void testConvert() {
+        RateTable table = new RateTable( usd(), rates());
+
+        Money converted = table.convert( eur( "10" ), curr( "CZK" ), 2 );
+
+        assertEquals( "EUR 10 in CZK", curr( "CZK" ), converted.getCurrency());
+        assertEquals( "EUR 10 in CZK", new BigDecimal( "250.00" ), converted.getAmount());
+        assertEquals( "CZK 1 in EUR", new BigDecimal( "0.04" ), table.convert( money( "CZK", "1" ), eur(), 2 ).getAmount());
+        assertEquals( "CZK 1 in EUR", new BigDecimal( "0" ), table.convert( money( "CZK", "1" ), eur(), 0 ).getAmount());
+
+        Money same = eur( "1.234" );
+        assertSame( "same currency", same, table.convert( same, eur(), 2 ));
+    }
+
+
+    @Test
+    public void testConvertBalance() {
+        RateTable table = new RateTable( usd(), rates());
+        List<Money> list = new ArrayList<Money>();
+
+        list.add( eur( "10" ));
+        list.add( money( "GBP", "1" ));
+        list.add( money( "CZK", "1" ));
+        list.add( usd( "0.5" ));
+
+        ConvertedBalance cb = table.convert( new Balance( 4, list ), usd(), 2 );
+
+        assertEquals( "target", usd(), cb.getTargetCurrency());
+        assertEquals( "EUR", new BigDecimal( "12.50" ), cb.getConverted( 0 ).getAmount());
+        assertNull( "GBP", cb.getConverted( 1 ));
+        assertEquals( "CZK", new BigDecimal( "0.05" ), cb.getConverted( 2 ).getAmount());
+        assertSame( "USD", list.get( 3 ), cb.getConverted( 3 ));
+        assertEquals( "total", new BigDecimal( "13.05" ), cb.getTotal().getAmount());
+        assertEquals( "missing", 1, cb.getMissingCount());
+        assertFalse( "complete", cb.isComplete());
+
+        cb = table.convert( new Balance( 4, list ), curr( "GBP" ), 2 );
+
+        assertEquals( "unknown target", 3, cb.getMissingCount());
+        assertEquals( "unknown target total", new BigDecimal( "1.00" ), cb.getTotal().getAmount());
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidRate() {
+        HashMap<Curr, BigDecimal> map = rates();
+        map.put( curr( "GBP" ), BigDecimal.ZERO );
+
+        new RateTable( usd(), map );
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private HashMap<Curr, BigDecimal> rates() {
+        HashMap<Curr, BigDecimal> ret = new HashMap<Curr, BigDecimal>();
+        ret.put( eur(), new BigDecimal( "1.25" ));
+        ret.put( curr( "CZK" ), new BigDecimal( "0.05" ));
+        ret.put( usd(), new BigDecimal( "2" ));
+
+        return ret;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.spoledge.bscexercise.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Balance;
+import com.spoledge.bscexercise.model.Money;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class BalanceSnapshotTest {
+
+    private File file;
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Junit
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile( "balance", ".snapshot" );
+        file.delete();
+    }
+
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File( file.getPath() + ".bak" ).delete();
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testReadMissing() throws Exception {
+        assertNull( "missing snapshot", new BalanceSnapshot( file ).read());
+    }
+
+
+    @Test
+    public void testWriteRead() throws Exception {
+        List<Money> list = new ArrayList<Money>();
+        list.add( usd( "10.25" ));
+        list.add( eur( "123456789012345678901234567890.5" ));
+
+        BalanceSnapshot snapshot = new BalanceSnapshot( file );
+        snapshot.write( new Balance( 5, list ));
+        snapshot.write( new Balance( 7, list ));
+
+        Balance balance = snapshot.read();
+
+        assertEquals( "last tx id", 7, balance.getLastTransationId());
+        assertEquals( "size of list of money", 2, balance.getAllMoney().size());
+        assertEquals( "USD", usd(), balance.getAllMoney().get( 0 ).getCurrency());
+        assertEquals( "USD balance", new BigDecimal( "10.25" ), balance.getAllMoney().get( 0 ).getAmount());
+        assertEquals( "EUR balance", new BigDecimal( "123456789012345678901234567890.5" ),
+            balance.getAllMoney().get( 1 ).getAmount());
+    }
+
+
+    @Test
+    public void testReadBackup() throws Exception {
+        List<Money> list = new ArrayList<Money>();
+        list.add( usd( "10.25" ));
+
+        BalanceSnapshot snapshot = new BalanceSnapshot( file );
+        snapshot.write( new Balance( 5, list ));
+
+        assertFalse( "no backup left", snapshot.getBackupFile().exists());
+
+        // simulate a crash after the old snapshot was moved to the backup:
+        assertTrue( "renamed", file.renameTo( snapshot.getBackupFile()));
+
+        assertEquals( "backup tx id", 5, snapshot.read().getLastTransationId());
+
+        snapshot.write( new Balance( 7, list ));
+
+        assertEquals( "new tx id", 7, snapshot.read().getLastTransationId());
+    }
+
+
+    @Test
+    public void testReadCorrupted() throws Exception {
+        List<Money> list = new ArrayList<Money>();
+        list.add( usd( "10.25" ));
+
+        BalanceSnapshot snapshot = new BalanceSnapshot( file );
+        snapshot.write( new Balance( 5, list ));
+
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.seek( 12 );
+        raf.write( 1 );
+        raf.close();
+
+        try {
+            snapshot.read();
+            fail( "IOException expected" );
+        }
+        catch (IOException e) {
+        }
+    }
+
+}
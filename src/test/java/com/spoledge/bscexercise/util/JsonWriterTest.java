@@ -0,0 +1,55 @@
+package com.spoledge.bscexercise.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class JsonWriterTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testStructure() {
+        ReportBuffer buf = new ReportBuffer();
+        JsonWriter json = new JsonWriter( buf );
+
+        json.beginObject();
+        json.name( "a" ).value( 1 );
+        json.name( "b" ).beginArray().value( "x" ).nullValue().beginObject().endObject().endArray();
+        json.name( "c" ).amount( usd( "-0.50" ));
+        json.name( "d" ).beginArray().endArray();
+        json.endObject();
+
+        assertEquals( "json", "{\"a\":1,\"b\":[\"x\",null,{}],\"c\":-0.50,\"d\":[]}", text( buf ));
+
+        buf.clear();
+        json.reset();
+        json.beginArray().value( 2 ).endArray();
+
+        assertEquals( "reused", "[2]", text( buf ));
+    }
+
+
+    @Test
+    public void testEscaping() {
+        ReportBuffer buf = new ReportBuffer();
+
+        JsonWriter.appendString( buf, "a\"b\\c\nd\u0001\u00e9" );
+
+        assertEquals( "escaped", "\"a\\\"b\\\\c\\nd\\u0001\\u00e9\"", text( buf ));
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private String text( ReportBuffer buf ) {
+        return new String( buf.array(), 0, buf.length());
+    }
+
+}
@@ -2,6 +2,7 @@ package com.spoledge.bscexercise.util;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -11,6 +12,7 @@ import static org.junit.Assert.*;
 import com.spoledge.bscexercise.MoneyParseException;
 import com.spoledge.bscexercise.impl.MoneyParserImpl;
 import com.spoledge.bscexercise.model.Money;
+import com.spoledge.bscexercise.model.PaymentBatch;
 
 public class MoneyFileTest {
 
@@ -48,6 +50,91 @@ public class MoneyFileTest {
     }
 
 
+    @Test
+    public void testFetchAll() throws Exception {
+        mf = new MoneyFile( new MoneyParserImpl( 2 ), sample( "decimals.txt" ));
+        List<Money> all = mf.fetchAll();
+
+        assertEquals( "# lines", 5, all.size());
+        assertEquals( "last", "HKD 200.35", all.get( 4 ).toString());
+    }
+
+
+    @Test
+    public void testFetchAll_wrong() throws Exception {
+        mf = new MoneyFile( new MoneyParserImpl( 2 ), sample( "wrong.txt" ));
+
+        try {
+            mf.fetchAll();
+            fail( "Exception expected" );
+        }
+        catch (MoneyParseException e) {
+            assertEquals( "line number", 4, e.getLineNumber());
+        }
+
+        // the file is closed, so it can be fetched again:
+        assertNotNull( "fetch again", mf.fetch());
+    }
+
+
+    @Test
+    public void testFetchBatch() throws Exception {
+        mf = new MoneyFile( new MoneyParserImpl( 2 ), sample( "decimals.txt" ));
+        PaymentBatch batch = mf.fetchBatch( 4 );
+
+        assertEquals( "# lines", 5, batch.getCount());
+        assertEquals( "sums", "[USD 899.80, HKD 300.85, RMB 2000.01]", batch.getAllMoney().toString());
+    }
+
+
+    @Test
+    public void testFetchBatch_chunks() throws Exception {
+        File tmp = File.createTempFile( "moneyfile", ".txt" );
+        tmp.deleteOnExit();
+
+        java.io.PrintWriter out = new java.io.PrintWriter( tmp );
+        for (int i=0; i < 1000; i++) out.print( i % 3 == 0 ? "USD 1.01\r\n" : i % 3 == 1 ? "EUR -2\n" : "CZK 3\r" );
+        out.print( "USD 1000" );
+        out.close();
+
+        mf = new MoneyFile( new MoneyParserImpl( 2 ), tmp );
+        PaymentBatch batch = mf.fetchBatch( 3, 100 );
+
+        assertEquals( "# lines", 1001, batch.getCount());
+        assertEquals( "sums", "[USD 1337.34, EUR -666.00, CZK 999.00]", batch.getAllMoney().toString());
+    }
+
+
+    @Test
+    public void testFetchBatch_wrong() throws Exception {
+        File tmp = File.createTempFile( "moneyfile", ".txt" );
+        tmp.deleteOnExit();
+
+        java.io.PrintWriter out = new java.io.PrintWriter( tmp );
+        for (int i=0; i < 1000; i++) out.print( i == 700 || i == 900 ? "USD 1.011\n" : "USD 1\n" );
+        out.close();
+
+        mf = new MoneyFile( new MoneyParserImpl( 2 ), tmp );
+
+        try {
+            mf.fetchBatch( 3, 100 );
+            fail( "Exception expected" );
+        }
+        catch (MoneyParseException e) {
+            mf = new MoneyFile( new MoneyParserImpl( 2 ), tmp );
+
+            try {
+                mf.fetchAll();
+                fail( "Exception expected" );
+            }
+            catch (MoneyParseException e2) {
+                assertEquals( "same line number", e2.getLineNumber(), e.getLineNumber());
+                assertEquals( "same message", e2.getMessage(), e.getMessage());
+            }
+        }
+    }
+
+
     @Test
     public void testValidate() throws Exception {
         mf = new MoneyFile( new MoneyParserImpl( 2 ), sample( "example.txt" ));
@@ -0,0 +1,93 @@
+package com.spoledge.bscexercise.util;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.spoledge.bscexercise.model.Money;
+
+import static com.spoledge.bscexercise.TestUtils.*;
+
+
+public class ReportBufferTest {
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Tests
+    ////////////////////////////////////////////////////////////////////////////
+
+    @Test
+    public void testAppend() {
+        ReportBuffer buf = new ReportBuffer( 4 );
+
+        buf.append( "tx=" ).append( 0L ).append( ',' ).append( -1234567890123L ).append( ',' )
+            .append( Long.MIN_VALUE ).append( ",\u00e9" );
+
+        assertEquals( "text", "tx=0,-1234567890123,-9223372036854775808,?", text( buf ));
+
+        buf.clear();
+
+        assertEquals( "cleared", 0, buf.length());
+    }
+
+
+    @Test
+    public void testAppendAmount() {
+        String[] amounts = { "0", "1", "-1", "0.5", "-0.05", "0.00", "10.01", "-123.456", "1E+3",
+                                "123456789012345678901234567890.12" };
+
+        ReportBuffer buf = new ReportBuffer();
+
+        for (String amount : amounts) {
+            Money money = usd( amount );
+
+            buf.clear();
+            buf.appendAmount( money );
+
+            assertEquals( amount, money.getAmount().toPlainString(), text( buf ));
+        }
+
+        buf.clear();
+        buf.appendAmount( new Money( usd(), -7, 3 ));
+
+        assertEquals( "compact", "-0.007", text( buf ));
+    }
+
+
+    @Test
+    public void testBinary() {
+        ReportBuffer buf = new ReportBuffer( 4 );
+        BigDecimal big = new BigDecimal( "123456789012345678901234567890.12" );
+
+        buf.putInt( 0 );
+        buf.putShort( 0x1234 );
+        buf.putByte( 7 );
+        buf.putMoney( usd( "10.25" ));
+        buf.putMoney( eur( big ));
+        buf.setInt( 0, 0xcafebabe );
+
+        ByteBuffer bb = ByteBuffer.wrap( buf.array(), 0, buf.length());
+
+        assertEquals( "int", 0xcafebabe, bb.getInt());
+        assertEquals( "short", 0x1234, bb.getShort());
+        assertEquals( "byte", 7, bb.get());
+        assertEquals( "compact", new BigDecimal( "10.25" ), PaymentJournal.getMoney( bb ).getAmount());
+
+        Money money = PaymentJournal.getMoney( bb );
+
+        assertEquals( "decimal currency", eur(), money.getCurrency());
+        assertEquals( "decimal", big, money.getAmount());
+        assertFalse( "all read", bb.hasRemaining());
+    }
+
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Private
+    ////////////////////////////////////////////////////////////////////////////
+
+    private String text( ReportBuffer buf ) {
+        return new String( buf.array(), 0, buf.length());
+    }
+
+}